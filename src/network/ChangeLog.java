@@ -0,0 +1,434 @@
+package network;
+
+import exceptions.DuplicateStopException;
+import exceptions.TransportFormatException;
+import routes.Route;
+import stops.Stop;
+import stops.StopGraph;
+import utilities.Tokenizer;
+import vehicles.PublicTransport;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only log of the changes made to a network since it was last
+ * written to a snapshot (see {@link Network#logChanges(String, String,
+ * boolean, int)}), which can be replayed on top of that snapshot to recover
+ * the network.
+ *
+ * <p>The log is a text file of one change per line, each ending with a
+ * newline character ('\n'). The first line names the generation of the
+ * snapshot the log applies to, and each line after it is one of:
+ *
+ * <p>changes {generation}<br>
+ * stop {stop}<br>
+ * restore {stop_index}<br>
+ * remove {stop_index}<br>
+ * route {route}<br>
+ * extend {route_index} {stop_index}<br>
+ * vehicle {vehicle}
+ *
+ * <p>where {stop} and {vehicle} are encoded as in the network file (see
+ * {@link Network#Network(String)}), and {route} is a route encoded as in the
+ * network file, but with the index of each of its stops in place of the
+ * stop's name (e.g. 'bus,red,1:4|0|7', or 'bus,red,1:' with no stops). A stop
+ * is referred to by its index in the network's {@link StopGraph}, which does
+ * not change when stops are removed, and a route by its position in the
+ * network's list of routes. A route added with stops already on it is logged
+ * as a single change, so that it is replayed with all of its stops or not at
+ * all. As in the network file, a vehicle is on the first route with its
+ * route number.
+ *
+ * <p>Each change is flushed to the file as soon as it is logged. A change
+ * which was only partly written when the program stopped (i.e. a last line
+ * with no newline) is dropped when the log is replayed.
+ *
+ * <p>When a network is compacted, it is written to a snapshot of the next
+ * generation, and then the log is replaced with an empty log of that
+ * generation. If the program stops in between, the log left behind is of an
+ * older generation than the snapshot, so it is known to be in the snapshot
+ * already, and is discarded rather than replayed.
+ */
+class ChangeLog implements Closeable {
+    // the keyword on the first line of every log
+    private static final String HEADER = "changes";
+
+    // the keyword of each kind of change
+    private static final String STOP = "stop";
+    private static final String RESTORE = "restore";
+    private static final String REMOVE = "remove";
+    private static final String ROUTE = "route";
+    private static final String EXTEND = "extend";
+    private static final String VEHICLE = "vehicle";
+
+    // the file the changes are appended to
+    private Writer writer;
+    // the generation of the snapshot the changes apply to
+    private long generation;
+    // the number of changes in the log
+    private int size;
+    // each change is built up before it is written
+    private StringBuilder line;
+
+    /*
+     * Creates a log which appends to the given writer, which already holds
+     * the given number of changes on top of the given generation.
+     */
+    private ChangeLog(Writer writer, long generation, int size) {
+        this.writer = writer;
+        this.generation = generation;
+        this.size = size;
+        this.line = new StringBuilder();
+    }
+
+    /**
+     * Writes a new, empty log of the given generation to the given file,
+     * overwriting it.
+     *
+     * @param file The file to write to.
+     * @param generation The generation of the snapshot the log applies to.
+     * @throws IOException If there are any IO errors whilst writing to the
+     *         file.
+     */
+    static void writeEmpty(File file, long generation) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(HEADER + " " + generation + "\n");
+        }
+    }
+
+    /**
+     * Opens the log in the given file, which holds the given number of
+     * changes on top of the given generation, to append changes to.
+     *
+     * @param filename The name of the file holding the log.
+     * @param generation The generation of the snapshot the log applies to.
+     * @param size The number of changes already in the log.
+     * @return The opened log.
+     * @throws IOException If the file cannot be opened.
+     */
+    static ChangeLog open(String filename, long generation, int size)
+            throws IOException {
+        return new ChangeLog(new BufferedWriter(new FileWriter(filename,
+                true)), generation, size);
+    }
+
+    /**
+     * Returns the generation of the log in the given file, having dropped any
+     * change at the end of it which was only partly written.
+     *
+     * @param filename The name of the file holding the log.
+     * @return The generation the log applies to, or -1 if there is no log in
+     *         the file (i.e. it does not exist, or not even its first line was
+     *         written).
+     * @throws IOException If the file cannot be read or truncated.
+     * @throws TransportFormatException If the first line of the file is not
+     *         a log's first line.
+     */
+    static long recoverGeneration(String filename)
+            throws IOException, TransportFormatException {
+        File file = new File(filename);
+        if (!file.exists()) {
+            return -1;
+        }
+        truncateTorn(filename);
+        try (BufferedReader reader = new BufferedReader(
+                new FileReader(file))) {
+            String header = reader.readLine();
+            if (header == null) {
+                return -1;
+            }
+            return parseHeader(header);
+        }
+    }
+
+    /**
+     * Replays the changes in the log in the given file on the given network,
+     * in the order they were made. The network must be in the state it was
+     * in when the log was started, i.e. loaded from the snapshot the log
+     * applies to.
+     *
+     * @param filename The name of the file holding the log, whose last change
+     *                 must have been completely written (see
+     *                 {@link #recoverGeneration(String)}).
+     * @param network The network to apply the changes to.
+     * @return The number of changes replayed.
+     * @throws IOException If the file cannot be read.
+     * @throws TransportFormatException If any change is incorrectly
+     *         formatted, or cannot be made to the network.
+     */
+    static int replay(String filename, Network network)
+            throws IOException, TransportFormatException {
+        StopGraph graph = network.getGraph();
+        List<Route> routes = network.getRoutes();
+        Map<Integer, Route> routesByNumber = new HashMap<>();
+        for (Route route : routes) {
+            routesByNumber.putIfAbsent(route.getRouteNumber(), route);
+        }
+
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new FileReader(filename))) {
+            reader.readLine();
+            String change;
+            while ((change = reader.readLine()) != null) {
+                int space = change.indexOf(' ');
+                if (space < 0) {
+                    throw new TransportFormatException();
+                }
+                String value = change.substring(space + 1);
+                switch (change.substring(0, space)) {
+                    case STOP:
+                        network.addStop(Stop.decode(value));
+                        break;
+                    case RESTORE:
+                        network.addStop(graph.getStop(
+                                Tokenizer.parseInt(value)));
+                        break;
+                    case REMOVE:
+                        network.removeStop(graph.getStop(
+                                Tokenizer.parseInt(value)));
+                        break;
+                    case ROUTE:
+                        // decoded without its stops, which are then added
+                        // by index as if each had been extended onto it
+                        int colon = value.indexOf(':');
+                        if (colon < 0) {
+                            throw new TransportFormatException();
+                        }
+                        Route route = Route.decode(
+                                value.substring(0, colon + 1),
+                                Collections.<Stop>emptyList());
+                        network.addRoute(route);
+                        routes.add(route);
+                        routesByNumber.putIfAbsent(route.getRouteNumber(),
+                                route);
+                        if (colon + 1 < value.length()) {
+                            for (String stop : Tokenizer.split(
+                                    value.substring(colon + 1), '|')) {
+                                network.extendRoute(route, graph.getStop(
+                                        Tokenizer.parseInt(stop)));
+                            }
+                        }
+                        break;
+                    case EXTEND:
+                        int split = value.indexOf(' ');
+                        if (split < 0) {
+                            throw new TransportFormatException();
+                        }
+                        network.extendRoute(routes.get(Tokenizer.parseInt(
+                                value.substring(0, split))),
+                                graph.getStop(Tokenizer.parseInt(
+                                        value.substring(split + 1))));
+                        break;
+                    case VEHICLE:
+                        network.addVehicle(PublicTransport.decode(value,
+                                routesByNumber));
+                        break;
+                    default:
+                        throw new TransportFormatException();
+                }
+                count++;
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException
+                | DuplicateStopException e) {
+            throw new TransportFormatException();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the generation of the snapshot the changes in this log apply
+     * to.
+     *
+     * @return The generation.
+     */
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the number of changes in this log.
+     *
+     * @return The number of changes.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Logs the addition of the given stop, as a new stop.
+     *
+     * @param stop The stop added to the network.
+     * @throws IOException If the change cannot be written.
+     */
+    void stopAdded(Stop stop) throws IOException {
+        line.setLength(0);
+        line.append(STOP).append(' ');
+        stop.encodeTo(line);
+        append();
+    }
+
+    /**
+     * Logs the addition of a stop which was previously removed, and so
+     * already has the given index.
+     *
+     * @param index The index of the stop.
+     * @throws IOException If the change cannot be written.
+     */
+    void stopRestored(int index) throws IOException {
+        line.setLength(0);
+        line.append(RESTORE).append(' ').append(index);
+        append();
+    }
+
+    /**
+     * Logs the removal of the stop with the given index.
+     *
+     * @param index The index of the stop.
+     * @throws IOException If the change cannot be written.
+     */
+    void stopRemoved(int index) throws IOException {
+        line.setLength(0);
+        line.append(REMOVE).append(' ').append(index);
+        append();
+    }
+
+    /**
+     * Logs the addition of the given route, along with the stops with the
+     * given indexes on it, as a single change.
+     *
+     * @param route The route added to the network.
+     * @param stops The indexes of the stops on the route, in order.
+     * @throws IOException If the change cannot be written.
+     */
+    void routeAdded(Route route, int[] stops) throws IOException {
+        line.setLength(0);
+        line.append(ROUTE).append(' ').append(route.getType()).append(',')
+                .append(route.getName()).append(',')
+                .append(route.getRouteNumber()).append(':');
+        for (int i = 0; i < stops.length; i++) {
+            if (i > 0) {
+                line.append('|');
+            }
+            line.append(stops[i]);
+        }
+        append();
+    }
+
+    /**
+     * Logs the stop with the given index being added to the end of the route
+     * at the given position.
+     *
+     * @param position The position of the route in the network's routes.
+     * @param stop The index of the stop.
+     * @throws IOException If the change cannot be written.
+     */
+    void routeExtended(int position, int stop) throws IOException {
+        line.setLength(0);
+        line.append(EXTEND).append(' ').append(position).append(' ')
+                .append(stop);
+        append();
+    }
+
+    /**
+     * Logs the addition of the given vehicle.
+     *
+     * @param vehicle The vehicle added to the network.
+     * @throws IOException If the change cannot be written.
+     */
+    void vehicleAdded(PublicTransport vehicle) throws IOException {
+        line.setLength(0);
+        line.append(VEHICLE).append(' ');
+        vehicle.encodeTo(line);
+        append();
+    }
+
+    /**
+     * Closes the file the changes are appended to.
+     *
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    /*
+     * Writes the change built up in line to the file, and flushes it.
+     */
+    private void append() throws IOException {
+        line.append('\n');
+        writer.append(line);
+        writer.flush();
+        size++;
+    }
+
+    /*
+     * Returns the generation named by the given first line of a log.
+     *
+     * Throws a TransportFormatException if it is not a log's first line.
+     */
+    private static long parseHeader(String header)
+            throws TransportFormatException {
+        if (!header.startsWith(HEADER + " ")) {
+            throw new TransportFormatException();
+        }
+        try {
+            long generation = Long.parseLong(
+                    header.substring(HEADER.length() + 1).trim());
+            if (generation < 0) {
+                throw new TransportFormatException();
+            }
+            return generation;
+        } catch (NumberFormatException e) {
+            throw new TransportFormatException();
+        }
+    }
+
+    /*
+     * Truncates the given file just after its last newline character, so
+     * that a change which was only partly written is dropped.
+     */
+    private static void truncateTorn(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+            long end = channel.size();
+            while (end > 0) {
+                int length = (int) Math.min(buffer.capacity(), end);
+                buffer.clear().limit(length);
+                long start = end - length;
+                while (buffer.hasRemaining()
+                        && channel.read(buffer, start + buffer.position())
+                        >= 0) {
+                    // keep reading until the block is full
+                }
+                for (int i = length - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        if (start + i + 1 < channel.size()) {
+                            channel.truncate(start + i + 1);
+                        }
+                        return;
+                    }
+                }
+                end = start;
+            }
+            channel.truncate(0);
+        }
+    }
+}
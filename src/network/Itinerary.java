@@ -0,0 +1,85 @@
+package network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A way of travelling between two stops by riding one or more routes in turn,
+ * as found by a {@link TransferRouter}.
+ *
+ * <p>The cost of an itinerary is the sum of the costs of its legs, and each
+ * leg after the first is a change of route at the stop where the previous
+ * leg ended.
+ */
+public class Itinerary {
+    // the legs of the itinerary, in order
+    private List<Leg> legs;
+    // the total cost of all the legs
+    private int cost;
+
+    /**
+     * Creates a new itinerary made up of the given legs.
+     *
+     * <p>An itinerary with no legs stays where it starts, at no cost.
+     *
+     * @param legs The legs of the itinerary, in order.
+     */
+    public Itinerary(List<Leg> legs) {
+        this.legs = Collections.unmodifiableList(new ArrayList<>(legs));
+        int total = 0;
+        for (Leg leg : legs) {
+            total += leg.getCost();
+        }
+        this.cost = total;
+    }
+
+    /**
+     * Returns the legs of this itinerary, in the order they are travelled.
+     *
+     * <p>The returned list cannot be modified.
+     *
+     * @return The legs of the itinerary.
+     */
+    public List<Leg> getLegs() {
+        return legs;
+    }
+
+    /**
+     * Returns the total cost of this itinerary.
+     *
+     * @return The sum of the costs of the legs.
+     */
+    public int getCost() {
+        return cost;
+    }
+
+    /**
+     * Returns the number of times a passenger following this itinerary
+     * changes route.
+     *
+     * @return The number of legs after the first.
+     */
+    public int getTransfers() {
+        return Math.max(0, legs.size() - 1);
+    }
+
+    /**
+     * Returns the legs of this itinerary separated by ', ', followed by the
+     * cost in brackets, e.g. 'Route 1: UQ Lakes-City, Route 2: City-Valley
+     * (12)'.
+     *
+     * @return A string representation of the itinerary.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Leg leg : legs) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(leg);
+        }
+        return builder.append(" (").append(cost).append(")").toString();
+    }
+}
@@ -0,0 +1,100 @@
+package network;
+
+import routes.Route;
+import stops.Stop;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One part of an {@link Itinerary}, spent on a single route.
+ *
+ * <p>A leg starts at the stop where the passenger boards a vehicle on the
+ * route and ends at the stop where they get off, passing the stops in
+ * between in the order they appear on the route (or the reverse order, when
+ * travelling the route backwards).
+ */
+public class Leg {
+    // the route travelled on
+    private Route route;
+    // the stops passed, from boarding to getting off
+    private List<Stop> stops;
+    // the sum of the distances between consecutive stops
+    private int cost;
+
+    /**
+     * Creates a new leg along the given route.
+     *
+     * @param route The route travelled on.
+     * @param stops The stops passed, from boarding to getting off. Must not
+     *              be empty.
+     * @param cost The cost of the leg.
+     */
+    public Leg(Route route, List<Stop> stops, int cost) {
+        this.route = route;
+        this.stops = Collections.unmodifiableList(new ArrayList<>(stops));
+        this.cost = cost;
+    }
+
+    /**
+     * Returns the route this leg is travelled on.
+     *
+     * @return The route.
+     */
+    public Route getRoute() {
+        return route;
+    }
+
+    /**
+     * Returns the stops passed on this leg, from the stop where the passenger
+     * boards to the stop where they get off (inclusive).
+     *
+     * <p>The returned list cannot be modified.
+     *
+     * @return The stops along the leg.
+     */
+    public List<Stop> getStops() {
+        return stops;
+    }
+
+    /**
+     * Returns the stop where the passenger boards.
+     *
+     * @return The first stop of the leg.
+     */
+    public Stop getBoardingStop() {
+        return stops.get(0);
+    }
+
+    /**
+     * Returns the stop where the passenger gets off.
+     *
+     * @return The last stop of the leg.
+     */
+    public Stop getAlightingStop() {
+        return stops.get(stops.size() - 1);
+    }
+
+    /**
+     * Returns the cost of this leg, i.e. the sum of the Manhattan distances
+     * between consecutive stops along it.
+     *
+     * @return The cost of the leg.
+     */
+    public int getCost() {
+        return cost;
+    }
+
+    /**
+     * Returns the name of the route followed by the names of the boarding and
+     * alighting stops, e.g. 'Route 1: UQ Lakes-City'.
+     *
+     * @return A string representation of the leg.
+     */
+    @Override
+    public String toString() {
+        return route.getName() + ": " + getBoardingStop().getName() + "-"
+                + getAlightingStop().getName();
+    }
+}
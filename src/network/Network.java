@@ -1,17 +1,33 @@
 package network;
 
 import exceptions.DuplicateStopException;
+import exceptions.TransportException;
 import exceptions.TransportFormatException;
 import routes.Route;
+import stops.ContractionHierarchy;
+import stops.Journey;
+import stops.ModeRouting;
+import stops.RoutingBackend;
+import stops.RouteEngine;
+import stops.RoutingBatch;
+import stops.RoutingCache;
 import stops.Stop;
+import stops.StopGraph;
+import utilities.Tokenizer;
 import utilities.Writeable;
 import vehicles.PublicTransport;
 
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.Map;
 
 /**
  * Represents the transportation network, and manages all of the various
@@ -21,6 +37,10 @@ public class Network {
     // standardises newline characters
     private static final String NEWLINE = System.lineSeparator();
 
+    // characters read from or written to a network file at a time
+    private static final int READ_BUFFER = 1 << 16;
+    private static final int WRITE_BUFFER = 1 << 16;
+
     // all the stops in the network
     private List<Stop> stops;
 
@@ -30,13 +50,47 @@ public class Network {
     // all the routes in the network
     private List<Route> routes;
 
+    // indexes the stops in the network, in the order they were added
+    private StopGraph graph;
+
+    // the routing batch currently open on this network, or null if none
+    private RoutingBatch batch;
+
+    // finds itineraries over the network's routes, or null until needed
+    private TransferRouter router;
+    // the modification counts of the routes the router was built from
+    private int[] routerModifications;
+
+    // the log of changes since the last snapshot, or null if not logging
+    private ChangeLog changeLog;
+    // where the network is compacted to while changes are logged
+    private String snapshotFile;
+    private String changeLogFile;
+    // whether compacted snapshots should hold routing tables
+    private boolean snapshotRouting;
+    // the number of logged changes after which the network is compacted
+    private int compactAfter;
+
     /**
      * Creates a new empty Network with no stops, vehicles, or routes.
      */
     public Network() {
+        this(RoutingBackend.HASH_MAP);
+    }
+
+    /**
+     * Creates a new empty Network with no stops, vehicles, or routes, whose
+     * stops store their routing tables in the given backend.
+     *
+     * @param backend How the routing tables of stops in this network should
+     *                store their entries. If null, the default
+     *                {@link RoutingBackend#HASH_MAP} is used.
+     */
+    public Network(RoutingBackend backend) {
         this.stops = new ArrayList<>();
         this.vehicles = new ArrayList<>();
         this.routes = new ArrayList<>();
+        this.graph = new StopGraph(backend);
     }
 
     /**
@@ -110,54 +164,114 @@ public class Network {
      */
     public Network(String filename)
             throws IOException, TransportFormatException {
-        this();
+        this(filename, RoutingBackend.HASH_MAP);
+    }
+
+    /**
+     * Creates a new Network from information contained in the file indicated by
+     * the given filename, as described in {@link #Network(String)}, whose
+     * stops store their routing tables in the given backend.
+     *
+     * @param filename The name of the file to load the network from.
+     * @param backend How the routing tables of stops in this network should
+     *                store their entries. If null, the default
+     *                {@link RoutingBackend#HASH_MAP} is used.
+     * @throws IOException If any IO exceptions occur whilst trying to read from
+     *         the file, or if the filename is null.
+     * @throws TransportFormatException If the file is incorrectly formatted,
+     *         as described in {@link #Network(String)}.
+     */
+    public Network(String filename, RoutingBackend backend)
+            throws IOException, TransportFormatException {
+        this(filename, backend, 0);
+    }
+
+    /**
+     * Creates a new Network from information contained in the file indicated by
+     * the given filename, as described in {@link #Network(String)}, decoding
+     * its stop and vehicle lines on the given number of threads.
+     *
+     * <p>The lines of each section are read in order and decoded in chunks on
+     * the other threads, then added to the network in the order they appear in
+     * the file, so the network (and the first format error reported) is the
+     * same as if they were decoded one at a time. Routes are still decoded and
+     * linked one at a time, so the links between stops are always made in the
+     * same order.
+     *
+     * @param filename The name of the file to load the network from.
+     * @param backend How the routing tables of stops in this network should
+     *                store their entries. If null, the default
+     *                {@link RoutingBackend#HASH_MAP} is used.
+     * @param parallelism The number of threads to decode lines on. If 1, every
+     *                    line is decoded as it is read; if less than 1, the
+     *                    number of available processors is used.
+     * @throws IOException If any IO exceptions occur whilst trying to read from
+     *         the file, or if the filename is null.
+     * @throws TransportFormatException If the file is incorrectly formatted,
+     *         as described in {@link #Network(String)}.
+     */
+    public Network(String filename, RoutingBackend backend, int parallelism)
+            throws IOException, TransportFormatException {
+        this(backend);
         if (filename == null) {
             throw new IOException();
         }
 
-        // create a file reader
-        BufferedReader reader = new BufferedReader(new FileReader(filename));
-        List<String> lines = new ArrayList<>();
-        String line;
+        // the file is parsed a section at a time as it is read, so it is never
+        // held in memory all at once
+        try (SectionReader lines = new SectionReader(new BufferedReader(
+                new FileReader(filename), READ_BUFFER), parallelism)) {
 
-        // while the end of file has not been reached.
-        while ((line = reader.readLine()) != null) {
-            lines.add(line);
-        }
-        reader.close();
-        Iterator<String> elements = lines.iterator();
+            // routing is computed once all the routes have been read
+            beginBatch();
+            try {
+                // read the stopos, indexing each name by its first stop
+                stops = new ArrayList<>();
+                Map<String, Stop> stopsByName = new HashMap<>();
+                int stopCount = Tokenizer.parseInt(lines.nextLine());
+                lines.decode(stopCount, Stop::decode, decoded -> {
+                    stops.add(decoded);
+                    stopsByName.putIfAbsent(decoded.getName(), decoded);
+                    graph.add(decoded);
+                    batch.add(decoded);
+                });
 
-        try {
-            // read the stopos
-            stops = new ArrayList<>();
-            int stopCount = Integer.parseInt(elements.next().trim());
-            for (int i = 0; i < stopCount; i++) {
-                String stop = elements.next();
-                stops.add(Stop.decode(stop));
-            }
+                // read the routes, indexing each number by its first route
+                routes = new ArrayList<>();
+                Map<Integer, Route> routesByNumber = new HashMap<>();
+                int routeCount = Tokenizer.parseInt(lines.nextLine());
+                for (int i = 0; i < routeCount; i++) {
+                    Route decoded = Route.decode(lines.nextLine(),
+                            stopsByName);
+                    routes.add(decoded);
+                    routesByNumber.putIfAbsent(decoded.getRouteNumber(),
+                            decoded);
+                }
 
-            // read the routes
-            routes = new ArrayList<>();
-            int routeCount = Integer.parseInt(elements.next().trim());
-            for (int i = 0; i < routeCount; i++) {
-                String route = elements.next();
-                routes.add(Route.decode(route, stops));
-            }
+                commit();
 
-            // read the public transport
-            vehicles = new ArrayList<>();
-            int vehicleCount = Integer.parseInt(elements.next().trim());
-            for (int i = 0; i < vehicleCount; i++) {
-                String vehicle = elements.next();
-                vehicles.add(PublicTransport.decode(vehicle, routes));
-            }
+                // read the public transport, adding each to its route in order
+                vehicles = new ArrayList<>();
+                int vehicleCount = Tokenizer.parseInt(lines.nextLine());
+                lines.decode(vehicleCount,
+                        line -> PublicTransport.decodeDetached(line,
+                                routesByNumber),
+                        decoded -> {
+                            try {
+                                decoded.getRoute().addTransport(decoded);
+                            } catch (TransportException e) {
+                                throw new TransportFormatException();
+                            }
+                            vehicles.add(decoded);
+                        });
 
-            // there should be no extra lines in the file
-            if (elements.hasNext()) {
+                // there should be no extra lines in the file
+                if (!lines.atEnd()) {
+                    throw new TransportFormatException();
+                }
+            } catch (NumberFormatException e) {
                 throw new TransportFormatException();
             }
-        } catch (NoSuchElementException | NumberFormatException e) {
-            throw new TransportFormatException();
         }
     }
 
@@ -165,9 +279,17 @@ public class Network {
      * Adds the given stop to the transportation network. If the given stop is
      * null, it should not be added to the network. If the stop is already in
      * the list, a DuplicateStopException should be thrown
+     *
+     * <p>A stop can only be in one network, as it keeps its index in that
+     * network's graph (see {@link #getGraph()}) even once removed from it.
      * @param stop The stop to add to the network.
      * @throws DuplicateStopException If the given stop already exists in the
      * network.
+     * @throws IllegalArgumentException If the given stop has been added to
+     * another network.
+     * @throws UncheckedIOException If changes to this network are logged (see
+     * {@link #logChanges(String, String, boolean, int)}), and the change
+     * cannot be logged.
      */
     public void addStop(Stop stop) throws DuplicateStopException {
         if (stop == null) {
@@ -176,7 +298,14 @@ public class Network {
         if (this.stops.contains(stop)) {
             throw new DuplicateStopException();
         }
+        checkUnindexed(stop);
+        boolean restored = graph.indexOf(stop) >= 0;
         stops.add(stop);
+        graph.add(stop);
+        if (batch != null) {
+            batch.add(stop);
+        }
+        logStop(stop, restored);
     }
 
     /**
@@ -188,6 +317,11 @@ public class Network {
      * @throws DuplicateStopException If any of the stops already exist in the
      * network. If there are any duplicate stops, none of the stops should be
      * added (i.e. either all of the stops are added, or none are).
+     * @throws IllegalArgumentException If any of the stops has been added to
+     * another network (see {@link #addStop(Stop)}), in which case none of
+     * the stops are added.
+     * @throws UncheckedIOException If changes to this network are logged, and
+     * the changes cannot be logged.
      */
     public void addStops(List<Stop>  stops) throws DuplicateStopException {
         for (Stop stop : stops) {
@@ -198,7 +332,107 @@ public class Network {
         if (this.stops.containsAll(stops)) {
             throw new DuplicateStopException();
         }
+        for (Stop stop : stops) {
+            checkUnindexed(stop);
+        }
         this.stops.addAll(stops);
+        for (Stop stop : stops) {
+            boolean restored = graph.indexOf(stop) >= 0;
+            graph.add(stop);
+            if (batch != null) {
+                batch.add(stop);
+            }
+            logStop(stop, restored);
+        }
+    }
+
+    /*
+     * Throws an IllegalArgumentException if the given stop has been indexed
+     * by another network's graph.
+     */
+    private void checkUnindexed(Stop stop) {
+        if (stop.getIndex() >= 0 && graph.indexOf(stop) < 0) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Removes the given stop from the transportation network, e.g. when it is
+     * closed.
+     *
+     * <p>The stop is removed from every route it is on (see
+     * {@link Route#removeStop(Stop)}), so those routes now go straight past
+     * it, and is then disconnected from every other stop (see
+     * {@link Stop#disconnect()}). Only the routing table entries which were
+     * routed through the stop are recomputed; the rest of the network's
+     * routing is left as it is.
+     *
+     * <p>The stop keeps its index in {@link #getGraph()}, so that the indexes
+     * of the other stops do not change.
+     *
+     * <p>If the given stop is null, or is not in the network, nothing
+     * happens.
+     *
+     * @param stop The stop to remove from the network.
+     * @throws UncheckedIOException If changes to this network are logged (see
+     *         {@link #logChanges(String, String, boolean, int)}), and the
+     *         change cannot be logged.
+     */
+    public void removeStop(Stop stop) {
+        if (stop == null || !stops.remove(stop)) {
+            return;
+        }
+        for (Route route : stop.getRoutes()) {
+            route.removeStop(stop);
+        }
+        stop.disconnect();
+        router = null;
+        logChange(log -> log.stopRemoved(graph.indexOf(stop)));
+    }
+
+    /**
+     * Starts a bulk update of this network.
+     *
+     * <p>Until {@link #commit()} is called, linking stops in this network
+     * together (e.g. by adding them to routes) only records the new
+     * neighbours, rather than synchronising every routing table after each
+     * one. Stops added to the network during the batch are included in it.
+     *
+     * <p>If a batch is already in progress, this method does nothing.
+     */
+    public void beginBatch() {
+        if (batch != null) {
+            return;
+        }
+        batch = new RoutingBatch(graph);
+        for (Stop stop : stops) {
+            batch.add(stop);
+        }
+    }
+
+    /**
+     * Finishes a bulk update started by {@link #beginBatch()}, computing the
+     * routing tables of all the stops in the network in a single pass.
+     *
+     * <p>If no batch is in progress, this method does nothing.
+     *
+     * @throws UncheckedIOException If changes to this network are logged, and
+     *         compacting it once the batch is committed fails (see
+     *         {@link #logChanges(String, String, boolean, int)}).
+     */
+    public void commit() {
+        if (batch == null) {
+            return;
+        }
+        batch.commit();
+        batch = null;
+        if (changeLog != null) {
+            try {
+                compactIfDue();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 
     /**
@@ -213,19 +447,280 @@ public class Network {
         return new ArrayList<>(stops);
     }
 
+    /**
+     * Recomputes the routing table of every stop in this network from the
+     * links between its stops, spreading the work over the given number of
+     * threads.
+     *
+     * <p>Each stop's table is computed independently (with one shortest-path
+     * search per stop), and the new tables only replace the old ones once all
+     * of them have been computed. Entries which did not come from links
+     * between stops in this network are dropped.
+     *
+     * <p>If a stop in this network is linked to a stop outside of it, routes
+     * through that stop must be found as well, so the tables are instead
+     * reset to their neighbours and synchronised on the calling thread.
+     *
+     * @param parallelism The number of threads to use. If less than 1, the
+     *                    number of available processors is used.
+     */
+    public void rebuildRouting(int parallelism) {
+        RouteEngine.rebuild(graph, parallelism);
+    }
+
+    /**
+     * Sets whether stops linked together in this network (e.g. by adding a
+     * stop to a route) should have their routing updated incrementally.
+     *
+     * <p>When turned on, a new link only updates the routing table entries it
+     * makes cheaper, rather than synchronising the whole network. The tables
+     * must already be synchronised when it is turned on, as they are after
+     * loading a network from a file or committing a batch. This is the
+     * cheapest way to add temporary stops or detours to a live network.
+     *
+     * @param incremental True to route new links incrementally.
+     */
+    public void setIncrementalRouting(boolean incremental) {
+        graph.setIncremental(incremental);
+    }
+
+    /**
+     * Sets whether routes in this network should be found lazily, when they
+     * are first asked for, rather than held for every destination in every
+     * stop's routing table.
+     *
+     * <p>With lazy routing, each routing table only holds its own stop and its
+     * neighbours, and a route to any other stop is found the first time
+     * {@link stops.RoutingTable#nextStop(Stop)} (or
+     * {@link stops.RoutingTable#costTo(Stop)}) asks for it, with an A* search
+     * guided by the Manhattan distance to the destination. The routes found
+     * are kept in a least-recently-used cache shared by the whole network,
+     * holding at most the given number of routes (see
+     * {@link #getRoutingCache()}). This suits large networks where most stops
+     * never route passengers to most destinations.
+     *
+     * <p>Turning lazy routing on empties the existing routing tables; turning
+     * it off leaves them empty, so {@link #rebuildRouting(int)} should be
+     * called afterwards. See {@link StopGraph#setLazyRouting(int)}.
+     *
+     * @param capacity The most routes to cache, or 0 (or less) to turn lazy
+     *                 routing off.
+     */
+    public void setLazyRouting(int capacity) {
+        graph.setLazyRouting(capacity);
+    }
+
+    /**
+     * Returns the cache of routes used when routing in this network is lazy,
+     * with its hit, miss and eviction counts.
+     *
+     * @return The routing cache, or null if routing is not lazy.
+     */
+    public RoutingCache getRoutingCache() {
+        return graph.getRoutingCache();
+    }
+
+    /**
+     * Builds a contraction hierarchy over the stops in this network and the
+     * links between them, for fast routing queries on very large networks.
+     *
+     * <p>The hierarchy answers the same {@code costTo} and {@code nextStop}
+     * queries as a synchronised routing table, each with two small searches
+     * rather than a table per stop, so it is best combined with lazy routing
+     * (see {@link #setLazyRouting(int)}), whose routing tables then use it
+     * for routes they have not cached. It is dropped as soon as stops in the
+     * network are linked or unlinked, and must then be built again.
+     *
+     * @return The new hierarchy.
+     */
+    public ContractionHierarchy buildContractionHierarchy() {
+        return graph.buildHierarchy();
+    }
+
+    /**
+     * Returns the contraction hierarchy built over this network's current
+     * links, if any.
+     *
+     * @return The hierarchy, or null if none has been built since stops were
+     *         last linked or unlinked.
+     */
+    public ContractionHierarchy getContractionHierarchy() {
+        return graph.getHierarchy();
+    }
+
+    /**
+     * Builds routing tables for every combination of route modes (bus, train
+     * and ferry), so that passengers can be routed on some kinds of route
+     * only, e.g. while trains are on strike.
+     *
+     * <p>The tables are built once, with one search per stop for each
+     * combination of the modes used by the network's routes, rather than by
+     * synchronising a filtered copy of the network, and identical parts of
+     * the tables are shared between combinations. Queries then take a mode
+     * mask, e.g. {@code ModeRouting.BUS | ModeRouting.FERRY}. The tables are
+     * dropped as soon as stops in the network are linked or unlinked, and
+     * must then be built again. See {@link ModeRouting}.
+     *
+     * @param parallelism The number of threads to use. If less than 1, the
+     *                    number of available processors is used.
+     * @return The new tables.
+     */
+    public ModeRouting buildModeRouting(int parallelism) {
+        return graph.buildModeRouting(parallelism);
+    }
+
+    /**
+     * Returns the per-mode routing tables built over this network's current
+     * links, if any.
+     *
+     * @return The tables, or null if none have been built since stops were
+     *         last linked or unlinked.
+     */
+    public ModeRouting getModeRouting() {
+        return graph.getModeRouting();
+    }
+
+    /**
+     * Finds a cheapest journey between two stops in this network, along the
+     * links between neighbouring stops.
+     *
+     * <p>No routing tables are used, so this works whether routing is eager,
+     * incremental or lazy, and needs nothing to be precomputed. The search is
+     * an A* search from the first stop, guided by the Manhattan distance to
+     * the second, and usually only looks at the stops near the cheapest
+     * journey. See {@link StopGraph#findPath(Stop, Stop)}.
+     *
+     * @param from The stop to start from.
+     * @param to The stop to end at.
+     * @return A cheapest journey between the stops, or null if either stop is
+     *         not in this network or there is no way from one to the other.
+     */
+    public Journey findPath(Stop from, Stop to) {
+        return graph.findPath(from, to);
+    }
+
+    /**
+     * Finds the itineraries between two stops in this network which best
+     * trade off their cost against the number of changes of route.
+     *
+     * <p>Each itinerary rides one or more of the network's routes in turn, and
+     * every one returned is either cheaper or has fewer changes than each of
+     * the others; they are ordered by increasing number of changes. See
+     * {@link TransferRouter}.
+     *
+     * <p>The router is built from the network's routes the first time it is
+     * needed, and again after routes are added to or stops removed from the
+     * network, or the stops on any of its routes have changed (including
+     * through {@link Route#addStop(Stop)}, see
+     * {@link Route#getModificationCount()}).
+     *
+     * @param from The stop to start from.
+     * @param to The stop to end at.
+     * @param maxTransfers The most changes of route to consider.
+     * @return The Pareto-optimal itineraries, which is empty if there is no
+     *         way between the stops with at most the given number of changes.
+     */
+    public List<Itinerary> findItineraries(Stop from, Stop to,
+                                           int maxTransfers) {
+        if (router == null || routesModified()) {
+            router = new TransferRouter(routes);
+            routerModifications = new int[routes.size()];
+            for (int i = 0; i < routes.size(); i++) {
+                routerModifications[i] = routes.get(i).getModificationCount();
+            }
+        }
+        return router.findItineraries(from, to, maxTransfers);
+    }
+
+    /*
+     * Checks whether the stops on any route have changed since the router
+     * was built.
+     */
+    private boolean routesModified() {
+        for (int i = 0; i < routes.size(); i++) {
+            if (routes.get(i).getModificationCount()
+                    != routerModifications[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the compact, index-based graph of the stops in this network.
+     *
+     * <p>Each stop is given the next dense index when it is added to the
+     * network (see {@link Stop#getIndex()}), and the graph holds the links
+     * between them in compact arrays which routing and traversal can run on.
+     *
+     * @return The graph of this network's stops.
+     */
+    public StopGraph getGraph() {
+        return graph;
+    }
+
     /**
      * Adds the given route to the network.
      *
      * <p>If the given route is null, it should not be added to the network.
      *
+     * <p>While changes to this network are logged (see
+     * {@link #logChanges(String, String, boolean, int)}), every stop on the
+     * route must have been added to the network.
+     *
      * @param route The route to add to the network.
+     * @throws IllegalStateException If changes to this network are logged,
+     *         and the route stops at a stop which has never been added to it.
+     * @throws UncheckedIOException If the change cannot be logged.
      */
     public void addRoute(Route route) {
         if (route != null) {
+            int[] indexes = changeLog == null ? null
+                    : indexesOf(route.getStopsOnRoute());
             routes.add(route);
+            router = null;
+            logChange(log -> log.routeAdded(route, indexes));
         }
     }
 
+    /**
+     * Adds the given stop to the end of the given route in this network (see
+     * {@link Route#addStop(Stop)}).
+     *
+     * <p>Stops can be added to routes directly, but only stops added through
+     * this method are logged while changes to this network are logged (see
+     * {@link #logChanges(String, String, boolean, int)}).
+     *
+     * <p>If either the route or the stop is null, or the route is not in this
+     * network, nothing happens.
+     *
+     * @param route The route to add the stop to.
+     * @param stop The stop to add to the route.
+     * @throws IllegalStateException If changes to this network are logged,
+     *         and the stop has never been added to it.
+     * @throws UncheckedIOException If the change cannot be logged.
+     */
+    public void extendRoute(Route route, Stop stop) {
+        if (route == null || stop == null) {
+            return;
+        }
+        int position = -1;
+        for (int i = 0; i < routes.size() && position < 0; i++) {
+            if (routes.get(i) == route) {
+                position = i;
+            }
+        }
+        if (position < 0) {
+            return;
+        }
+        int index = changeLog == null ? -1
+                : indexesOf(Collections.singletonList(stop))[0];
+        route.addStop(stop);
+        router = null;
+        int extended = position;
+        logChange(log -> log.routeExtended(extended, index));
+    }
+
     /**
      * Gets all the routes in this network.
      *
@@ -244,10 +739,13 @@ public class Network {
      * <p>If the given vehicle is null, it should not be added to the network.
      *
      * @param vehicle The vehicle to add to the network.
+     * @throws UncheckedIOException If changes to this network are logged, and
+     *         the change cannot be logged.
      */
     public void addVehicle(PublicTransport vehicle) {
         if (vehicle != null) {
             vehicles.add(vehicle);
+            logChange(log -> log.vehicleAdded(vehicle));
         }
     }
 
@@ -276,43 +774,451 @@ public class Network {
      *
      * <p>If the given filename is null, the method should do nothing.
      *
+     * <p>Each stop, route and vehicle is streamed through a buffered writer
+     * (see {@link Writeable#encodeTo(Appendable)}), so the whole file is never
+     * held in memory. It is written to a temporary file next to the given one,
+     * which then replaces it, so a save which fails part of the way through
+     * leaves any existing file as it was.
+     *
      * @param filename The name of the file to save the network to.
      * @throws IOException If there are any IO errors whilst writing to the
      * file.
      */
     public void save(String filename) throws IOException {
-        BufferedWriter writer = new BufferedWriter(new FileWriter(filename));
-        writer.write(this.encode());
-        writer.close();
+        if (filename == null) {
+            return;
+        }
+        writeAtomically(filename, file -> {
+            try (BufferedWriter writer = new BufferedWriter(
+                    new FileWriter(file), WRITE_BUFFER)) {
+                writeComponent(writer, stops);
+                writeComponent(writer, routes);
+                writeComponent(writer, vehicles);
+            }
+        });
+    }
+
+    /**
+     * Saves this network to the file indicated by the given filename as a
+     * binary snapshot, which {@link #loadSnapshot(String, RoutingBackend)} can
+     * load far faster than {@link #Network(String)} can read the text format.
+     *
+     * <p>The snapshot holds the same stops, routes and vehicles as
+     * {@link #save(String)} would write, in the same order. If asked to, it
+     * also holds the routing table of every stop, so that loading it needs no
+     * routing to be computed; the file then takes eight bytes for every pair
+     * of stops. As with {@link #save(String)}, the snapshot is written to a
+     * temporary file which then replaces the given file.
+     *
+     * <p>Stops which have been removed from the network are also kept in the
+     * snapshot (though not in the loaded network), so every stop keeps its
+     * index in {@link #getGraph()} when the snapshot is loaded.
+     *
+     * @param filename The name of the file to save the network to.
+     * @param routing Whether the routing tables should be saved too.
+     * @throws IOException If there are any IO errors whilst writing to the
+     *         file, or if the filename is null.
+     * @throws IllegalStateException If a route stops at a stop which is not in
+     *         this network. Also if the routing tables are to be saved but are
+     *         not complete (i.e. routing is lazy, or a batch is in progress),
+     *         or some link between stops is not along a route (snapshots only
+     *         hold the links along routes, as with {@link #save(String)}).
+     */
+    public void saveSnapshot(String filename, boolean routing)
+            throws IOException {
+        if (filename == null) {
+            throw new IOException();
+        }
+        if (routing && (batch != null || graph.getRoutingCache() != null)) {
+            throw new IllegalStateException();
+        }
+        writeAtomically(filename, file -> Snapshot.write(file.getPath(),
+                indexedStops(), stops, routes, vehicles,
+                routing ? graph : null, 0));
+    }
+
+    /**
+     * Loads a network from a binary snapshot written by
+     * {@link #saveSnapshot(String, boolean)}, whose stops store their routing
+     * tables in the given backend.
+     *
+     * <p>The file is memory-mapped rather than read and parsed. If the
+     * snapshot holds routing tables, they are used where they lie in the
+     * file, and the parts of it holding a stop's table are only read from the
+     * disk when that table is first used; changing a table (e.g. by linking
+     * stops) copies it into the given backend first. Otherwise, the routing
+     * tables are computed as in {@link #Network(String)}.
+     *
+     * @param filename The name of the file to load the network from.
+     * @param backend How the routing tables of stops in the network should
+     *                store their entries. If null, the default
+     *                {@link RoutingBackend#HASH_MAP} is used.
+     * @return The loaded network.
+     * @throws IOException If any IO exceptions occur whilst trying to read from
+     *         the file, or if the filename is null.
+     * @throws TransportFormatException If the file is not a snapshot written
+     *         in this version of the format, or is incorrectly formatted.
+     */
+    public static Network loadSnapshot(String filename, RoutingBackend backend)
+            throws IOException, TransportFormatException {
+        if (filename == null) {
+            throw new IOException();
+        }
+        return loadSnapshot(new Snapshot(filename), backend);
+    }
+
+    /**
+     * Starts logging every change made to this network through its methods to
+     * the given change log, so that the network can be recovered from it with
+     * {@link #recover(String, String, RoutingBackend, int)} without ever
+     * being saved in full.
+     *
+     * <p>The network is first written to the given snapshot file (as in
+     * {@link #saveSnapshot(String, boolean)}), and the change log is started
+     * afresh on top of it. From then on, each stop, route or vehicle added to
+     * the network, each stop added to a route with
+     * {@link #extendRoute(Route, Stop)}, and each stop removed from the
+     * network, is appended to the change log as soon as it is made, so saving
+     * costs as much as the changes being made, rather than the size of the
+     * network. Changes made directly to the network's stops and routes (e.g.
+     * {@link Route#addStop(Stop)}) are not logged.
+     *
+     * <p>Once the given number of changes have been logged, the network is
+     * compacted (see {@link #compactChanges()}) after the change which
+     * reached it, or when the batch it was made in is committed.
+     *
+     * <p>If changes were already being logged, that log is closed first.
+     *
+     * @param snapshotFile The name of the file to write snapshots to.
+     * @param changeLogFile The name of the file to log changes to.
+     * @param routing Whether the snapshots should hold routing tables. They
+     *                are left out of any snapshot written while routing is
+     *                lazy or a batch is in progress.
+     * @param compactAfter The number of changes after which the network is
+     *                     compacted, or 0 (or less) to only compact it when
+     *                     {@link #compactChanges()} is called.
+     * @throws IOException If either filename is null, or there are any IO
+     *         errors whilst writing to either file.
+     * @throws IllegalStateException If a snapshot of this network cannot be
+     *         written (see {@link #saveSnapshot(String, boolean)}).
+     */
+    public void logChanges(String snapshotFile, String changeLogFile,
+                           boolean routing, int compactAfter)
+            throws IOException {
+        if (snapshotFile == null || changeLogFile == null) {
+            throw new IOException();
+        }
+        closeChangeLog();
+
+        // the new generation follows any snapshot already in the file, so a
+        // log left over from it is never replayed on the new snapshot
+        long generation = 1;
+        try {
+            generation = new Snapshot(snapshotFile).getGeneration() + 1;
+        } catch (IOException | TransportFormatException e) {
+            // there is no earlier snapshot to follow
+        }
+
+        this.snapshotFile = snapshotFile;
+        this.changeLogFile = changeLogFile;
+        this.snapshotRouting = routing;
+        this.compactAfter = compactAfter;
+        compact(generation);
+    }
+
+    /**
+     * Writes this network to its snapshot file, and empties its change log
+     * (see {@link #logChanges(String, String, boolean, int)}).
+     *
+     * <p>The snapshot is written first, with the next generation, and the
+     * change log is then replaced with an empty log of that generation, so
+     * that the files always hold the network as it was after the last change
+     * logged, even if the program stops part of the way through.
+     *
+     * <p>If changes to this network are not being logged, nothing happens.
+     *
+     * @throws IOException If there are any IO errors whilst writing to either
+     *         file.
+     */
+    public void compactChanges() throws IOException {
+        if (changeLog != null) {
+            compact(changeLog.getGeneration() + 1);
+        }
+    }
+
+    /**
+     * Stops logging changes to this network, and closes its change log (see
+     * {@link #logChanges(String, String, boolean, int)}). The network can
+     * still be recovered from its files as they are.
+     *
+     * <p>If changes to this network are not being logged, nothing happens.
+     *
+     * @throws IOException If the change log cannot be closed.
+     */
+    public void closeChangeLog() throws IOException {
+        if (changeLog != null) {
+            ChangeLog closed = changeLog;
+            changeLog = null;
+            closed.close();
+        }
+    }
+
+    /**
+     * Recovers a network from the given snapshot and change log, written by a
+     * network logging its changes (see
+     * {@link #logChanges(String, String, boolean, int)}), and carries on
+     * logging the recovered network's changes to them.
+     *
+     * <p>The snapshot is loaded as in
+     * {@link #loadSnapshot(String, RoutingBackend)}, and then the changes in
+     * the log are made to it in order, with their routing updated
+     * incrementally (see {@link #setIncrementalRouting(boolean)}), so the
+     * cost of recovering the network beyond loading the snapshot is
+     * proportional to the number of changes logged. Any change which was only
+     * partly written is dropped. If there is no change log, or it is older
+     * than the snapshot (i.e. the program stopped whilst compacting), there
+     * are no changes to make, and an empty change log is started.
+     *
+     * <p>Compacted snapshots hold routing tables if the given snapshot does.
+     *
+     * @param snapshotFile The name of the file holding the snapshot.
+     * @param changeLogFile The name of the file holding the change log.
+     * @param backend How the routing tables of stops in the network should
+     *                store their entries. If null, the default
+     *                {@link RoutingBackend#HASH_MAP} is used.
+     * @param compactAfter The number of changes after which the network is
+     *                     compacted, or 0 (or less) to only compact it when
+     *                     {@link #compactChanges()} is called.
+     * @return The recovered network.
+     * @throws IOException If either filename is null, or there are any IO
+     *         errors whilst reading or writing either file.
+     * @throws TransportFormatException If the snapshot or change log is
+     *         incorrectly formatted, the change log is newer than the
+     *         snapshot, or any of its changes cannot be made to the network.
+     */
+    public static Network recover(String snapshotFile, String changeLogFile,
+                                  RoutingBackend backend, int compactAfter)
+            throws IOException, TransportFormatException {
+        if (snapshotFile == null || changeLogFile == null) {
+            throw new IOException();
+        }
+        Snapshot snapshot = new Snapshot(snapshotFile);
+        Network network = loadSnapshot(snapshot, backend);
+        long generation = snapshot.getGeneration();
+
+        long logged = ChangeLog.recoverGeneration(changeLogFile);
+        if (logged > generation) {
+            throw new TransportFormatException();
+        }
+        int size = 0;
+        if (logged == generation) {
+            // the tables are synchronised once the snapshot is loaded
+            boolean incremental = network.graph.isIncremental();
+            network.graph.setIncremental(true);
+            try {
+                size = ChangeLog.replay(changeLogFile, network);
+            } finally {
+                network.graph.setIncremental(incremental);
+            }
+        } else {
+            writeAtomically(changeLogFile,
+                    file -> ChangeLog.writeEmpty(file, generation));
+        }
+
+        network.snapshotFile = snapshotFile;
+        network.changeLogFile = changeLogFile;
+        network.snapshotRouting = snapshot.hasRouting();
+        network.compactAfter = compactAfter;
+        network.changeLog = ChangeLog.open(changeLogFile, generation, size);
+        network.compactIfDue();
+        return network;
     }
 
     /*
-     * Encodes the given list into a String of the format:
+     * Loads a network from the given snapshot, as described in
+     * loadSnapshot(String, RoutingBackend).
+     */
+    private static Network loadSnapshot(Snapshot snapshot,
+                                        RoutingBackend backend)
+            throws IOException, TransportFormatException {
+        Network network = new Network(backend);
+
+        // the routes link their stops without synchronising any tables
+        network.beginBatch();
+        // every stop keeps the index it had, including removed stops, so the
+        // indexes in a change log on top of the snapshot still hold
+        List<Stop> indexed = snapshot.readStops();
+        for (Stop stop : indexed) {
+            network.graph.add(stop);
+            network.batch.add(stop);
+        }
+        network.stops = snapshot.readNetworkStops(indexed);
+        network.routes = snapshot.readRoutes(indexed);
+        network.vehicles = snapshot.readVehicles(network.routes);
+
+        if (snapshot.hasRouting()) {
+            snapshot.mapRouting(network.graph);
+            network.batch.close();
+            network.batch = null;
+        } else {
+            network.commit();
+        }
+        return network;
+    }
+
+    /*
+     * Writes the given list to the given writer in the format:
      * {size}
-     * {toString}
-     * {toString}
+     * {encode}
+     * {encode}
      * ...
-     * {toString}
+     * {encode}
      *
-     * where {size} is the size of the list and {toString} is a call to the
-     * toString method of each item in the list.
+     * where {size} is the size of the list and {encode} is the encoding of
+     * each item in the list, each followed by a newline.
      */
-    private String encodeComponent(List<? extends Writeable> toEncode) {
-        StringBuilder builder = new StringBuilder();
-
-        builder.append(toEncode.size()).append(NEWLINE);
+    private static void writeComponent(Writer writer,
+                                       List<? extends Writeable> toEncode)
+            throws IOException {
+        writer.write(Integer.toString(toEncode.size()));
+        writer.write(NEWLINE);
+        // each line is built up before it is written, as every write to the
+        // writer takes its lock, so only the longest line is held at once
+        StringBuilder line = new StringBuilder();
         for (Writeable component : toEncode) {
-            builder.append(component.encode()).append(NEWLINE);
+            line.setLength(0);
+            component.encodeTo(line);
+            line.append(NEWLINE);
+            writer.append(line);
         }
+    }
 
-        return builder.toString();
+    /*
+     * Writes a file with the given name, by writing a temporary file in the
+     * same directory (the name followed by ".tmp") with the given output, and
+     * then moving it over the named file, atomically where the file system
+     * allows it. If writing the temporary file fails, it is deleted and the
+     * named file is left alone.
+     */
+    private static void writeAtomically(String filename, FileOutput output)
+            throws IOException {
+        Path target = Paths.get(filename).toAbsolutePath();
+        // created like any other file, so it is given the usual permissions
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            output.writeTo(temporary.toFile());
+            try {
+                Files.move(temporary, target,
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, target,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /*
+     * Writes this network to its snapshot file with the given generation,
+     * then replaces its change log with an empty log of that generation.
+     */
+    private void compact(long generation) throws IOException {
+        boolean routing = snapshotRouting && batch == null
+                && graph.getRoutingCache() == null;
+        writeAtomically(snapshotFile, file -> Snapshot.write(file.getPath(),
+                indexedStops(), stops, routes, vehicles,
+                routing ? graph : null, generation));
+        closeChangeLog();
+        writeAtomically(changeLogFile,
+                file -> ChangeLog.writeEmpty(file, generation));
+        changeLog = ChangeLog.open(changeLogFile, generation, 0);
+    }
+
+    /*
+     * Returns every stop in this network's graph, in index order, including
+     * stops which have been removed from the network.
+     */
+    private List<Stop> indexedStops() {
+        List<Stop> indexed = new ArrayList<>(graph.size());
+        for (int i = 0; i < graph.size(); i++) {
+            indexed.add(graph.getStop(i));
+        }
+        return indexed;
+    }
+
+    /*
+     * Compacts this network if enough changes have been logged, unless a
+     * batch is in progress, in which case it is compacted on commit.
+     *
+     * @requires changeLog != null
+     */
+    private void compactIfDue() throws IOException {
+        if (compactAfter > 0 && changeLog.size() >= compactAfter
+                && batch == null) {
+            compact(changeLog.getGeneration() + 1);
+        }
+    }
+
+    /*
+     * Logs the addition of the given stop, which restores a stop which was
+     * removed from the network if it was already in the graph.
+     */
+    private void logStop(Stop stop, boolean restored) {
+        if (restored) {
+            logChange(log -> log.stopRestored(graph.indexOf(stop)));
+        } else {
+            logChange(log -> log.stopAdded(stop));
+        }
+    }
+
+    /*
+     * Writes the given change to the change log, if changes are being logged,
+     * and then compacts the network if it is due.
+     *
+     * Throws an UncheckedIOException if the change cannot be logged.
+     */
+    private void logChange(Change change) {
+        if (changeLog == null) {
+            return;
+        }
+        try {
+            change.logTo(changeLog);
+            compactIfDue();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+     * Returns the indexes in the graph of the given stops, in order.
+     *
+     * Throws an IllegalStateException if any of them has never been added to
+     * the network.
+     */
+    private int[] indexesOf(List<Stop> onRoute) {
+        int[] indexes = new int[onRoute.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = graph.indexOf(onRoute.get(i));
+            if (indexes[i] < 0) {
+                throw new IllegalStateException();
+            }
+        }
+        return indexes;
+    }
+
+    /*
+     * Writes the contents of a file, for writeAtomically.
+     */
+    private interface FileOutput {
+        void writeTo(File file) throws IOException;
     }
 
     /*
-     * Encodes the component of this network as a string.
+     * Writes a single change to a change log, for logChange.
      */
-    private String encode() {
-        return encodeComponent(stops) + encodeComponent(routes) +
-                encodeComponent(vehicles);
+    private interface Change {
+        void logTo(ChangeLog log) throws IOException;
     }
 }
@@ -0,0 +1,219 @@
+package network;
+
+import exceptions.TransportFormatException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the lines of a network file (see {@link Network#Network(String)}),
+ * and decodes whole sections of them on several threads.
+ *
+ * <p>The lines of a section are read on the calling thread, and handed out in
+ * chunks to a pool of threads to be decoded, with only a few chunks in flight
+ * at once, so the file is still never held in memory all at once. The decoded
+ * items are then passed back to the calling thread in the order their lines
+ * appear in the file, so the network is built exactly as if the lines had
+ * been decoded one after another. With a parallelism of one, no pool is used
+ * and each line is decoded as it is read.
+ */
+class SectionReader implements Closeable {
+    // the number of lines decoded together by a single task
+    private static final int CHUNK_LINES = 1024;
+    // the number of chunks in flight for each thread
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    // the file being read
+    private BufferedReader reader;
+    // the threads which decode the lines, or null if they are decoded inline
+    private ExecutorService pool;
+    // the most chunks which may be in flight at once
+    private int maxChunks;
+
+    /**
+     * Creates a new reader of the lines from the given reader, which decodes
+     * sections on the given number of threads.
+     *
+     * @param reader The reader of the network file.
+     * @param parallelism The number of threads to decode lines on. If less
+     *                    than 1, the number of available processors is used.
+     */
+    SectionReader(BufferedReader reader, int parallelism) {
+        if (parallelism < 1) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        this.reader = reader;
+        this.pool = parallelism == 1 ? null
+                : Executors.newFixedThreadPool(parallelism);
+        this.maxChunks = CHUNKS_PER_THREAD * parallelism;
+    }
+
+    /**
+     * Returns the next line of the file, without its line terminator.
+     *
+     * @return The next line.
+     * @throws IOException If the line cannot be read.
+     * @throws TransportFormatException If the end of the file has been
+     *         reached, as a line is missing.
+     */
+    String nextLine() throws IOException, TransportFormatException {
+        String line = reader.readLine();
+        if (line == null) {
+            throw new TransportFormatException();
+        }
+        return line;
+    }
+
+    /**
+     * Returns true if there are no more lines in the file.
+     *
+     * @return Whether the end of the file has been reached.
+     * @throws IOException If the file cannot be read.
+     */
+    boolean atEnd() throws IOException {
+        return reader.readLine() == null;
+    }
+
+    /**
+     * Reads the given number of lines, decodes each of them with the given
+     * decoder, and passes the results to the given sink in the order in which
+     * the lines were read.
+     *
+     * <p>The decoder may be called on several threads at once, so it must not
+     * change anything shared; the sink is only ever called on the calling
+     * thread. If a line cannot be read or decoded, the items before it may
+     * have been passed to the sink, but none after it will be.
+     *
+     * @param count The number of lines in the section.
+     * @param decoder Decodes a single line into an item.
+     * @param sink Takes each decoded item, in order.
+     * @param <T> The type of the decoded items.
+     * @throws IOException If the lines cannot be read, or the calling thread
+     *         is interrupted while waiting for them to be decoded.
+     * @throws TransportFormatException If a line is missing, or the decoder or
+     *         sink throws one.
+     */
+    <T> void decode(int count, LineDecoder<T> decoder, Sink<T> sink)
+            throws IOException, TransportFormatException {
+        if (pool == null || count <= CHUNK_LINES) {
+            for (int i = 0; i < count; i++) {
+                sink.accept(decoder.decode(nextLine()));
+            }
+            return;
+        }
+
+        Deque<Future<List<T>>> chunks = new ArrayDeque<>();
+        try {
+            for (int start = 0; start < count; start += CHUNK_LINES) {
+                String[] lines = new String[Math.min(CHUNK_LINES,
+                        count - start)];
+                for (int i = 0; i < lines.length; i++) {
+                    lines[i] = nextLine();
+                }
+                chunks.add(pool.submit(() -> {
+                    List<T> items = new ArrayList<>(lines.length);
+                    for (String line : lines) {
+                        items.add(decoder.decode(line));
+                    }
+                    return items;
+                }));
+                if (chunks.size() >= maxChunks) {
+                    drain(chunks.remove(), sink);
+                }
+            }
+            while (!chunks.isEmpty()) {
+                drain(chunks.remove(), sink);
+            }
+        } finally {
+            for (Future<List<T>> chunk : chunks) {
+                chunk.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Closes the file, and stops the threads decoding it.
+     *
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        reader.close();
+    }
+
+    /*
+     * Waits for the given chunk to be decoded, then passes its items to the
+     * given sink, rethrowing whatever the decoder threw.
+     */
+    private static <T> void drain(Future<List<T>> chunk, Sink<T> sink)
+            throws IOException, TransportFormatException {
+        List<T> items;
+        try {
+            items = chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TransportFormatException) {
+                throw (TransportFormatException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        for (T item : items) {
+            sink.accept(item);
+        }
+    }
+
+    /**
+     * Decodes a single line of a network file.
+     *
+     * @param <T> The type of the decoded item.
+     */
+    interface LineDecoder<T> {
+        /**
+         * Decodes the given line.
+         *
+         * @param line The line to decode.
+         * @return The decoded item.
+         * @throws TransportFormatException If the line is incorrectly
+         *         formatted.
+         */
+        T decode(String line) throws TransportFormatException;
+    }
+
+    /**
+     * Takes the items decoded from a section of a network file, in order.
+     *
+     * @param <T> The type of the decoded items.
+     */
+    interface Sink<T> {
+        /**
+         * Takes the next decoded item.
+         *
+         * @param item The item.
+         * @throws TransportFormatException If the item cannot be added to the
+         *         network.
+         */
+        void accept(T item) throws TransportFormatException;
+    }
+}
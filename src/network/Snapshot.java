@@ -0,0 +1,558 @@
+package network;
+
+import exceptions.NoNameException;
+import exceptions.TransportException;
+import exceptions.TransportFormatException;
+import routes.BusRoute;
+import routes.FerryRoute;
+import routes.Route;
+import routes.TrainRoute;
+import stops.Stop;
+import stops.StopGraph;
+import vehicles.Bus;
+import vehicles.Ferry;
+import vehicles.PublicTransport;
+import vehicles.Train;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and writes networks in a compact binary format, which can be loaded
+ * from a memory-mapped file without parsing any text or computing any
+ * routing tables (see {@link Network#saveSnapshot(String, boolean)} and
+ * {@link Network#loadSnapshot(String, stops.RoutingBackend)}).
+ *
+ * <p>A snapshot holds the same stops, routes and vehicles as the text format
+ * written by {@link Network#save(String)}, in big-endian binary:
+ *
+ * <p>header: {magic} {version} {flags} {number_of_stops} {number_of_routes}
+ * {number_of_vehicles} (all ints), the position of the routing tables in the
+ * file (a long, or 0 if there are none), and the generation of the snapshot
+ * (a long, see {@link ChangeLog})<br>
+ * each stop: {x} {y} {name}<br>
+ * the network's stops: {number_of_network_stops}, then the position of each
+ * of the network's stops in the list of stops, in the network's order<br>
+ * each route: {type} {name} {number} {number_of_stops}, then the position of
+ * each of its stops in the list of stops<br>
+ * each vehicle: {type} {id} {capacity} {route_number}, then its carriage
+ * count (an int) if it is a train, or its registration number or ferry type
+ * (a string) otherwise
+ *
+ * <p>where strings are written as their length in UTF-8 bytes, then the
+ * bytes. As in the text format, links between stops come from their routes,
+ * and a vehicle is on the first route with its route number.
+ *
+ * <p>The list of stops is every stop in the network's {@link StopGraph}, in
+ * index order, including stops which have been removed from the network
+ * (which keep their index), so that a stop has the same position in the
+ * snapshot as its index in the graph, as a {@link ChangeLog} refers to it.
+ * The network's own stops, in the order it lists them, are then given by
+ * their positions.
+ *
+ * <p>Snapshots in the first version of the format have no generation, and are
+ * read as generation 0. Snapshots in the first two versions do not list the
+ * network's stops separately, and every stop in them is in the network, in
+ * the same order.
+ *
+ * <p>The routing tables, if present, start at a multiple of eight bytes, and
+ * are one row per stop as written by
+ * {@link StopGraph#writeRouting(List, java.nio.channels.WritableByteChannel)}.
+ * They are mapped into the loaded network's graph rather than read, so
+ * loading costs the same whether or not they are present, and each row is
+ * only read from the disk when the table is first used.
+ */
+class Snapshot {
+    // the first four bytes of every snapshot: "TNSS"
+    private static final int MAGIC = 0x544E5353;
+    // the version of the format written by this class
+    private static final int VERSION = 3;
+    // the first version which lists the network's stops separately
+    private static final int NETWORK_STOPS_VERSION = 3;
+    // the flag set if the snapshot holds routing tables
+    private static final int ROUTING = 1;
+    // the bytes before the first stop, since the second version and in the
+    // first
+    private static final int HEADER_BYTES = 40;
+    private static final int FIRST_HEADER_BYTES = 32;
+    // the position of the routing tables' position in the header
+    private static final int ROUTING_POSITION = 24;
+
+    // the stops, routes and vehicles, mapped from the file
+    private ByteBuffer buffer;
+    // the number of each in the snapshot
+    private int stopCount;
+    private int routeCount;
+    private int vehicleCount;
+    // the file, and the position of the routing tables in it (or 0)
+    private String filename;
+    private long routingPosition;
+    // the number of times the network has been compacted into a snapshot
+    private long generation;
+    // the version of the format the snapshot is in
+    private int version;
+
+    /**
+     * Opens the snapshot in the given file, and maps its stops, routes and
+     * vehicles into memory, ready to be read in that order.
+     *
+     * @param filename The name of the file holding the snapshot.
+     * @throws IOException If the file cannot be opened or mapped.
+     * @throws TransportFormatException If the file is not a snapshot in this
+     *         version of the format.
+     */
+    Snapshot(String filename) throws IOException, TransportFormatException {
+        this.filename = filename;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.READ)) {
+            long length = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading until the header is full, or the file ends
+            }
+            header.flip();
+            if (header.remaining() < FIRST_HEADER_BYTES
+                    || header.getInt() != MAGIC) {
+                throw new TransportFormatException();
+            }
+            version = header.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new TransportFormatException();
+            }
+            int headerBytes = version == 1 ? FIRST_HEADER_BYTES
+                    : HEADER_BYTES;
+            if (header.limit() < headerBytes) {
+                throw new TransportFormatException();
+            }
+            int flags = header.getInt();
+            stopCount = header.getInt();
+            routeCount = header.getInt();
+            vehicleCount = header.getInt();
+            routingPosition = header.getLong();
+            generation = version == 1 ? 0 : header.getLong();
+            if (stopCount < 0 || routeCount < 0 || vehicleCount < 0
+                    || ((flags & ROUTING) == 0) != (routingPosition == 0)
+                    || routingPosition < 0 || routingPosition > length
+                    || generation < 0) {
+                throw new TransportFormatException();
+            }
+
+            long end = routingPosition == 0 ? length : routingPosition;
+            if (end < headerBytes || end - headerBytes > Integer.MAX_VALUE) {
+                throw new TransportFormatException();
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, headerBytes,
+                    end - headerBytes);
+        }
+    }
+
+    /**
+     * Returns true if this snapshot holds routing tables.
+     *
+     * @return Whether the snapshot has routing tables to map.
+     */
+    boolean hasRouting() {
+        return routingPosition != 0;
+    }
+
+    /**
+     * Returns the generation of this snapshot, i.e. the number of times the
+     * network has been compacted into it (see {@link ChangeLog}).
+     *
+     * @return The generation, or 0 if none was written.
+     */
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Reads the stops in this snapshot, in order, i.e. in the order of their
+     * indexes in the network's graph, including stops which have been removed
+     * from the network.
+     *
+     * @return The stops.
+     * @throws TransportFormatException If the stops are incorrectly
+     *         formatted.
+     */
+    List<Stop> readStops() throws TransportFormatException {
+        List<Stop> stops = new ArrayList<>(stopCount);
+        try {
+            for (int i = 0; i < stopCount; i++) {
+                int x = buffer.getInt();
+                int y = buffer.getInt();
+                stops.add(new Stop(readString(), x, y));
+            }
+        } catch (BufferUnderflowException | NoNameException e) {
+            throw new TransportFormatException();
+        }
+        return stops;
+    }
+
+    /**
+     * Reads which of the given stops are in the network, in the order the
+     * network lists them. This must be read after the stops, and before the
+     * routes.
+     *
+     * @param stops The stops read from this snapshot.
+     * @return The network's stops.
+     * @throws TransportFormatException If the network's stops are incorrectly
+     *         formatted.
+     */
+    List<Stop> readNetworkStops(List<Stop> stops)
+            throws TransportFormatException {
+        if (version < NETWORK_STOPS_VERSION) {
+            return new ArrayList<>(stops);
+        }
+        try {
+            int count = buffer.getInt();
+            if (count < 0 || count > stops.size()) {
+                throw new TransportFormatException();
+            }
+            List<Stop> networkStops = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                networkStops.add(stops.get(buffer.getInt()));
+            }
+            return networkStops;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new TransportFormatException();
+        }
+    }
+
+    /**
+     * Reads the routes in this snapshot, in order, adding the given stops to
+     * them.
+     *
+     * @param stops The stops read from this snapshot.
+     * @return The routes.
+     * @throws TransportFormatException If the routes are incorrectly
+     *         formatted.
+     */
+    List<Route> readRoutes(List<Stop> stops) throws TransportFormatException {
+        List<Route> routes = new ArrayList<>(routeCount);
+        try {
+            for (int i = 0; i < routeCount; i++) {
+                String type = readString();
+                String name = readString();
+                int number = buffer.getInt();
+                Route route = routeFromType(type, name, number);
+                int count = buffer.getInt();
+                for (int j = 0; j < count; j++) {
+                    route.addStop(stops.get(buffer.getInt()));
+                }
+                routes.add(route);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new TransportFormatException();
+        }
+        return routes;
+    }
+
+    /**
+     * Reads the vehicles in this snapshot, in order, adding each of them to
+     * the first of the given routes with its route number.
+     *
+     * @param routes The routes read from this snapshot.
+     * @return The vehicles.
+     * @throws TransportFormatException If the vehicles are incorrectly
+     *         formatted, or are not on one of the given routes.
+     */
+    List<PublicTransport> readVehicles(List<Route> routes)
+            throws TransportFormatException {
+        Map<Integer, Route> routesByNumber = new HashMap<>();
+        for (Route route : routes) {
+            routesByNumber.putIfAbsent(route.getRouteNumber(), route);
+        }
+
+        List<PublicTransport> vehicles = new ArrayList<>(vehicleCount);
+        try {
+            for (int i = 0; i < vehicleCount; i++) {
+                String type = readString();
+                int id = buffer.getInt();
+                int capacity = buffer.getInt();
+                Route route = routesByNumber.get(buffer.getInt());
+                if (route == null || !type.equals(route.getType())) {
+                    throw new TransportFormatException();
+                }
+
+                PublicTransport vehicle;
+                switch (type) {
+                    case "train":
+                        vehicle = new Train(id, capacity, route,
+                                buffer.getInt());
+                        break;
+                    case "bus":
+                        vehicle = new Bus(id, capacity, route, readString());
+                        break;
+                    default:
+                        vehicle = new Ferry(id, capacity, route, readString());
+                        break;
+                }
+                route.addTransport(vehicle);
+                vehicles.add(vehicle);
+            }
+        } catch (BufferUnderflowException | TransportException e) {
+            throw new TransportFormatException();
+        }
+        return vehicles;
+    }
+
+    /**
+     * Maps the routing tables in this snapshot into the given graph, which
+     * must hold the stops read from it, in the same order.
+     *
+     * <p>The file is mapped in segments of whole rows, each under 2 GB.
+     *
+     * @param graph The graph whose stops' tables should be replaced.
+     * @throws IOException If the file cannot be mapped.
+     * @throws TransportFormatException If the file is too short to hold the
+     *         routing tables.
+     */
+    void mapRouting(StopGraph graph)
+            throws IOException, TransportFormatException {
+        long rowBytes = 2L * Integer.BYTES * stopCount;
+        if (rowBytes == 0) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.READ)) {
+            if (channel.size() - routingPosition < rowBytes * stopCount) {
+                throw new TransportFormatException();
+            }
+            int rowsPerSegment = (int) Math.max(1,
+                    Integer.MAX_VALUE / rowBytes);
+            for (int first = 0; first < stopCount; first += rowsPerSegment) {
+                int rows = Math.min(rowsPerSegment, stopCount - first);
+                MappedByteBuffer segment = channel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        routingPosition + first * rowBytes, rows * rowBytes);
+                for (int row = 0; row < rows; row++) {
+                    segment.limit((int) ((row + 1) * rowBytes));
+                    segment.position((int) (row * rowBytes));
+                    graph.mapRouting(first + row,
+                            segment.slice().asIntBuffer());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of the given network to the given file, overwriting
+     * it.
+     *
+     * <p>Routing tables are only written if they are asked for, and must be
+     * synchronised over links which all come from the network's routes, as
+     * those are the only links a snapshot holds.
+     *
+     * @param filename The name of the file to write to.
+     * @param indexed Every stop in the network's graph, in index order,
+     *                including stops which have been removed from the
+     *                network.
+     * @param stops The stops in the network, in order.
+     * @param routes The routes in the network, in order.
+     * @param vehicles The vehicles in the network, in order.
+     * @param graph The graph indexing the stops, whose routing tables should
+     *              be written, or null if they should not be.
+     * @param generation The generation of the snapshot.
+     * @throws IOException If there are any IO errors whilst writing to the
+     *         file.
+     * @throws IllegalStateException If a stop in the network, or a stop on a
+     *         route, is not in the graph, or routing tables are to be written
+     *         and some link between stops is not along a route.
+     */
+    static void write(String filename, List<Stop> indexed, List<Stop> stops,
+                      List<Route> routes, List<PublicTransport> vehicles,
+                      StopGraph graph, long generation) throws IOException {
+        // the position of each stop in the list of indexed stops
+        Map<Stop, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < indexed.size(); i++) {
+            positions.putIfAbsent(indexed.get(i), i);
+        }
+        if (graph != null) {
+            checkLinks(indexed, routes, positions);
+        }
+
+        try (FileOutputStream file = new FileOutputStream(filename)) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(file, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(graph == null ? 0 : ROUTING);
+            out.writeInt(indexed.size());
+            out.writeInt(routes.size());
+            out.writeInt(vehicles.size());
+            out.writeLong(0);
+            out.writeLong(generation);
+
+            for (Stop stop : indexed) {
+                out.writeInt(stop.getX());
+                out.writeInt(stop.getY());
+                writeString(out, stop.getName());
+            }
+
+            out.writeInt(stops.size());
+            for (Stop stop : stops) {
+                Integer position = positions.get(stop);
+                if (position == null) {
+                    throw new IllegalStateException();
+                }
+                out.writeInt(position);
+            }
+
+            for (Route route : routes) {
+                writeString(out, route.getType());
+                writeString(out, route.getName());
+                out.writeInt(route.getRouteNumber());
+                List<Stop> onRoute = route.getStopsOnRoute();
+                out.writeInt(onRoute.size());
+                for (Stop stop : onRoute) {
+                    Integer position = positions.get(stop);
+                    if (position == null) {
+                        throw new IllegalStateException();
+                    }
+                    out.writeInt(position);
+                }
+            }
+
+            for (PublicTransport vehicle : vehicles) {
+                writeString(out, vehicle.getType());
+                out.writeInt(vehicle.getId());
+                out.writeInt(vehicle.getCapacity());
+                out.writeInt(vehicle.getRoute().getRouteNumber());
+                if (vehicle instanceof Train) {
+                    out.writeInt(((Train) vehicle).getCarriageCount());
+                } else if (vehicle instanceof Bus) {
+                    writeString(out, ((Bus) vehicle).getRegistrationNumber());
+                } else {
+                    writeString(out, ((Ferry) vehicle).getFerryType());
+                }
+            }
+
+            if (graph == null) {
+                out.flush();
+                return;
+            }
+
+            // the tables start at a multiple of eight bytes
+            out.flush();
+            FileChannel channel = file.getChannel();
+            ByteBuffer padding = ByteBuffer.allocate((int) (-channel.position()
+                    & (Long.BYTES - 1)));
+            while (padding.hasRemaining()) {
+                channel.write(padding);
+            }
+            long routingPosition = channel.position();
+            graph.writeRouting(indexed, channel);
+
+            ByteBuffer position = ByteBuffer.allocate(Long.BYTES);
+            position.putLong(routingPosition).flip();
+            while (position.hasRemaining()) {
+                channel.write(position,
+                        ROUTING_POSITION + Long.BYTES - position.remaining());
+            }
+        }
+    }
+
+    /*
+     * Throws an IllegalStateException unless the links between the given
+     * stops (at the given positions) are exactly the links between
+     * consecutive stops on the given routes, in both directions.
+     */
+    private static void checkLinks(List<Stop> stops, List<Route> routes,
+                                   Map<Stop, Integer> positions) {
+        Set<Long> links = new HashSet<>();
+        for (Route route : routes) {
+            List<Stop> onRoute = route.getStopsOnRoute();
+            for (int i = 1; i < onRoute.size(); i++) {
+                Integer from = positions.get(onRoute.get(i - 1));
+                Integer to = positions.get(onRoute.get(i));
+                if (from == null || to == null) {
+                    throw new IllegalStateException();
+                }
+                if (!from.equals(to)) {
+                    links.add((long) from << 32 | to);
+                    links.add((long) to << 32 | from);
+                }
+            }
+        }
+
+        int count = 0;
+        for (int i = 0; i < stops.size(); i++) {
+            for (Stop neighbour : stops.get(i).getNeighbours()) {
+                Integer position = positions.get(neighbour);
+                if (position == null) {
+                    throw new IllegalStateException();
+                }
+                if (position == i) {
+                    continue;
+                }
+                if (!links.contains((long) i << 32 | position)) {
+                    throw new IllegalStateException();
+                }
+                count++;
+            }
+        }
+        if (count != links.size()) {
+            throw new IllegalStateException();
+        }
+    }
+
+    /*
+     * Returns a route of the given type, with the given name and number.
+     *
+     * Throws a TransportFormatException if the type is not valid.
+     */
+    private static Route routeFromType(String type, String name, int number)
+            throws TransportFormatException {
+        switch (type) {
+            case "train":
+                return new TrainRoute(name, number);
+            case "bus":
+                return new BusRoute(name, number);
+            case "ferry":
+                return new FerryRoute(name, number);
+            default:
+                throw new TransportFormatException();
+        }
+    }
+
+    /*
+     * Reads a string written by writeString.
+     *
+     * Throws a TransportFormatException if its length is out of range.
+     */
+    private String readString() throws TransportFormatException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new TransportFormatException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Writes the given string as its length in UTF-8 bytes, then the bytes.
+     */
+    private static void writeString(DataOutputStream out, String string)
+            throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
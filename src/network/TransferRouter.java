@@ -0,0 +1,392 @@
+package network;
+
+import routes.Route;
+import stops.Stop;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds itineraries between stops which trade off their cost against the
+ * number of times the passenger has to change route.
+ *
+ * <p>Routing tables only minimise cost, so the cheapest way between two stops
+ * may change vehicle at every other stop. Instead, this finds the Pareto set
+ * of itineraries: the cheapest one using a single route, then the cheapest
+ * one with one change if it is cheaper still, and so on, so that every
+ * itinerary returned is either cheaper or has fewer changes than each of the
+ * others.
+ *
+ * <p>The search works in rounds, in the style of RAPTOR: round k finds the
+ * cheapest way to reach each stop riding k routes, by scanning every route
+ * through a stop which was improved in round k - 1, once in each direction.
+ * Only the routes through improved stops are scanned, so the work done grows
+ * with the number of routes and changes rather than with the number of stops.
+ * Vehicles can travel along a route in either direction, and the cost of
+ * riding between two stops on a route is the sum of the distances between
+ * the consecutive stops in between.
+ *
+ * <p>A router is a snapshot of the routes it was created from; stops added to
+ * or removed from those routes afterwards are not seen until a new router is
+ * created. Queries share scratch space, so a router must not be used by
+ * several threads at once.
+ */
+public class TransferRouter {
+    // the routes, and every stop on any of them, by dense index
+    private Route[] routes;
+    private Stop[] stops;
+    private Map<Stop, Integer> indexes;
+
+    // the stops along each route, in compressed sparse row form: the stops
+    // of route r are at positions routeStart[r] to routeStart[r + 1]
+    private int[] routeStart;
+    private int[] positionStop;
+    private int[] positionRoute;
+    // the cost of riding from the start of the route to each position
+    private long[] positionDistance;
+
+    // the positions at which each stop appears on any route: the positions
+    // of stop s are stopPositions[stopStart[s]] to [stopStart[s + 1]]
+    private int[] stopStart;
+    private int[] stopPositions;
+
+    // the cost of reaching each stop in each round, and the positions at
+    // which the last route ridden was boarded and left, valid where stamped
+    // with the current query
+    private int[][] cost;
+    private int[][] boarded;
+    private int[][] alighted;
+    private int[][] stamp;
+    // the cheapest cost of reaching each stop in any round so far
+    private int[] best;
+    private int[] bestStamp;
+    // the first and last positions at which each route is to be boarded in
+    // the current round, valid where stamped with the current sweep
+    private int[] first;
+    private int[] last;
+    // a lower bound on the cost of reaching the target via each route
+    private long[] bound;
+    private int[] routeStamp;
+    // the query in which each route last went through the target
+    private int[] reachesTarget;
+    private int query;
+    private int sweep;
+
+    /**
+     * Creates a new router over the given routes.
+     *
+     * @param routes The routes passengers can ride.
+     */
+    public TransferRouter(List<Route> routes) {
+        this.routes = routes.toArray(new Route[0]);
+        this.indexes = new IdentityHashMap<>();
+        List<Stop> allStops = new ArrayList<>();
+
+        this.routeStart = new int[this.routes.length + 1];
+        List<List<Stop>> routeStops = new ArrayList<>();
+        for (int r = 0; r < this.routes.length; r++) {
+            List<Stop> onRoute = this.routes[r].getStopsOnRoute();
+            routeStops.add(onRoute);
+            routeStart[r + 1] = routeStart[r] + onRoute.size();
+        }
+        int positions = routeStart[this.routes.length];
+        this.positionStop = new int[positions];
+        this.positionRoute = new int[positions];
+        this.positionDistance = new long[positions];
+        for (int r = 0; r < this.routes.length; r++) {
+            List<Stop> onRoute = routeStops.get(r);
+            for (int i = 0; i < onRoute.size(); i++) {
+                Stop stop = onRoute.get(i);
+                Integer index = indexes.get(stop);
+                if (index == null) {
+                    index = allStops.size();
+                    indexes.put(stop, index);
+                    allStops.add(stop);
+                }
+                int position = routeStart[r] + i;
+                positionStop[position] = index;
+                positionRoute[position] = r;
+                positionDistance[position] = i == 0 ? 0
+                        : positionDistance[position - 1]
+                        + onRoute.get(i - 1).distanceTo(stop);
+            }
+        }
+        this.stops = allStops.toArray(new Stop[0]);
+
+        int count = stops.length;
+        this.stopStart = new int[count + 1];
+        for (int position = 0; position < positions; position++) {
+            stopStart[positionStop[position] + 1]++;
+        }
+        for (int s = 0; s < count; s++) {
+            stopStart[s + 1] += stopStart[s];
+        }
+        this.stopPositions = new int[positions];
+        int[] filled = Arrays.copyOf(stopStart, count);
+        for (int position = 0; position < positions; position++) {
+            stopPositions[filled[positionStop[position]]++] = position;
+        }
+
+        this.cost = new int[0][];
+        this.boarded = new int[0][];
+        this.alighted = new int[0][];
+        this.stamp = new int[0][];
+        this.best = new int[count];
+        this.bestStamp = new int[count];
+        this.first = new int[this.routes.length];
+        this.last = new int[this.routes.length];
+        this.bound = new long[this.routes.length];
+        this.reachesTarget = new int[this.routes.length];
+        this.routeStamp = new int[this.routes.length];
+        this.query = 0;
+        this.sweep = 0;
+    }
+
+    /**
+     * Finds the itineraries from one stop to another which are not beaten on
+     * both cost and number of changes by any other itinerary.
+     *
+     * <p>The itineraries are ordered by increasing number of changes (and so
+     * decreasing cost). If both stops are the same, a single itinerary with no
+     * legs is returned.
+     *
+     * @param from The stop to start from.
+     * @param to The stop to end at.
+     * @param maxTransfers The most changes of route to consider.
+     * @return The Pareto-optimal itineraries, which is empty if either stop
+     *         is not on any of this router's routes or there is no way from
+     *         one to the other with at most the given number of changes.
+     */
+    public List<Itinerary> findItineraries(Stop from, Stop to,
+                                           int maxTransfers) {
+        List<Itinerary> itineraries = new ArrayList<>();
+        Integer source = from == null ? null : indexes.get(from);
+        Integer target = to == null ? null : indexes.get(to);
+        if (source == null || target == null) {
+            return itineraries;
+        }
+        if (source.equals(target)) {
+            itineraries.add(new Itinerary(new ArrayList<>()));
+            return itineraries;
+        }
+
+        start();
+        ensureRounds(0);
+        for (int i = stopStart[target]; i < stopStart[target + 1]; i++) {
+            reachesTarget[positionRoute[stopPositions[i]]] = query;
+        }
+        List<Integer> marked = new ArrayList<>();
+        reach(0, source, 0, -1, -1);
+        marked.add(source);
+        for (int round = 1; round - 1 <= maxTransfers && !marked.isEmpty();
+                round++) {
+            marked = scan(round, marked, target);
+            if (stamp[round][target] == query) {
+                itineraries.add(itinerary(round, target));
+            }
+        }
+        return itineraries;
+    }
+
+    /*
+     * Scans every route through the stops improved in the previous round, in
+     * both directions, and returns the stops improved in this round.
+     */
+    private List<Integer> scan(int round, List<Integer> marked, int target) {
+        ensureRounds(round);
+        if (++sweep == 0) {
+            Arrays.fill(routeStamp, 0);
+            sweep = 1;
+        }
+        List<Integer> toScan = new ArrayList<>();
+        for (int stop : marked) {
+            long atLeast = cost[round - 1][stop]
+                    + stops[stop].distanceTo(stops[target]);
+            for (int i = stopStart[stop]; i < stopStart[stop + 1]; i++) {
+                int position = stopPositions[i];
+                int route = positionRoute[position];
+                if (routeStamp[route] != sweep) {
+                    routeStamp[route] = sweep;
+                    first[route] = position;
+                    last[route] = position;
+                    bound[route] = atLeast;
+                    toScan.add(route);
+                } else {
+                    first[route] = Math.min(first[route], position);
+                    last[route] = Math.max(last[route], position);
+                    bound[route] = Math.min(bound[route], atLeast);
+                }
+            }
+        }
+        // the most promising routes first, and of those, the ones which go
+        // through the target, so that it is reached early and the rest can
+        // be skipped or cut short
+        toScan.sort((one, other) -> bound[one] != bound[other]
+                ? Long.compare(bound[one], bound[other])
+                : Boolean.compare(reachesTarget[other] == query,
+                reachesTarget[one] == query));
+
+        List<Integer> improved = new ArrayList<>();
+        for (int route : toScan) {
+            if (bestStamp[target] == query && bound[route] >= best[target]) {
+                break;
+            }
+            // riding towards the end of the route
+            long board = Long.MAX_VALUE;
+            int boardedAt = -1;
+            for (int position = first[route];
+                    position < routeStart[route + 1]; position++) {
+                int stop = positionStop[position];
+                if (position > last[route] && (boardedAt < 0
+                        || !promising(stop, board
+                        + positionDistance[position], target))) {
+                    // no more boarding, and riding on cannot do better
+                    break;
+                }
+                if (boardedAt >= 0) {
+                    improve(round, stop, board + positionDistance[position],
+                            boardedAt, position, target, improved);
+                }
+                if (stamp[round - 1][stop] == query) {
+                    long boarding = cost[round - 1][stop]
+                            - positionDistance[position];
+                    if (boarding < board) {
+                        board = boarding;
+                        boardedAt = position;
+                    }
+                }
+            }
+            // and back towards its start
+            board = Long.MAX_VALUE;
+            boardedAt = -1;
+            for (int position = last[route]; position >= routeStart[route];
+                    position--) {
+                int stop = positionStop[position];
+                if (position < first[route] && (boardedAt < 0
+                        || !promising(stop, board
+                        - positionDistance[position], target))) {
+                    break;
+                }
+                if (boardedAt >= 0) {
+                    improve(round, stop, board - positionDistance[position],
+                            boardedAt, position, target, improved);
+                }
+                if (stamp[round - 1][stop] == query) {
+                    long boarding = cost[round - 1][stop]
+                            + positionDistance[position];
+                    if (boarding < board) {
+                        board = boarding;
+                        boardedAt = position;
+                    }
+                }
+            }
+        }
+        return improved;
+    }
+
+    /*
+     * Returns true if reaching the given stop at the given cost could still
+     * lead to the target more cheaply than the best way yet found there.
+     * Riding on from a stop costs at least its distance to the target, so
+     * anything costlier cannot be part of a better itinerary.
+     */
+    private boolean promising(int stop, long stopCost, int target) {
+        return bestStamp[target] != query || stopCost
+                + stops[stop].distanceTo(stops[target]) < best[target];
+    }
+
+    /*
+     * Records the given way of reaching a stop in the given round, if it is
+     * cheaper than any found so far (in any round), and is promising.
+     */
+    private void improve(int round, int stop, long newCost, int boardedAt,
+                         int alightedAt, int target, List<Integer> improved) {
+        if (newCost >= Integer.MAX_VALUE
+                || (bestStamp[stop] == query && newCost >= best[stop])
+                || !promising(stop, newCost, target)) {
+            return;
+        }
+        if (stamp[round][stop] != query) {
+            improved.add(stop);
+        }
+        reach(round, stop, (int) newCost, boardedAt, alightedAt);
+    }
+
+    private void reach(int round, int stop, int newCost, int boardedAt,
+                       int alightedAt) {
+        cost[round][stop] = newCost;
+        boarded[round][stop] = boardedAt;
+        alighted[round][stop] = alightedAt;
+        stamp[round][stop] = query;
+        best[stop] = newCost;
+        bestStamp[stop] = query;
+    }
+
+    /*
+     * Follows the routes ridden back from the given stop, as reached in the
+     * given round, to build the itinerary that reached it.
+     */
+    private Itinerary itinerary(int round, int stop) {
+        List<Leg> legs = new ArrayList<>();
+        while (round > 0) {
+            if (stamp[round][stop] != query) {
+                // not improved in this round, so reached in an earlier one
+                round--;
+                continue;
+            }
+            int from = boarded[round][stop];
+            int to = alighted[round][stop];
+            int step = from < to ? 1 : -1;
+            List<Stop> passed = new ArrayList<>();
+            for (int position = from; position != to + step;
+                    position += step) {
+                passed.add(stops[positionStop[position]]);
+            }
+            legs.add(0, new Leg(routes[positionRoute[from]], passed,
+                    (int) Math.abs(positionDistance[to]
+                            - positionDistance[from])));
+            stop = positionStop[from];
+            round--;
+        }
+        return new Itinerary(legs);
+    }
+
+    /*
+     * Starts a new query.
+     */
+    private void start() {
+        if (++query == 0) {
+            // the stamps have wrapped around, so none of them can be trusted
+            for (int[] round : stamp) {
+                Arrays.fill(round, 0);
+            }
+            Arrays.fill(bestStamp, 0);
+            Arrays.fill(reachesTarget, 0);
+            query = 1;
+        }
+    }
+
+    /*
+     * Makes room for the results of the given round.
+     */
+    private void ensureRounds(int round) {
+        if (round < cost.length) {
+            return;
+        }
+        int rounds = Math.max(round + 1, cost.length * 2);
+        int oldRounds = cost.length;
+        cost = Arrays.copyOf(cost, rounds);
+        boarded = Arrays.copyOf(boarded, rounds);
+        alighted = Arrays.copyOf(alighted, rounds);
+        stamp = Arrays.copyOf(stamp, rounds);
+        for (int i = oldRounds; i < rounds; i++) {
+            cost[i] = new int[stops.length];
+            boarded[i] = new int[stops.length];
+            alighted[i] = new int[stops.length];
+            stamp[i] = new int[stops.length];
+        }
+    }
+}
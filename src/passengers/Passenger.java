@@ -94,7 +94,7 @@ public class Passenger {
      */
     @Override
     public String toString() {
-
+        String name = getName();
         return name.isEmpty() ? "Anonymous passenger" : "Passenger named "
                 + name;
     }
@@ -0,0 +1,201 @@
+package passengers;
+
+import java.util.Arrays;
+
+/**
+ * Numbers of passengers, counted by the index of the stop they are headed for
+ * (see {@link stops.Stop#getIndex()}), rather than as individual
+ * {@link Passenger} objects.
+ *
+ * <p>This is for modelling large amounts of demand, where the passengers
+ * themselves do not need to be told apart: a thousand passengers headed for
+ * the same stop take up a single count, and boarding or alighting them is a
+ * matter of adding and subtracting.
+ *
+ * <p>The counts are kept in an open-addressed hash table of primitive arrays,
+ * so only the destinations which have been counted take up any room, and
+ * nothing is boxed.
+ */
+public class PassengerCounts {
+    // the destination index in each slot of the table, or -1 if it is empty
+    private int[] destinations;
+    // the number of passengers headed for the destination in each slot
+    private int[] counts;
+    // the number of slots in use
+    private int used;
+    // the total number of passengers counted
+    private int total;
+
+    /**
+     * Creates an empty set of counts.
+     */
+    public PassengerCounts() {
+        this.destinations = new int[8];
+        this.counts = new int[8];
+        Arrays.fill(this.destinations, -1);
+        this.used = 0;
+        this.total = 0;
+    }
+
+    /**
+     * Returns the number of passengers headed for the given destination.
+     *
+     * @param destination The index of the destination stop.
+     * @return The number of passengers headed there, or 0 if there are none
+     *          (including if the index is negative).
+     */
+    public int get(int destination) {
+        if (destination < 0) {
+            return 0;
+        }
+        int slot = find(destination);
+        return destinations[slot] == destination ? counts[slot] : 0;
+    }
+
+    /**
+     * Adds the given number of passengers headed for the given destination.
+     *
+     * <p>If the count is not positive, or the destination index is negative,
+     * nothing is added.
+     *
+     * @param destination The index of the destination stop.
+     * @param count The number of passengers to add.
+     * @throws ArithmeticException If the total number of passengers counted
+     *                             would overflow an int, in which case
+     *                             nothing is added.
+     */
+    public void add(int destination, int count) {
+        if (destination < 0 || count <= 0) {
+            return;
+        }
+        // no count is more than the total, so only the total can overflow
+        Math.addExact(total, count);
+        int slot = find(destination);
+        if (destinations[slot] != destination) {
+            destinations[slot] = destination;
+            used++;
+        }
+        counts[slot] += count;
+        total += count;
+        if (used * 2 > destinations.length) {
+            grow();
+        }
+    }
+
+    /**
+     * Adds every passenger counted in the given counts to these counts.
+     *
+     * @param other The counts to add. If null, nothing is added.
+     * @throws ArithmeticException If the total number of passengers counted
+     *                             would overflow an int, in which case
+     *                             nothing is added.
+     */
+    public void addAll(PassengerCounts other) {
+        if (other == null) {
+            return;
+        }
+        Math.addExact(total, other.total);
+        for (int slot = 0; slot < other.destinations.length; slot++) {
+            if (other.destinations[slot] >= 0) {
+                add(other.destinations[slot], other.counts[slot]);
+            }
+        }
+    }
+
+    /**
+     * Removes up to the given number of passengers headed for the given
+     * destination, and returns how many were removed.
+     *
+     * @param destination The index of the destination stop.
+     * @param max The most passengers to remove.
+     * @return The number of passengers removed, i.e. the smaller of max and
+     *          the number headed for the destination (or 0 if max is not
+     *          positive).
+     */
+    public int take(int destination, int max) {
+        if (destination < 0 || max <= 0) {
+            return 0;
+        }
+        int slot = find(destination);
+        if (destinations[slot] != destination) {
+            return 0;
+        }
+        int taken = Math.min(max, counts[slot]);
+        counts[slot] -= taken;
+        total -= taken;
+        return taken;
+    }
+
+    /**
+     * Returns the indexes of the destinations which at least one passenger is
+     * headed for, in ascending order.
+     *
+     * @return A new array of the destination indexes.
+     */
+    public int[] destinations() {
+        int[] found = new int[used];
+        int count = 0;
+        for (int slot = 0; slot < destinations.length; slot++) {
+            if (destinations[slot] >= 0 && counts[slot] > 0) {
+                found[count++] = destinations[slot];
+            }
+        }
+        found = Arrays.copyOf(found, count);
+        Arrays.sort(found);
+        return found;
+    }
+
+    /**
+     * Returns the total number of passengers counted, across every
+     * destination.
+     *
+     * @return The number of passengers.
+     */
+    public int total() {
+        return total;
+    }
+
+    /**
+     * Checks whether there are no passengers counted.
+     *
+     * @return True if there are no passengers, false otherwise.
+     */
+    public boolean isEmpty() {
+        return total == 0;
+    }
+
+    /*
+     * Returns the slot holding the given destination, or the empty slot it
+     * would be put in if it is not in the table.
+     */
+    private int find(int destination) {
+        int mask = destinations.length - 1;
+        int hash = destination * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (destinations[slot] >= 0 && destinations[slot] != destination) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /*
+     * Doubles the size of the table, dropping destinations which no one is
+     * headed for any more.
+     */
+    private void grow() {
+        int[] oldDestinations = destinations;
+        int[] oldCounts = counts;
+        destinations = new int[oldDestinations.length * 2];
+        counts = new int[oldCounts.length * 2];
+        Arrays.fill(destinations, -1);
+        used = 0;
+        for (int slot = 0; slot < oldDestinations.length; slot++) {
+            if (oldDestinations[slot] >= 0 && oldCounts[slot] > 0) {
+                int newSlot = find(oldDestinations[slot]);
+                destinations[newSlot] = oldDestinations[slot];
+                counts[newSlot] = oldCounts[slot];
+                used++;
+            }
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package passengers;
+
+import stops.Stop;
+import stops.StopGraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact store of many passengers, for simulations where there are far too
+ * many to keep as separate {@link Passenger} objects.
+ *
+ * <p>Each passenger added to the store is given a dense id (0, 1, 2, ...) in
+ * the order in which it was added, and its fields are kept in parallel
+ * primitive arrays indexed by that id: the id of its name, the index of its
+ * destination, its concession id and its flags (e.g. whether it is a
+ * concession passenger). Names are interned, so passengers with the same name
+ * share one string, and destinations are stored as their index in the store's
+ * {@link StopGraph} (see {@link Stop#getIndex()}).
+ *
+ * <p>{@link #get(int)} returns a lightweight handle for a stored passenger,
+ * which is a {@link Passenger} (or a {@link ConcessionPassenger}, for
+ * concession passengers) whose methods read and write the store, so stored
+ * passengers can be used anywhere a passenger can. Handles are created when
+ * asked for, and are not kept by the store. Two handles for the same stored
+ * passenger are equal.
+ */
+public class PassengerStore {
+    // the flag set for concession passengers
+    private static final byte CONCESSION = 1;
+
+    // the destination index stored for a passenger with no destination
+    private static final int NO_DESTINATION = -1;
+
+    // the graph whose indexes destinations are stored as
+    private StopGraph graph;
+
+    // the fields of each passenger, by id
+    private int[] nameIds;
+    private int[] destinations;
+    private int[] concessionIds;
+    private byte[] flags;
+    // the number of passengers stored
+    private int size;
+
+    // the interned names, by id, and the id of each name
+    private List<String> names;
+    private Map<String, Integer> nameIndex;
+
+    // destinations which are not in the graph, stored as -2 - their position
+    private List<Stop> others;
+    private Map<Stop, Integer> otherIndex;
+
+    /**
+     * Creates an empty store, which stores destinations as their index in the
+     * given graph.
+     *
+     * <p>A passenger may still be headed for a stop which is not in the graph
+     * (or the graph may be null), but such destinations are looked up in a
+     * separate table, so are best kept rare.
+     *
+     * @param graph The graph indexing the stops passengers are headed for.
+     */
+    public PassengerStore(StopGraph graph) {
+        this.graph = graph;
+        this.nameIds = new int[16];
+        this.destinations = new int[16];
+        this.concessionIds = new int[16];
+        this.flags = new byte[16];
+        this.size = 0;
+        this.names = new ArrayList<>();
+        this.nameIndex = new HashMap<>();
+        this.others = new ArrayList<>();
+        this.otherIndex = new IdentityHashMap<>();
+    }
+
+    /**
+     * Adds a passenger with the given name and destination to the store, as
+     * if by {@link Passenger#Passenger(String, Stop)}, and returns its id.
+     *
+     * @param name The name of the passenger.
+     * @param destination The destination of the passenger, or null if it has
+     *                    no destination.
+     * @return The id of the passenger in the store.
+     */
+    public int add(String name, Stop destination) {
+        return append(name, destination, ConcessionPassenger.INVALID, (byte) 0);
+    }
+
+    /**
+     * Adds a concession passenger with the given name, destination and
+     * concession id to the store, as if by
+     * {@link ConcessionPassenger#ConcessionPassenger(String, Stop, int)}, and
+     * returns its id.
+     *
+     * @param name The name of the passenger.
+     * @param destination The destination of the passenger, or null if it has
+     *                    no destination.
+     * @param concessionId Identifying number of the passenger's concession
+     *                     card.
+     * @return The id of the passenger in the store.
+     */
+    public int addConcession(String name, Stop destination,
+                             int concessionId) {
+        return append(name, destination,
+                ConcessionPassenger.validate(concessionId), CONCESSION);
+    }
+
+    /**
+     * Returns the number of passengers in the store.
+     *
+     * @return The number of passengers.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of distinct names among the passengers in the store.
+     *
+     * @return The number of names stored.
+     */
+    public int nameCount() {
+        return names.size();
+    }
+
+    /**
+     * Returns a handle for the passenger with the given id, which reads and
+     * writes the passenger's fields in this store.
+     *
+     * @param id The id of the passenger.
+     * @return A {@link ConcessionPassenger} if the passenger was added with
+     *          {@link #addConcession(String, Stop, int)}, or a
+     *          {@link Passenger} otherwise.
+     * @throws IndexOutOfBoundsException If no passenger has the given id.
+     */
+    public Passenger get(int id) {
+        check(id);
+        if ((flags[id] & CONCESSION) != 0) {
+            return new ConcessionHandle(this, id);
+        }
+        return new Handle(this, id);
+    }
+
+    /**
+     * Returns the id of the given passenger in this store.
+     *
+     * @param passenger The passenger to find.
+     * @return The id of the passenger, or -1 if it is null or is not a handle
+     *          returned by {@link #get(int)} on this store.
+     */
+    public int idOf(Passenger passenger) {
+        if (passenger instanceof Handle
+                && ((Handle) passenger).store == this) {
+            return ((Handle) passenger).id;
+        }
+        if (passenger instanceof ConcessionHandle
+                && ((ConcessionHandle) passenger).store == this) {
+            return ((ConcessionHandle) passenger).id;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the name of the passenger with the given id.
+     *
+     * @param id The id of the passenger.
+     * @return The name of the passenger.
+     * @throws IndexOutOfBoundsException If no passenger has the given id.
+     */
+    public String getName(int id) {
+        check(id);
+        return names.get(nameIds[id]);
+    }
+
+    /**
+     * Returns the destination of the passenger with the given id.
+     *
+     * @param id The id of the passenger.
+     * @return The destination of the passenger, or null if it has none.
+     * @throws IndexOutOfBoundsException If no passenger has the given id.
+     */
+    public Stop getDestination(int id) {
+        check(id);
+        int destination = destinations[id];
+        if (destination == NO_DESTINATION) {
+            return null;
+        }
+        if (destination < NO_DESTINATION) {
+            return others.get(NO_DESTINATION - 1 - destination);
+        }
+        return graph.getStop(destination);
+    }
+
+    /**
+     * Returns the index in the store's graph of the destination of the
+     * passenger with the given id.
+     *
+     * @param id The id of the passenger.
+     * @return The index of the passenger's destination, or -1 if it has no
+     *          destination, or its destination is not in the graph.
+     * @throws IndexOutOfBoundsException If no passenger has the given id.
+     */
+    public int getDestinationIndex(int id) {
+        check(id);
+        return Math.max(destinations[id], NO_DESTINATION);
+    }
+
+    /**
+     * Sets the destination of the passenger with the given id, as
+     * {@link Passenger#setDestination(Stop)} does.
+     *
+     * @param id The id of the passenger.
+     * @param destination The new destination of the passenger, or null if it
+     *                    has no destination.
+     * @throws IndexOutOfBoundsException If no passenger has the given id.
+     */
+    public void setDestination(int id, Stop destination) {
+        check(id);
+        destinations[id] = destinationIndex(destination);
+    }
+
+    /**
+     * Checks whether the passenger with the given id is a concession
+     * passenger.
+     *
+     * @param id The id of the passenger.
+     * @return True if the passenger was added with
+     *          {@link #addConcession(String, Stop, int)}, false otherwise.
+     * @throws IndexOutOfBoundsException If no passenger has the given id.
+     */
+    public boolean isConcession(int id) {
+        check(id);
+        return (flags[id] & CONCESSION) != 0;
+    }
+
+    /**
+     * Checks whether the passenger with the given id has a valid concession
+     * id, as {@link ConcessionPassenger#isValid()} does.
+     *
+     * @param id The id of the passenger.
+     * @return True if the passenger is a concession passenger whose fares
+     *          have not expired, false otherwise.
+     * @throws IndexOutOfBoundsException If no passenger has the given id.
+     */
+    public boolean isValid(int id) {
+        check(id);
+        return concessionIds[id] != ConcessionPassenger.INVALID;
+    }
+
+    /**
+     * Attempts to renew the concession fares of the passenger with the given
+     * id, as {@link ConcessionPassenger#renew(int)} does. Passengers who are
+     * not concession passengers are left as they are.
+     *
+     * @param id The id of the passenger.
+     * @param newId The ID of the renewed concession card.
+     * @throws IndexOutOfBoundsException If no passenger has the given id.
+     */
+    public void renew(int id, int newId) {
+        if (isConcession(id)) {
+            concessionIds[id] = ConcessionPassenger.validate(newId);
+        }
+    }
+
+    /**
+     * Sets the concession fares of the passenger with the given id to be
+     * expired, as {@link ConcessionPassenger#expire()} does.
+     *
+     * @param id The id of the passenger.
+     * @throws IndexOutOfBoundsException If no passenger has the given id.
+     */
+    public void expire(int id) {
+        check(id);
+        concessionIds[id] = ConcessionPassenger.INVALID;
+    }
+
+    /*
+     * Stores a passenger with the given fields, and returns its id.
+     */
+    private int append(String name, Stop destination, int concessionId,
+                       byte flag) {
+        if (size == nameIds.length) {
+            int capacity = size * 2;
+            nameIds = Arrays.copyOf(nameIds, capacity);
+            destinations = Arrays.copyOf(destinations, capacity);
+            concessionIds = Arrays.copyOf(concessionIds, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+        nameIds[size] = nameId(name);
+        destinations[size] = destinationIndex(destination);
+        concessionIds[size] = concessionId;
+        flags[size] = flag;
+        return size++;
+    }
+
+    /*
+     * Returns the id of the given name, as Passenger(String) would store it,
+     * interning it if it has not been seen before.
+     */
+    private int nameId(String name) {
+        String cleaned = name == null ? "" : name.replace("\n", "")
+                .replace("\r", "");
+        Integer id = nameIndex.get(cleaned);
+        if (id == null) {
+            id = names.size();
+            names.add(cleaned);
+            nameIndex.put(cleaned, id);
+        }
+        return id;
+    }
+
+    /*
+     * Returns the index the given destination is stored as: its index in the
+     * graph if it is in it, NO_DESTINATION if it is null, or otherwise
+     * -2 - its position among the other destinations.
+     */
+    private int destinationIndex(Stop destination) {
+        if (destination == null) {
+            return NO_DESTINATION;
+        }
+        if (graph != null) {
+            int index = graph.indexOf(destination);
+            if (index >= 0) {
+                return index;
+            }
+        }
+        Integer position = otherIndex.get(destination);
+        if (position == null) {
+            position = others.size();
+            others.add(destination);
+            otherIndex.put(destination, position);
+        }
+        return NO_DESTINATION - 1 - position;
+    }
+
+    /*
+     * Throws an IndexOutOfBoundsException unless a passenger has the given id.
+     */
+    private void check(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    /*
+     * A passenger in the store, seen through the Passenger API.
+     */
+    private static class Handle extends Passenger {
+        private final PassengerStore store;
+        private final int id;
+
+        private Handle(PassengerStore store, int id) {
+            super(null);
+            this.store = store;
+            this.id = id;
+        }
+
+        @Override
+        public String getName() {
+            return store.getName(id);
+        }
+
+        @Override
+        public Stop getDestination() {
+            return store.getDestination(id);
+        }
+
+        @Override
+        public void setDestination(Stop destination) {
+            store.setDestination(id, destination);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Handle && ((Handle) other).store == store
+                    && ((Handle) other).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(store) + id;
+        }
+    }
+
+    /*
+     * A concession passenger in the store, seen through the
+     * ConcessionPassenger API.
+     */
+    private static class ConcessionHandle extends ConcessionPassenger {
+        private final PassengerStore store;
+        private final int id;
+
+        private ConcessionHandle(PassengerStore store, int id) {
+            super(null, null, ConcessionPassenger.INVALID);
+            this.store = store;
+            this.id = id;
+        }
+
+        @Override
+        public String getName() {
+            return store.getName(id);
+        }
+
+        @Override
+        public Stop getDestination() {
+            return store.getDestination(id);
+        }
+
+        @Override
+        public void setDestination(Stop destination) {
+            store.setDestination(id, destination);
+        }
+
+        @Override
+        public void expire() {
+            store.expire(id);
+        }
+
+        @Override
+        public void renew(int newId) {
+            store.renew(id, newId);
+        }
+
+        @Override
+        public boolean isValid() {
+            return store.isValid(id);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof ConcessionHandle
+                    && ((ConcessionHandle) other).store == store
+                    && ((ConcessionHandle) other).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(store) + id;
+        }
+    }
+}
@@ -4,11 +4,15 @@ import exceptions.EmptyRouteException;
 import exceptions.IncompatibleTypeException;
 import exceptions.TransportFormatException;
 import stops.Stop;
+import utilities.Tokenizer;
 import utilities.Writeable;
 import vehicles.PublicTransport;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 /**
  * Represents a route in the transportation network.
@@ -29,6 +33,9 @@ public abstract class Route implements Writeable {
     // the stops which make up the route
     private List<Stop> route;
 
+    // the number of times stops have been added to or removed from the route
+    private int modifications;
+
     /**
      * Creates a new Route with the given name and number.
      *
@@ -50,6 +57,7 @@ public abstract class Route implements Writeable {
         this.routeNumber = routeNumber;
         this.vehicles = new ArrayList<>();
         this.route = new ArrayList<>();
+        this.modifications = 0;
     }
 
     /**
@@ -85,6 +93,20 @@ public abstract class Route implements Writeable {
         return new ArrayList<>(route);
     }
 
+    /**
+     * Returns the number of times the stops on this route have changed, i.e.
+     * the number of calls to {@link #addStop(Stop)} and
+     * {@link #removeStop(Stop)} which have added or removed a stop.
+     *
+     * <p>This lets anything built from the stops on the route tell whether it
+     * is out of date, without keeping a copy of them to compare against.
+     *
+     * @return The number of changes made to the stops on the route.
+     */
+    public int getModificationCount() {
+        return modifications;
+    }
+
     /**
      * Returns the first stop of the route (i.e. the first stop to be added to
      * the route).
@@ -123,6 +145,7 @@ public abstract class Route implements Writeable {
 
         stop.addRoute(this);
         route.add(stop);
+        modifications++;
 
         // return if this was the first stop
         if (route.size() == 1) {
@@ -134,6 +157,94 @@ public abstract class Route implements Writeable {
         stop.addNeighbouringStop(previous);
     }
 
+    /**
+     * Removes a stop from the route, e.g. when it is closed.
+     *
+     * <p>If the given stop is null, or is not on this route, nothing happens.
+     *
+     * <p>Every occurrence of the stop is removed, and the stops on either side
+     * of each occurrence are recorded as neighbouring stops of each other (as
+     * in {@link #addStop(Stop)}), so vehicles on the route now travel straight
+     * past it. The links between the removed stop and the stops on either
+     * side of it are removed using {@link Stop#removeNeighbouringStop(Stop)},
+     * unless another route the stop is on still links them. This route is
+     * also removed from the stop using {@link Stop#removeRoute(Route)}.
+     *
+     * @param stop The stop to be removed from this route.
+     */
+    public void removeStop(Stop stop) {
+        if (stop == null) {
+            return;
+        }
+
+        List<Stop> before = route;
+        route = new ArrayList<>();
+        for (Stop existing : before) {
+            if (existing != stop) {
+                route.add(existing);
+            }
+        }
+        if (route.size() == before.size()) {
+            return;
+        }
+        modifications++;
+        stop.removeRoute(this);
+
+        // link up the stops either side of the removed stop
+        for (int i = 1; i < route.size(); i++) {
+            Stop previous = route.get(i - 1);
+            Stop next = route.get(i);
+            if (previous != next) {
+                previous.addNeighbouringStop(next);
+                next.addNeighbouringStop(previous);
+            }
+        }
+
+        for (int i = 0; i < before.size(); i++) {
+            if (before.get(i) != stop) {
+                continue;
+            }
+            if (i > 0) {
+                unlink(stop, before.get(i - 1));
+            }
+            if (i < before.size() - 1) {
+                unlink(stop, before.get(i + 1));
+            }
+        }
+    }
+
+    /*
+     * Removes the links between the given stops in both directions, unless
+     * another route of the first stop has them next to each other.
+     */
+    private static void unlink(Stop stop, Stop other) {
+        if (other == stop) {
+            return;
+        }
+        for (Route remaining : stop.getRoutes()) {
+            if (remaining.links(stop, other)) {
+                return;
+            }
+        }
+        stop.removeNeighbouringStop(other);
+        other.removeNeighbouringStop(stop);
+    }
+
+    /*
+     * Returns true if the given stops are next to each other on this route.
+     */
+    private boolean links(Stop first, Stop second) {
+        for (int i = 1; i < route.size(); i++) {
+            Stop previous = route.get(i - 1);
+            Stop next = route.get(i);
+            if ((previous == first && next == second)
+                    || (previous == second && next == first)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns the public transport vehicles currently on this route.
      *
@@ -265,6 +376,28 @@ public abstract class Route implements Writeable {
         return this.toString();
     }
 
+    /**
+     * Appends this route to the given output in the same format as specified
+     * in {@link Route#toString()}, a stop at a time, rather than building the
+     * whole string first.
+     *
+     * @param out The output to append to.
+     * @throws IOException If appending to the output fails.
+     */
+    @Override
+    public void encodeTo(Appendable out) throws IOException {
+        out.append(getType()).append(",");
+        out.append(name).append(",").append(Integer.toString(routeNumber));
+        out.append(":");
+
+        for (int i = 0; i < route.size(); i++) {
+            if (i > 0) {
+                out.append('|');
+            }
+            out.append(route.get(i).getName());
+        }
+    }
+
     /*
      * Returns a route object of the correct type (e.g. TrainRoute if the type
      * is "train") with the given name and route number.
@@ -353,50 +486,83 @@ public abstract class Route implements Writeable {
      */
     public static Route decode(String routeString, List<Stop> existingStops)
             throws TransportFormatException {
+        return decodeRoute(routeString,
+                stopName -> findStop(stopName, existingStops));
+    }
+
+    /**
+     * Creates a new route object based on the given string representation,
+     * as in {@link #decode(String, List)}, finding its stops by name in the
+     * given index rather than by searching a list.
+     *
+     * <p>The index should map each stop name to the stop that
+     * {@link #decode(String, List)} would have used, i.e. the first stop in
+     * the network with that name.
+     *
+     * @param routeString The string to decode.
+     * @param existingStops The stops which currently exist in the transport
+     *                      network, indexed by name.
+     * @return The decoded route object (a BusRoute, TrainRoute, or FerryRoute,
+     *          depending on the type given in the string).
+     * @throws TransportFormatException If the given string or existingStops
+     *          index is null, or the string is incorrectly formatted, as
+     *          described in {@link #decode(String, List)}.
+     */
+    public static Route decode(String routeString,
+                               Map<String, Stop> existingStops)
+            throws TransportFormatException {
+        return decodeRoute(routeString,
+                stopName -> existingStops.get(stopName));
+    }
+
+    /*
+     * Decodes the given route string, as described in decode(String, List),
+     * finding each stop named in it with the given lookup, which returns null
+     * for names that are not in the network.
+     */
+    private static Route decodeRoute(String routeString,
+                                     Function<String, Stop> lookup)
+            throws TransportFormatException {
         Route route;
         try {
-            // if the last character is a colon, remove
+            // split and count the delimiters in one pass, ignoring a colon
+            // at the very end
+            String[] parts = Tokenizer.split(routeString, ':');
+            int length = parts.length;
             if (routeString.endsWith(":")) {
-                routeString = routeString.substring(0,
-                        routeString.length() - 1);
+                length--;
             }
-            String[] parts = routeString.split(":");
 
             // check that there are no extra delimiters
-            int count = routeString.length() -
-                    routeString.replace(":", "").length();
-
-            if (count + 1 != parts.length){
+            if (length > 1 && parts[length - 1].isEmpty()){
                 throw new TransportFormatException();
             }
 
-            String[] identifiers = parts[0].split(",");
+            String[] identifiers = Tokenizer.split(parts[0], ',');
             // should be three parts
             final int NUM_PARTS = 3;
-            if (identifiers.length != NUM_PARTS){
+            if (Tokenizer.splitLength(identifiers) != NUM_PARTS){
                 throw new TransportFormatException();
             }
 
             String type = identifiers[0];
             String name = identifiers[1];
-            int routeNumber = Integer.parseInt(identifiers[2].trim());
+            int routeNumber = Tokenizer.parseInt(identifiers[2]);
             route = routeFromType(type, name, routeNumber);
 
-            if (parts.length == 1) {
+            if (length == 1) {
                 return route;
             }
 
-            String[] stops = parts[1].split("\\|");
+            String[] stops = Tokenizer.split(parts[1], '|');
             //check that there are no extra delimiters
-            count = parts[1].length() -
-                    parts[1].replace("|", "").length();
-            if (count + 1 != stops.length){
+            if (!Tokenizer.isExact(stops)){
                 throw new TransportFormatException();
             }
 
             // for each stop, check that it is valid
             for (String stopName : stops) {
-                Stop stop = findStop(stopName, existingStops);
+                Stop stop = lookup.apply(stopName);
                 if (stop == null) {
                     throw new TransportFormatException();
                 }
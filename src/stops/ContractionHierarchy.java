@@ -0,0 +1,591 @@
+package stops;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A contraction hierarchy over the neighbour links of the stops in a
+ * StopGraph, answering the same costTo and nextStop queries as a synchronised
+ * routing table without any per-stop tables.
+ *
+ * To build the hierarchy, the stops are contracted one at a time, least
+ * important first: each stop is removed from the graph, and wherever the
+ * cheapest way between two of its remaining neighbours went through it, a
+ * shortcut link is added between them with the same cost. A stop's rank is
+ * the order in which it was contracted. Every cheapest route then has a
+ * cheapest equivalent which only climbs in rank and then only descends, so a
+ * query is two small searches which only follow links up the ranks, one from
+ * each end, meeting at the highest stop on the route. Shortcuts remember the
+ * stop they skip, so the next stop on a route can be recovered.
+ *
+ * The hierarchy only covers the stops and links in the graph when it was
+ * built (see StopGraph.buildHierarchy()). Once a neighbour link in the graph is
+ * added or removed, the graph drops it, isCurrent() returns false, and its
+ * answers may be out of date. Queries share scratch space, so, as with the
+ * rest of the graph, they must not run on several threads at once.
+ */
+public class ContractionHierarchy {
+    // the most stops a witness search settles before giving up, which only
+    // ever costs an unneeded shortcut
+    private static final int WITNESS_LIMIT = 500;
+    // keeps contraction priorities (which can be negative) positive in a queue
+    private static final int PRIORITY_OFFSET = 1 << 24;
+
+    // the graph this hierarchy was built over, and how many stops it covers
+    private StopGraph graph;
+    private int count;
+
+    // links (and shortcuts) leading up the ranks, in compressed sparse row
+    // form, followed forwards from each stop
+    private int[] upOffsets;
+    private int[] upTargets;
+    private int[] upWeights;
+    // links (and shortcuts) leading up the ranks, followed backwards into
+    // each stop
+    private int[] downOffsets;
+    private int[] downTargets;
+    private int[] downWeights;
+    // the stop each shortcut skips, keyed by (from, to)
+    private Map<Long, Integer> middles;
+
+    // scratch space for queries, valid where stamped with the current query
+    private int[] forwardCost;
+    private int[] forwardParent;
+    private int[] forwardStamp;
+    private int[] backwardCost;
+    private int[] backwardParent;
+    private int[] backwardStamp;
+    private int query;
+    private LabelQueue forwardQueue;
+    private LabelQueue backwardQueue;
+
+    /*
+     * Builds a hierarchy over the stops and neighbour links currently in the
+     * given graph.
+     */
+    ContractionHierarchy(StopGraph graph) {
+        this.graph = graph;
+        this.count = graph.size();
+        this.middles = new HashMap<>();
+        new Contraction(this).run();
+
+        this.forwardCost = new int[count];
+        this.forwardParent = new int[count];
+        this.forwardStamp = new int[count];
+        this.backwardCost = new int[count];
+        this.backwardParent = new int[count];
+        this.backwardStamp = new int[count];
+        this.query = 0;
+        this.forwardQueue = new LabelQueue();
+        this.backwardQueue = new LabelQueue();
+    }
+
+    /**
+     * Returns whether this hierarchy is still the one held by its graph, i.e.
+     * no neighbour link in the graph has been added or removed since it was
+     * built.
+     * @return True if the hierarchy is up to date.
+     */
+    public boolean isCurrent() {
+        return graph.getHierarchy() == this;
+    }
+
+    /**
+     * Returns the number of shortcut links added while building this
+     * hierarchy.
+     * @return The number of shortcuts.
+     */
+    public int getShortcutCount() {
+        return middles.size();
+    }
+
+    /**
+     * Returns the cost of the cheapest route from one stop to another, as the
+     * first stop's routing table would give it once synchronised.
+     * @param from The stop to route from.
+     * @param to The destination.
+     * @return The cost of the cheapest route, or Integer.MAX_VALUE if there is
+     *         none or either stop is not covered by this hierarchy.
+     */
+    public int costTo(Stop from, Stop to) {
+        return (int) (route(from, to) >>> 32);
+    }
+
+    /**
+     * Returns the stop a passenger at one stop should be sent to next to reach
+     * another, as the first stop's routing table would give it once
+     * synchronised. As in the tables, a stop sends passengers for itself and
+     * its neighbours via itself.
+     * @param from The stop the passenger is at.
+     * @param to The passenger's destination.
+     * @return The next stop on the cheapest route, or null if there is none
+     *         or either stop is not covered by this hierarchy.
+     */
+    public Stop nextStop(Stop from, Stop to) {
+        int next = (int) route(from, to);
+        return next < 0 ? null : graph.getStop(next);
+    }
+
+    /*
+     * Returns the cheapest route from one stop to another, packed as
+     * (cost, next index) in the same way as RoutingCache, with a cost of
+     * Integer.MAX_VALUE and a next index of -1 if there is none.
+     *
+     * Routing table entries are passed on backwards along neighbour links, so
+     * a stop's route to a destination follows links from the destination to
+     * the stop, and the next stop is the one just before it.
+     */
+    long route(Stop from, Stop to) {
+        int source = graph.indexOf(to);
+        int target = graph.indexOf(from);
+        if (source < 0 || target < 0 || source >= count || target >= count) {
+            return RoutingCache.pack(Integer.MAX_VALUE, -1);
+        }
+        if (source == target) {
+            return RoutingCache.pack(0, target);
+        }
+        for (Stop neighbour : from.neighbourList()) {
+            if (neighbour == to) {
+                return RoutingCache.pack(from.distanceTo(to), target);
+            }
+        }
+        int meet = search(source, target);
+        if (meet < 0) {
+            return RoutingCache.pack(Integer.MAX_VALUE, -1);
+        }
+        int cost = forwardCost[meet] + backwardCost[meet];
+
+        // find the link or shortcut on the route which ends at the target
+        int last;
+        if (meet == target) {
+            last = forwardParent[target];
+        } else {
+            last = meet;
+            while (backwardParent[last] != target) {
+                last = backwardParent[last];
+            }
+        }
+        // and the stop just before the target within it
+        Integer middle;
+        while ((middle = middles.get(key(last, target))) != null) {
+            last = middle;
+        }
+        return RoutingCache.pack(cost, last);
+    }
+
+    /*
+     * Searches up the ranks from both ends at once, and returns the stop at
+     * which the cheapest route from the source to the target peaks, or -1 if
+     * there is no route.
+     */
+    private int search(int source, int target) {
+        if (++query == 0) {
+            // the stamps have wrapped around, so none of them can be trusted
+            Arrays.fill(forwardStamp, 0);
+            Arrays.fill(backwardStamp, 0);
+            query = 1;
+        }
+        forwardQueue.clear();
+        backwardQueue.clear();
+        forwardCost[source] = 0;
+        forwardParent[source] = -1;
+        forwardStamp[source] = query;
+        forwardQueue.push(0, source);
+        backwardCost[target] = 0;
+        backwardParent[target] = -1;
+        backwardStamp[target] = query;
+        backwardQueue.push(0, target);
+
+        int best = Integer.MAX_VALUE;
+        int meet = -1;
+        while (!forwardQueue.isEmpty() || !backwardQueue.isEmpty()) {
+            boolean forward = backwardQueue.isEmpty()
+                    || (!forwardQueue.isEmpty() && forwardQueue.peek()
+                    <= backwardQueue.peek());
+            LabelQueue queue = forward ? forwardQueue : backwardQueue;
+            long label = queue.pop();
+            int current = LabelQueue.index(label);
+            int currentCost = LabelQueue.cost(label);
+            if (currentCost >= best) {
+                // nothing left on this side can lead to a cheaper route
+                queue.clear();
+                continue;
+            }
+            int[] cost = forward ? forwardCost : backwardCost;
+            if (currentCost > cost[current]) {
+                continue;
+            }
+            int[] otherStamp = forward ? backwardStamp : forwardStamp;
+            int[] otherCost = forward ? backwardCost : forwardCost;
+            if (otherStamp[current] == query
+                    && currentCost + otherCost[current] < best) {
+                best = currentCost + otherCost[current];
+                meet = current;
+            }
+            int[] stamp = forward ? forwardStamp : backwardStamp;
+            if (stalled(current, currentCost, forward ? downOffsets : upOffsets,
+                    forward ? downTargets : upTargets,
+                    forward ? downWeights : upWeights, cost, stamp)) {
+                continue;
+            }
+
+            int[] offsets = forward ? upOffsets : downOffsets;
+            int[] targets = forward ? upTargets : downTargets;
+            int[] weights = forward ? upWeights : downWeights;
+            int[] parent = forward ? forwardParent : backwardParent;
+            for (int i = offsets[current]; i < offsets[current + 1]; i++) {
+                int next = targets[i];
+                int newCost = currentCost + weights[i];
+                if (newCost < 0) {
+                    continue;
+                }
+                if (stamp[next] != query || newCost < cost[next]) {
+                    cost[next] = newCost;
+                    parent[next] = current;
+                    stamp[next] = query;
+                    queue.push(newCost, next);
+                }
+            }
+        }
+        return meet;
+    }
+
+    /*
+     * Returns true if the given stop can be reached more cheaply than the
+     * given cost through a higher ranked stop this side of the search has
+     * already reached, using the links given, which lead down the ranks to
+     * the stop. The search need not go on from such a stop, as no cheapest
+     * route passes through it on the way up.
+     */
+    private boolean stalled(int stop, int stopCost, int[] offsets,
+                            int[] targets, int[] weights, int[] cost,
+                            int[] stamp) {
+        for (int i = offsets[stop]; i < offsets[stop + 1]; i++) {
+            int higher = targets[i];
+            if (stamp[higher] == query
+                    && (long) cost[higher] + weights[i] < stopCost) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long key(int from, int to) {
+        return ((long) from << 32) | to;
+    }
+
+    /*
+     * The working state while building a hierarchy: every link and shortcut
+     * added so far, in both directions, and which stops have been contracted.
+     */
+    private static class Contraction {
+        // the hierarchy being built
+        private ContractionHierarchy hierarchy;
+        private int count;
+
+        // the links out of and into each stop, with their weights
+        private int[][] outTargets;
+        private int[][] outWeights;
+        private int[] outCount;
+        private int[][] inTargets;
+        private int[][] inWeights;
+        private int[] inCount;
+
+        private boolean[] contracted;
+        // how many levels of contracted stops lie below each stop
+        private int[] level;
+
+        // scratch space for witness searches
+        private int[] witnessCost;
+        private int[] witnessStamp;
+        private int witness;
+        private LabelQueue witnessQueue;
+
+        Contraction(ContractionHierarchy hierarchy) {
+            this.hierarchy = hierarchy;
+            this.count = hierarchy.count;
+            this.outTargets = new int[count][];
+            this.outWeights = new int[count][];
+            this.outCount = new int[count];
+            this.inTargets = new int[count][];
+            this.inWeights = new int[count][];
+            this.inCount = new int[count];
+            this.contracted = new boolean[count];
+            this.level = new int[count];
+            this.witnessCost = new int[count];
+            this.witnessStamp = new int[count];
+            this.witness = 0;
+            this.witnessQueue = new LabelQueue();
+
+            StopGraph graph = hierarchy.graph;
+            for (int i = 0; i < count; i++) {
+                outTargets[i] = new int[4];
+                outWeights[i] = new int[4];
+                inTargets[i] = new int[4];
+                inWeights[i] = new int[4];
+            }
+            for (int i = 0; i < count; i++) {
+                for (int p = graph.neighbourStart(i); p < graph.neighbourEnd(i);
+                        p++) {
+                    if (graph.neighbourAt(p) != i) {
+                        link(i, graph.neighbourAt(p), graph.weightAt(p));
+                    }
+                }
+            }
+        }
+
+        /*
+         * Contracts every stop, least important first, and then stores the
+         * links which lead up the ranks in the hierarchy.
+         */
+        void run() {
+            LabelQueue order = new LabelQueue();
+            int[] priorities = new int[count];
+            for (int i = 0; i < count; i++) {
+                priorities[i] = priority(i);
+                order.push(priorities[i] + PRIORITY_OFFSET, i);
+            }
+            int[] rank = new int[count];
+            int next = 0;
+            while (!order.isEmpty()) {
+                long label = order.pop();
+                int stop = LabelQueue.index(label);
+                if (contracted[stop] || LabelQueue.cost(label)
+                        != priorities[stop] + PRIORITY_OFFSET) {
+                    // the stop has been queued again since
+                    continue;
+                }
+                // contracting other stops may have made this one less
+                // attractive, in which case it waits its turn again
+                int priority = priority(stop);
+                if (priority > priorities[stop]) {
+                    priorities[stop] = priority;
+                    order.push(priority + PRIORITY_OFFSET, stop);
+                    continue;
+                }
+                contract(stop, true);
+                contracted[stop] = true;
+                rank[stop] = next++;
+                // which changes the neighbours' priorities
+                update(stop, outTargets[stop], outCount[stop], priorities,
+                        order);
+                update(stop, inTargets[stop], inCount[stop], priorities,
+                        order);
+            }
+            store(rank);
+        }
+
+        /*
+         * Requeues the given neighbours of a stop which has just been
+         * contracted whose priority has changed.
+         */
+        private void update(int stop, int[] neighbours, int neighbourCount,
+                            int[] priorities, LabelQueue order) {
+            for (int i = 0; i < neighbourCount; i++) {
+                int neighbour = neighbours[i];
+                if (contracted[neighbour]) {
+                    continue;
+                }
+                level[neighbour] = Math.max(level[neighbour], level[stop] + 1);
+                int priority = priority(neighbour);
+                if (priority != priorities[neighbour]) {
+                    priorities[neighbour] = priority;
+                    order.push(priority + PRIORITY_OFFSET, neighbour);
+                }
+            }
+        }
+
+        /*
+         * Returns how attractive the given stop is to contract next (lower is
+         * better): the number of shortcuts contracting it would add, less the
+         * links it would remove, plus its level, which spreads contraction
+         * evenly across the graph and keeps the hierarchy shallow.
+         */
+        private int priority(int stop) {
+            int links = 0;
+            for (int i = 0; i < outCount[stop]; i++) {
+                if (!contracted[outTargets[stop][i]]) {
+                    links++;
+                }
+            }
+            for (int i = 0; i < inCount[stop]; i++) {
+                if (!contracted[inTargets[stop][i]]) {
+                    links++;
+                }
+            }
+            return contract(stop, false) - links + level[stop];
+        }
+
+        /*
+         * Finds the shortcuts needed to contract the given stop, adding them
+         * if add is true, and returns how many there are. A shortcut is needed
+         * between two of the stop's remaining neighbours unless a witness
+         * search finds a way between them, avoiding the stop, which costs no
+         * more than going through it.
+         */
+        private int contract(int stop, boolean add) {
+            int shortcuts = 0;
+            for (int i = 0; i < inCount[stop]; i++) {
+                int from = inTargets[stop][i];
+                if (contracted[from]) {
+                    continue;
+                }
+                int toStop = inWeights[stop][i];
+                int limit = -1;
+                for (int j = 0; j < outCount[stop]; j++) {
+                    int to = outTargets[stop][j];
+                    if (!contracted[to] && to != from) {
+                        limit = Math.max(limit, toStop + outWeights[stop][j]);
+                    }
+                }
+                if (limit < 0) {
+                    continue;
+                }
+                witnesses(from, stop, limit);
+                for (int j = 0; j < outCount[stop]; j++) {
+                    int to = outTargets[stop][j];
+                    int via = toStop + outWeights[stop][j];
+                    if (contracted[to] || to == from || via < 0) {
+                        continue;
+                    }
+                    if (witnessStamp[to] == witness && witnessCost[to] <= via) {
+                        continue;
+                    }
+                    shortcuts++;
+                    if (add && link(from, to, via)) {
+                        hierarchy.middles.put(key(from, to), stop);
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        /*
+         * Finds the cheapest ways from the given stop to the stops around it,
+         * avoiding the given stop and any contracted ones, up to the given
+         * cost or until WITNESS_LIMIT stops have been settled.
+         */
+        private void witnesses(int from, int avoid, int limit) {
+            if (++witness == 0) {
+                Arrays.fill(witnessStamp, 0);
+                witness = 1;
+            }
+            witnessQueue.clear();
+            witnessCost[from] = 0;
+            witnessStamp[from] = witness;
+            witnessQueue.push(0, from);
+            int settled = 0;
+            while (!witnessQueue.isEmpty() && settled < WITNESS_LIMIT) {
+                long label = witnessQueue.pop();
+                int current = LabelQueue.index(label);
+                int currentCost = LabelQueue.cost(label);
+                if (currentCost > limit) {
+                    break;
+                }
+                if (currentCost > witnessCost[current]) {
+                    continue;
+                }
+                settled++;
+                for (int i = 0; i < outCount[current]; i++) {
+                    int next = outTargets[current][i];
+                    int newCost = currentCost + outWeights[current][i];
+                    if (next == avoid || contracted[next] || newCost < 0) {
+                        continue;
+                    }
+                    if (witnessStamp[next] != witness
+                            || newCost < witnessCost[next]) {
+                        witnessCost[next] = newCost;
+                        witnessStamp[next] = witness;
+                        witnessQueue.push(newCost, next);
+                    }
+                }
+            }
+        }
+
+        /*
+         * Adds a link between two stops, or lowers the weight of the existing
+         * one, and returns true if either happened.
+         */
+        private boolean link(int from, int to, int weight) {
+            for (int i = 0; i < outCount[from]; i++) {
+                if (outTargets[from][i] == to) {
+                    if (outWeights[from][i] <= weight) {
+                        return false;
+                    }
+                    outWeights[from][i] = weight;
+                    for (int j = 0; j < inCount[to]; j++) {
+                        if (inTargets[to][j] == from) {
+                            inWeights[to][j] = weight;
+                        }
+                    }
+                    return true;
+                }
+            }
+            if (outCount[from] == outTargets[from].length) {
+                outTargets[from] = Arrays.copyOf(outTargets[from],
+                        outCount[from] * 2);
+                outWeights[from] = Arrays.copyOf(outWeights[from],
+                        outCount[from] * 2);
+            }
+            outTargets[from][outCount[from]] = to;
+            outWeights[from][outCount[from]++] = weight;
+            if (inCount[to] == inTargets[to].length) {
+                inTargets[to] = Arrays.copyOf(inTargets[to], inCount[to] * 2);
+                inWeights[to] = Arrays.copyOf(inWeights[to], inCount[to] * 2);
+            }
+            inTargets[to][inCount[to]] = from;
+            inWeights[to][inCount[to]++] = weight;
+            return true;
+        }
+
+        /*
+         * Stores the links which lead up the ranks in the hierarchy, both
+         * forwards out of each stop and backwards into it.
+         */
+        private void store(int[] rank) {
+            int[] upOffsets = new int[count + 1];
+            int[] downOffsets = new int[count + 1];
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < outCount[i]; j++) {
+                    if (rank[outTargets[i][j]] > rank[i]) {
+                        upOffsets[i + 1]++;
+                    }
+                }
+                for (int j = 0; j < inCount[i]; j++) {
+                    if (rank[inTargets[i][j]] > rank[i]) {
+                        downOffsets[i + 1]++;
+                    }
+                }
+                upOffsets[i + 1] += upOffsets[i];
+                downOffsets[i + 1] += downOffsets[i];
+            }
+            int[] upTargets = new int[upOffsets[count]];
+            int[] upWeights = new int[upOffsets[count]];
+            int[] downTargets = new int[downOffsets[count]];
+            int[] downWeights = new int[downOffsets[count]];
+            for (int i = 0; i < count; i++) {
+                int up = upOffsets[i];
+                for (int j = 0; j < outCount[i]; j++) {
+                    if (rank[outTargets[i][j]] > rank[i]) {
+                        upTargets[up] = outTargets[i][j];
+                        upWeights[up++] = outWeights[i][j];
+                    }
+                }
+                int down = downOffsets[i];
+                for (int j = 0; j < inCount[i]; j++) {
+                    if (rank[inTargets[i][j]] > rank[i]) {
+                        downTargets[down] = inTargets[i][j];
+                        downWeights[down++] = inWeights[i][j];
+                    }
+                }
+            }
+            hierarchy.upOffsets = upOffsets;
+            hierarchy.upTargets = upTargets;
+            hierarchy.upWeights = upWeights;
+            hierarchy.downOffsets = downOffsets;
+            hierarchy.downTargets = downTargets;
+            hierarchy.downWeights = downWeights;
+        }
+    }
+}
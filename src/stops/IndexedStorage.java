@@ -0,0 +1,208 @@
+package stops;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/*
+ * Stores routing entries in buffers of ints, indexed by the dense index each
+ * stop is given by a StopGraph. Every destination takes two ints: the cost,
+ * and the index of the next stop. The next stop's index is stored offset by
+ * two, so that a freshly allocated (all zero) buffer holds no entries and
+ * never needs filling.
+ *
+ * The destinations are split into fixed-size pages, each allocated the first
+ * time an entry falls in it. A stop added to a large network therefore only
+ * costs each table one small page, rather than a copy of the whole table, and
+ * tables with few entries stay small.
+ *
+ * Each page is either an int array on the heap, or a slice of a direct
+ * ByteBuffer outside of it. Direct buffers are slow to allocate and each
+ * carries its own bookkeeping, so off-heap pages are sliced out of larger
+ * slabs, shared by every table. A slab is only freed once none of its pages
+ * are in use.
+ *
+ * Entries whose destination or next stop is not in the graph are kept in a
+ * MapStorage on the side. Like the graph's indexes, it tells stops apart by
+ * identity, so a stop and an equal copy of it always have separate entries.
+ */
+class IndexedStorage implements RoutingStorage {
+    // marks a slot with no entry
+    private static final int ABSENT = 0;
+    // marks an entry with no next stop
+    private static final int NO_NEXT = 1;
+    // added to the index of a next stop before it is stored
+    private static final int OFFSET = 2;
+
+    // each page holds 2^PAGE_BITS destinations
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int PAGE_BYTES = PAGE_SIZE * 2 * Integer.BYTES;
+
+    // the number of off-heap pages sliced out of each slab
+    private static final int SLAB_PAGES = 64;
+    // the slab off-heap pages are being sliced from, or null before the first
+    private static ByteBuffer slab;
+
+    // the graph which indexes the stops
+    private StopGraph graph;
+    // whether the pages live outside of the heap
+    private boolean offHeap;
+    // the [cost, next] pairs, by destination index; null pages are empty
+    private IntBuffer[] pages;
+    // the number of entries held in the pages
+    private int size;
+    // entries which cannot be indexed, or null if there are none yet
+    private MapStorage overflow;
+
+    IndexedStorage(StopGraph graph, boolean offHeap) {
+        this.graph = graph;
+        this.offHeap = offHeap;
+        this.pages = new IntBuffer[(graph.size() >> PAGE_BITS) + 1];
+        this.size = 0;
+    }
+
+    @Override
+    public boolean contains(Stop destination) {
+        if (pageOf(destination) != null) {
+            return true;
+        }
+        return overflow != null && overflow.contains(destination);
+    }
+
+    @Override
+    public int cost(Stop destination) {
+        IntBuffer page = pageOf(destination);
+        if (page != null) {
+            return page.get(2 * (destination.getIndex() & PAGE_MASK));
+        }
+        return overflow == null ? Integer.MAX_VALUE
+                : overflow.cost(destination);
+    }
+
+    @Override
+    public Stop next(Stop destination) {
+        IntBuffer page = pageOf(destination);
+        if (page != null) {
+            int next = page.get(2 * (destination.getIndex() & PAGE_MASK) + 1);
+            return next == NO_NEXT ? null : graph.getStop(next - OFFSET);
+        }
+        return overflow == null ? null : overflow.next(destination);
+    }
+
+    @Override
+    public void put(Stop destination, int cost, Stop next) {
+        int index = graph.indexOf(destination);
+        int nextIndex = next == null ? NO_NEXT
+                : graph.indexOf(next) + OFFSET;
+
+        if (index < 0 || (next != null && nextIndex < OFFSET)) {
+            // can't be indexed, so keep it on the side
+            remove(destination);
+            if (overflow == null) {
+                overflow = new MapStorage(true);
+            }
+            overflow.put(destination, cost, next);
+            return;
+        }
+
+        int pageNumber = index >>> PAGE_BITS;
+        if (pageNumber >= pages.length) {
+            pages = Arrays.copyOf(pages, Math.max(pageNumber + 1,
+                    (graph.size() >> PAGE_BITS) + 1));
+        }
+        if (pages[pageNumber] == null) {
+            pages[pageNumber] = allocate();
+        }
+        IntBuffer page = pages[pageNumber];
+        int slot = 2 * (index & PAGE_MASK);
+        if (page.get(slot + 1) == ABSENT) {
+            size++;
+        }
+        page.put(slot, cost);
+        page.put(slot + 1, nextIndex);
+        if (overflow != null) {
+            overflow.remove(destination);
+        }
+    }
+
+    @Override
+    public void remove(Stop destination) {
+        IntBuffer page = pageOf(destination);
+        if (page != null) {
+            page.put(2 * (destination.getIndex() & PAGE_MASK) + 1, ABSENT);
+            size--;
+        } else if (overflow != null) {
+            overflow.remove(destination);
+        }
+    }
+
+    @Override
+    public Collection<Stop> destinations() {
+        List<Stop> destinations = new ArrayList<>(size());
+        for (int pageNumber = 0; pageNumber < pages.length; pageNumber++) {
+            IntBuffer page = pages[pageNumber];
+            if (page == null) {
+                continue;
+            }
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                if (page.get(2 * i + 1) != ABSENT) {
+                    destinations.add(graph.getStop(
+                            (pageNumber << PAGE_BITS) | i));
+                }
+            }
+        }
+        if (overflow != null) {
+            destinations.addAll(overflow.destinations());
+        }
+        return destinations;
+    }
+
+    @Override
+    public int size() {
+        return size + (overflow == null ? 0 : overflow.size());
+    }
+
+    /*
+     * Returns the page holding an entry for the given destination, or null if
+     * the pages hold no entry for it.
+     */
+    private IntBuffer pageOf(Stop destination) {
+        int index = graph.indexOf(destination);
+        if (index < 0 || (index >>> PAGE_BITS) >= pages.length) {
+            return null;
+        }
+        IntBuffer page = pages[index >>> PAGE_BITS];
+        if (page == null || page.get(2 * (index & PAGE_MASK) + 1) == ABSENT) {
+            return null;
+        }
+        return page;
+    }
+
+    /*
+     * Creates an empty (all zero) page.
+     */
+    private IntBuffer allocate() {
+        return offHeap ? slice().asIntBuffer()
+                : IntBuffer.allocate(PAGE_SIZE * 2);
+    }
+
+    /*
+     * Slices an empty page out of the current slab, starting a new slab once
+     * it is full. Tables may be filled in parallel (see RouteEngine.rebuild),
+     * so slabs are shared under a lock.
+     */
+    private static synchronized ByteBuffer slice() {
+        if (slab == null || slab.remaining() < PAGE_BYTES) {
+            slab = ByteBuffer.allocateDirect(SLAB_PAGES * PAGE_BYTES);
+        }
+        ByteBuffer page = slab.slice();
+        page.limit(PAGE_BYTES);
+        slab.position(slab.position() + PAGE_BYTES);
+        return page.slice();
+    }
+}
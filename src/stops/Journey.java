@@ -0,0 +1,79 @@
+package stops;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A path through the network from one stop to another along neighbour links,
+ * and its total cost (the sum of the Manhattan distances between consecutive
+ * stops).
+ */
+public class Journey {
+    // the stops along the way, from the start to the end
+    private List<Stop> stops;
+    // the total cost of the journey
+    private int cost;
+
+    /**
+     * Creates a new journey through the given stops.
+     * @param stops The stops along the way, in order. Must not be empty.
+     * @param cost The total cost of the journey.
+     */
+    public Journey(List<Stop> stops, int cost) {
+        this.stops = Collections.unmodifiableList(new ArrayList<>(stops));
+        this.cost = cost;
+    }
+
+    /**
+     * Returns the stops along this journey, from the start to the end
+     * (inclusive).
+     *
+     * The returned list cannot be modified.
+     * @return The stops along the journey.
+     */
+    public List<Stop> getStops() {
+        return stops;
+    }
+
+    /**
+     * Returns the stop this journey starts at.
+     * @return The first stop.
+     */
+    public Stop getStart() {
+        return stops.get(0);
+    }
+
+    /**
+     * Returns the stop this journey ends at.
+     * @return The last stop.
+     */
+    public Stop getEnd() {
+        return stops.get(stops.size() - 1);
+    }
+
+    /**
+     * Returns the total cost of this journey.
+     * @return The sum of the distances between consecutive stops.
+     */
+    public int getCost() {
+        return cost;
+    }
+
+    /**
+     * Returns the names of the stops along this journey, separated by '|',
+     * followed by the cost in brackets, e.g. 'UQ Lakes|City|Valley (12)'.
+     * @return A string representation of the journey.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Stop stop : stops) {
+            if (builder.length() > 0) {
+                builder.append("|");
+            }
+            builder.append(stop.getName());
+        }
+        return builder.append(" (").append(cost).append(")").toString();
+    }
+}
@@ -0,0 +1,87 @@
+package stops;
+
+import java.util.Arrays;
+
+/*
+ * A binary min-heap of (cost, stop index) labels, stored in a single long
+ * array so that routing searches do not box or allocate per label.
+ *
+ * Each label is packed as cost in the high 32 bits and index in the low 32
+ * bits, so ordering the packed values orders the labels by cost. Costs and
+ * indexes must not be negative.
+ */
+class LabelQueue {
+    // the packed labels, heap ordered
+    private long[] heap;
+    // the number of labels in the heap
+    private int size;
+
+    LabelQueue() {
+        this.heap = new long[64];
+        this.size = 0;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void push(int cost, int index) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        long label = ((long) cost << 32) | index;
+        int child = size++;
+        while (child > 0) {
+            int parent = (child - 1) >>> 1;
+            if (heap[parent] <= label) {
+                break;
+            }
+            heap[child] = heap[parent];
+            child = parent;
+        }
+        heap[child] = label;
+    }
+
+    /*
+     * Returns the cheapest label, packed, without removing it.
+     */
+    long peek() {
+        return heap[0];
+    }
+
+    /*
+     * Removes the cheapest label, and returns it packed. Use cost(long) and
+     * index(long) to unpack it.
+     */
+    long pop() {
+        long top = heap[0];
+        long last = heap[--size];
+        int parent = 0;
+        int half = size >>> 1;
+        while (parent < half) {
+            int child = 2 * parent + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (last <= heap[child]) {
+                break;
+            }
+            heap[parent] = heap[child];
+            parent = child;
+        }
+        heap[parent] = last;
+        return top;
+    }
+
+    static int cost(long label) {
+        return (int) (label >>> 32);
+    }
+
+    static int index(long label) {
+        return (int) label;
+    }
+}
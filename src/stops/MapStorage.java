@@ -0,0 +1,64 @@
+package stops;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/*
+ * Stores routing entries as a map from destination stops to RoutingEntry
+ * objects. This works for any stop, but costs a map node and an entry object
+ * per destination.
+ *
+ * Destinations are told apart by Stop.equals, unless the storage is created
+ * to tell them apart by identity (as IndexedStorage does).
+ */
+class MapStorage implements RoutingStorage {
+    // the entries, by destination
+    private Map<Stop, RoutingEntry> entries;
+
+    MapStorage() {
+        this(false);
+    }
+
+    MapStorage(boolean byIdentity) {
+        this.entries = byIdentity ? new IdentityHashMap<>() : new HashMap<>();
+    }
+
+    @Override
+    public boolean contains(Stop destination) {
+        return entries.containsKey(destination);
+    }
+
+    @Override
+    public int cost(Stop destination) {
+        RoutingEntry entry = entries.get(destination);
+        return entry == null ? Integer.MAX_VALUE : entry.getCost();
+    }
+
+    @Override
+    public Stop next(Stop destination) {
+        RoutingEntry entry = entries.get(destination);
+        return entry == null ? null : entry.getNext();
+    }
+
+    @Override
+    public void put(Stop destination, int cost, Stop next) {
+        entries.put(destination, new RoutingEntry(next, cost));
+    }
+
+    @Override
+    public void remove(Stop destination) {
+        entries.remove(destination);
+    }
+
+    @Override
+    public Collection<Stop> destinations() {
+        return entries.keySet();
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,169 @@
+package stops;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/*
+ * Stores routing entries in a row of a routing snapshot: a buffer of ints
+ * (usually a region of a memory-mapped file) holding a [cost, next] pair for
+ * the stop at each index of a StopGraph. The pairs are laid out as in
+ * IndexedStorage, with the next stop's index offset by two, so that a pair of
+ * zeroes holds no entry.
+ *
+ * The row is read in place, so loading it costs nothing per entry. It is never
+ * written to: the first change to the entries copies them into ordinary
+ * storage for the graph, which holds them from then on.
+ */
+class MappedStorage implements RoutingStorage {
+    // marks a slot with no entry
+    static final int ABSENT = 0;
+    // marks an entry with no next stop
+    static final int NO_NEXT = 1;
+    // added to the index of a next stop before it is stored
+    static final int OFFSET = 2;
+
+    // the graph which indexes the stops
+    private StopGraph graph;
+    // the [cost, next] pairs, by destination index; null once copied
+    private IntBuffer row;
+    // the number of entries in the row, or -1 until they are first counted
+    private int size;
+    // the storage holding the entries once they have changed, or null
+    private RoutingStorage copy;
+
+    MappedStorage(StopGraph graph, IntBuffer row) {
+        this.graph = graph;
+        this.row = row;
+        this.size = -1;
+        this.copy = null;
+    }
+
+    @Override
+    public boolean contains(Stop destination) {
+        if (copy != null) {
+            return copy.contains(destination);
+        }
+        return slotOf(destination) >= 0;
+    }
+
+    @Override
+    public int cost(Stop destination) {
+        if (copy != null) {
+            return copy.cost(destination);
+        }
+        int slot = slotOf(destination);
+        return slot < 0 ? Integer.MAX_VALUE : row.get(slot);
+    }
+
+    @Override
+    public Stop next(Stop destination) {
+        if (copy != null) {
+            return copy.next(destination);
+        }
+        int slot = slotOf(destination);
+        if (slot < 0) {
+            return null;
+        }
+        int next = row.get(slot + 1);
+        return next == NO_NEXT ? null : graph.getStop(next - OFFSET);
+    }
+
+    @Override
+    public void put(Stop destination, int cost, Stop next) {
+        detach().put(destination, cost, next);
+    }
+
+    @Override
+    public void remove(Stop destination) {
+        detach().remove(destination);
+    }
+
+    @Override
+    public Collection<Stop> destinations() {
+        if (copy != null) {
+            return copy.destinations();
+        }
+        List<Stop> destinations = new ArrayList<>();
+        int count = row.limit() / 2;
+        for (int i = 0; i < count; i++) {
+            if (row.get(2 * i + 1) != ABSENT) {
+                destinations.add(graph.getStop(i));
+            }
+        }
+        size = destinations.size();
+        return destinations;
+    }
+
+    @Override
+    public int size() {
+        if (copy != null) {
+            return copy.size();
+        }
+        if (size < 0) {
+            destinations();
+        }
+        return size;
+    }
+
+    /*
+     * Writes the entries of the given storage (of a stop in the given graph)
+     * into the given row, which must be all zero, so that a MappedStorage over
+     * the row holds the same entries. The stop at each graph index is written
+     * in the given column, or left out if its column is -1. Entries whose
+     * destination or next stop is left out are left out too.
+     */
+    static void write(RoutingStorage storage, StopGraph graph, int[] columns,
+                      IntBuffer row) {
+        for (Stop destination : storage.destinations()) {
+            int column = columnOf(destination, graph, columns);
+            Stop next = storage.next(destination);
+            int nextColumn = next == null ? NO_NEXT - OFFSET
+                    : columnOf(next, graph, columns);
+            if (column < 0 || (next != null && nextColumn < 0)) {
+                continue;
+            }
+            row.put(2 * column, storage.cost(destination));
+            row.put(2 * column + 1, nextColumn + OFFSET);
+        }
+    }
+
+    /*
+     * Returns the column the given stop is written in, or -1 if it is left
+     * out (see write).
+     */
+    private static int columnOf(Stop stop, StopGraph graph, int[] columns) {
+        int index = graph.indexOf(stop);
+        return index < 0 ? -1 : columns[index];
+    }
+
+    /*
+     * Returns the position of the cost of the entry for the given destination
+     * in the row, or -1 if the row holds no entry for it.
+     */
+    private int slotOf(Stop destination) {
+        int index = graph.indexOf(destination);
+        if (index < 0 || index >= row.limit() / 2
+                || row.get(2 * index + 1) == ABSENT) {
+            return -1;
+        }
+        return 2 * index;
+    }
+
+    /*
+     * Copies the entries into ordinary storage for the graph, if they have not
+     * been already, and returns that storage.
+     */
+    private RoutingStorage detach() {
+        if (copy == null) {
+            RoutingStorage storage = graph.createStorage();
+            for (Stop destination : destinations()) {
+                storage.put(destination, cost(destination), next(destination));
+            }
+            copy = storage;
+            row = null;
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,431 @@
+package stops;
+
+import routes.Route;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Precomputed routing tables for the stops in a StopGraph which only use the
+ * links travelled by certain kinds of route, e.g. to route passengers on
+ * buses alone while trains are on strike.
+ *
+ * The kinds of route to use are given as a mode mask, made by combining BUS,
+ * TRAIN and FERRY with '|'. A link between two stops belongs to the modes of
+ * every route which has them next to each other; links which are not on any
+ * route (e.g. added directly with Stop.addNeighbouringStop) can be used with
+ * any mask. Each answer is the same as a synchronised routing table would give
+ * if the graph only had the links of the given modes.
+ *
+ * A table is built once for every combination of the modes in use, with one
+ * Dijkstra search per stop. Combinations which allow the same links (e.g.
+ * BUS | FERRY when there are no ferries) share the same tables. The tables
+ * are stored in pages of 256 destinations, and identical pages and rows are
+ * stored once, however many stops or combinations they appear in, so the
+ * parts of the network which look the same in several combinations take no
+ * extra memory. Pages with no reachable destinations are not stored at all.
+ *
+ * The tables only cover the stops, links and routes in the graph when they
+ * were built (see StopGraph.buildModeRouting(int)). Once a neighbour link in
+ * the graph is added or removed, the graph drops them, and isCurrent()
+ * returns false.
+ */
+public class ModeRouting {
+    /** The mode of bus routes. */
+    public static final int BUS = 1;
+    /** The mode of train routes. */
+    public static final int TRAIN = 2;
+    /** The mode of ferry routes. */
+    public static final int FERRY = 4;
+    /** Every mode. */
+    public static final int ALL = BUS | TRAIN | FERRY;
+
+    // marks a link which is not on any route, and so belongs to every mode
+    private static final int ANY = -1;
+    // destinations per page
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    // sources whose tables are computed before their pages are shared
+    private static final int CHUNK = 1024;
+
+    // the graph these tables were built for, and how many stops they cover
+    private StopGraph graph;
+    private int count;
+    // the modes of the routes in the graph
+    private int present;
+    // the tables for each mask (after masking with present), by source stop,
+    // page and destination, packed as (cost, next index + 1), 0 if none
+    private long[][][][] tables;
+    // the distinct pages stored, and the references to them
+    private int pages;
+    private long references;
+
+    /*
+     * Builds the tables for every combination of the modes of the routes in
+     * the given graph, using a ForkJoinPool with the given parallelism.
+     */
+    ModeRouting(StopGraph graph, int parallelism) {
+        this.graph = graph;
+        this.count = graph.size();
+        if (parallelism < 1) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        graph.compact();
+        int[] linkModes = linkModes();
+        int[][] reverse = reverse(linkModes);
+
+        Map<LongBuffer, long[]> sharedPages = new HashMap<>();
+        Map<List<long[]>, long[][]> sharedRows = new HashMap<>();
+        this.tables = new long[ALL + 1][][][];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (int mask = 0; mask <= ALL; mask++) {
+                int modes = mask & present;
+                if (tables[modes] != null) {
+                    tables[mask] = tables[modes];
+                    continue;
+                }
+                long[][][] rows = new long[count][][];
+                for (int from = 0; from < count; from += CHUNK) {
+                    int to = Math.min(count, from + CHUNK);
+                    pool.invoke(new TableTask(this, linkModes, reverse, modes,
+                            rows, from, to));
+                    share(rows, from, to, sharedPages, sharedRows);
+                }
+                tables[mask] = rows;
+            }
+        } finally {
+            pool.shutdown();
+        }
+        this.pages = sharedPages.size();
+        for (long[][][] rows : tables) {
+            for (long[][] row : rows) {
+                for (long[] page : row) {
+                    if (page != null) {
+                        references++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the mode of routes of the given type (as returned by
+     * Route.getType()).
+     * @param type The type of route, e.g. "bus".
+     * @return The route's mode, or 0 if the type is not known.
+     */
+    public static int modeOf(String type) {
+        if ("bus".equals(type)) {
+            return BUS;
+        } else if ("train".equals(type)) {
+            return TRAIN;
+        } else if ("ferry".equals(type)) {
+            return FERRY;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns whether these tables are still the ones held by their graph,
+     * i.e. no neighbour link in the graph has been added or removed since
+     * they were built.
+     * @return True if the tables are up to date.
+     */
+    public boolean isCurrent() {
+        return graph.getModeRouting() == this;
+    }
+
+    /**
+     * Returns the number of distinct pages of entries stored.
+     * @return The number of pages.
+     */
+    public int getPageCount() {
+        return pages;
+    }
+
+    /**
+     * Returns the number of pages the tables for every mask would hold between
+     * them if no pages were shared, i.e. the number of references to stored
+     * pages.
+     * @return The number of page references.
+     */
+    public long getPageReferenceCount() {
+        return references;
+    }
+
+    /**
+     * Returns the cost of the cheapest route from one stop to another, using
+     * only the links of the given modes.
+     * @param from The stop to route from.
+     * @param to The destination.
+     * @param modes The modes which may be used, e.g. BUS | TRAIN.
+     * @return The cost of the cheapest route, or Integer.MAX_VALUE if there is
+     *         none or either stop is not covered by these tables.
+     */
+    public int costTo(Stop from, Stop to, int modes) {
+        long entry = entry(from, to, modes);
+        return entry == 0 ? Integer.MAX_VALUE : (int) (entry >>> 32);
+    }
+
+    /**
+     * Returns the stop a passenger at one stop should be sent to next to reach
+     * another, using only the links of the given modes. As in the routing
+     * tables, a stop sends passengers for itself and its neighbours via
+     * itself.
+     * @param from The stop the passenger is at.
+     * @param to The passenger's destination.
+     * @param modes The modes which may be used, e.g. BUS | TRAIN.
+     * @return The next stop on the cheapest route, or null if there is none
+     *         or either stop is not covered by these tables.
+     */
+    public Stop nextStop(Stop from, Stop to, int modes) {
+        long entry = entry(from, to, modes);
+        return entry == 0 ? null : graph.getStop((int) entry - 1);
+    }
+
+    private long entry(Stop from, Stop to, int modes) {
+        int source = graph.indexOf(from);
+        int destination = graph.indexOf(to);
+        if (source < 0 || destination < 0 || source >= count
+                || destination >= count) {
+            return 0;
+        }
+        long[] page = tables[modes & ALL][source][destination >>> PAGE_BITS];
+        return page == null ? 0 : page[destination & (PAGE_SIZE - 1)];
+    }
+
+    /*
+     * Returns the modes of each link in the graph's compact arrays, by
+     * position, or ANY for links which are not on any route, and records the
+     * modes in use.
+     */
+    private int[] linkModes() {
+        Set<Route> routes = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < count; i++) {
+            routes.addAll(graph.getStop(i).getRoutes());
+        }
+        int end = count == 0 ? 0 : graph.neighbourEnd(count - 1);
+        int[] linkModes = new int[end];
+        Arrays.fill(linkModes, ANY);
+        for (Route route : routes) {
+            int mode = modeOf(route.getType());
+            present |= mode;
+            List<Stop> stops = route.getStopsOnRoute();
+            for (int i = 1; i < stops.size(); i++) {
+                addMode(linkModes, stops.get(i - 1), stops.get(i), mode);
+                addMode(linkModes, stops.get(i), stops.get(i - 1), mode);
+            }
+        }
+        return linkModes;
+    }
+
+    /*
+     * Adds the given mode to the link from one stop to the other, if it is in
+     * the graph.
+     */
+    private void addMode(int[] linkModes, Stop from, Stop to, int mode) {
+        int source = graph.indexOf(from);
+        int target = graph.indexOf(to);
+        if (source < 0 || target < 0 || source >= count || target >= count) {
+            return;
+        }
+        for (int e = graph.neighbourStart(source);
+                e < graph.neighbourEnd(source); e++) {
+            if (graph.neighbourAt(e) == target) {
+                linkModes[e] = (linkModes[e] == ANY ? 0 : linkModes[e]) | mode;
+            }
+        }
+    }
+
+    /*
+     * Returns the graph's links reversed, in the same compact form, with the
+     * modes of each, as {offsets, targets, weights, modes}.
+     */
+    private int[][] reverse(int[] linkModes) {
+        int[] offsets = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            for (int e = graph.neighbourStart(i); e < graph.neighbourEnd(i);
+                    e++) {
+                offsets[graph.neighbourAt(e) + 1]++;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] targets = new int[offsets[count]];
+        int[] weights = new int[offsets[count]];
+        int[] modes = new int[offsets[count]];
+        int[] fill = Arrays.copyOf(offsets, count);
+        for (int i = 0; i < count; i++) {
+            for (int e = graph.neighbourStart(i); e < graph.neighbourEnd(i);
+                    e++) {
+                int position = fill[graph.neighbourAt(e)]++;
+                targets[position] = i;
+                weights[position] = graph.weightAt(e);
+                modes[position] = linkModes[e];
+            }
+        }
+        return new int[][] {offsets, targets, weights, modes};
+    }
+
+    /*
+     * Replaces each page and row of the given range of sources with an
+     * identical one already stored, if there is one.
+     */
+    private void share(long[][][] rows, int from, int to,
+                       Map<LongBuffer, long[]> sharedPages,
+                       Map<List<long[]>, long[][]> sharedRows) {
+        for (int source = from; source < to; source++) {
+            long[][] row = rows[source];
+            for (int p = 0; p < row.length; p++) {
+                if (row[p] != null) {
+                    long[] page = sharedPages.putIfAbsent(
+                            LongBuffer.wrap(row[p]), row[p]);
+                    if (page != null) {
+                        row[p] = page;
+                    }
+                }
+            }
+            // pages are shared by now, so rows can be compared by reference
+            long[][] shared = sharedRows.putIfAbsent(Arrays.asList(row), row);
+            if (shared != null) {
+                rows[source] = shared;
+            }
+        }
+    }
+
+    /*
+     * Returns true if a link with the given modes may be used under the given
+     * mask.
+     */
+    private static boolean allowed(int linkModes, int mask) {
+        return linkModes == ANY || (linkModes & mask) != 0;
+    }
+
+    /*
+     * Computes the table of a single stop, using only the links allowed under
+     * the given mask, with a Dijkstra search over the reversed links as in
+     * RouteEngine.rebuild(StopGraph, int). The cost and first arrays and the
+     * queue are scratch space.
+     */
+    private long[][] row(int[] linkModes, int[][] reverse, int mask,
+                         int source, int[] cost, int[] first,
+                         LabelQueue queue) {
+        Arrays.fill(cost, Integer.MAX_VALUE);
+        Arrays.fill(first, -1);
+        queue.clear();
+        cost[source] = 0;
+        first[source] = source;
+        queue.push(0, source);
+
+        int[] offsets = reverse[0];
+        int[] targets = reverse[1];
+        int[] weights = reverse[2];
+        int[] modes = reverse[3];
+        while (!queue.isEmpty()) {
+            long label = queue.pop();
+            int current = LabelQueue.index(label);
+            int currentCost = LabelQueue.cost(label);
+            if (currentCost > cost[current]) {
+                continue;
+            }
+            for (int e = offsets[current]; e < offsets[current + 1]; e++) {
+                if (!allowed(modes[e], mask)) {
+                    continue;
+                }
+                int next = targets[e];
+                int newCost = currentCost + weights[e];
+                if (newCost >= 0 && newCost < cost[next]) {
+                    cost[next] = newCost;
+                    first[next] = current == source ? next : first[current];
+                    queue.push(newCost, next);
+                }
+            }
+        }
+
+        // a stop's own neighbours are reached via the stop itself
+        for (int e = graph.neighbourStart(source);
+                e < graph.neighbourEnd(source); e++) {
+            int neighbour = graph.neighbourAt(e);
+            if (allowed(linkModes[e], mask)
+                    && graph.weightAt(e) <= cost[neighbour]) {
+                cost[neighbour] = graph.weightAt(e);
+                first[neighbour] = source;
+            }
+        }
+
+        long[][] row = new long[(count + PAGE_SIZE - 1) >>> PAGE_BITS][];
+        for (int i = 0; i < count; i++) {
+            if (first[i] < 0) {
+                continue;
+            }
+            long[] page = row[i >>> PAGE_BITS];
+            if (page == null) {
+                page = new long[PAGE_SIZE];
+                row[i >>> PAGE_BITS] = page;
+            }
+            page[i & (PAGE_SIZE - 1)] = ((long) cost[i] << 32) | (first[i] + 1);
+        }
+        return row;
+    }
+
+    /*
+     * Computes the tables of a range of stops under a mask, splitting the
+     * range in half until it is small enough to do directly.
+     */
+    private static class TableTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // the number of stops below which a range isn't split any further
+        private static final int THRESHOLD = 16;
+
+        private final ModeRouting routing;
+        private final int[] linkModes;
+        private final int[][] reverse;
+        private final int mask;
+        private final long[][][] rows;
+        private final int from;
+        private final int to;
+
+        private TableTask(ModeRouting routing, int[] linkModes,
+                          int[][] reverse, int mask, long[][][] rows, int from,
+                          int to) {
+            this.routing = routing;
+            this.linkModes = linkModes;
+            this.reverse = reverse;
+            this.mask = mask;
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new TableTask(routing, linkModes, reverse, mask,
+                                rows, from, middle),
+                        new TableTask(routing, linkModes, reverse, mask, rows,
+                                middle, to));
+                return;
+            }
+            int count = routing.count;
+            int[] cost = new int[count];
+            int[] first = new int[count];
+            LabelQueue queue = new LabelQueue();
+            for (int source = from; source < to; source++) {
+                rows[source] = routing.row(linkModes, reverse, mask, source,
+                        cost, first, queue);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package stops;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * A* searches between two stops in a StopGraph, guided by the Manhattan
+ * distance to the target. Every link costs the Manhattan distance between its
+ * stops, so the distance left to the target never overestimates the cost of
+ * getting there, and the first path to reach the target is a cheapest one.
+ *
+ * Searches either follow neighbour links forwards (from a stop to its
+ * neighbours), or backwards (from a stop to the stops which have it as a
+ * neighbour), which is the way routing table entries are passed on.
+ *
+ * Stops with the same estimate are taken furthest along first. In grid-like
+ * networks, where many paths are equally cheap, this heads straight for the
+ * target rather than widening out across every equally good path.
+ *
+ * The scratch arrays are kept between searches, and only the slots marked
+ * with the current search's stamp are valid, so a search does not need to
+ * clear them first. A search only ever visits stops in its graph.
+ */
+class PathSearch {
+    // the graph whose stops are searched
+    private StopGraph graph;
+    // the cheapest known cost to each stop, and the stop it was reached from
+    private int[] cost;
+    private int[] parent;
+    // the search in which each slot was last written
+    private int[] stamp;
+    // the current search
+    private int search;
+
+    // a binary min-heap of (estimate, -cost) keys, with the stop of each
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    PathSearch(StopGraph graph) {
+        this.graph = graph;
+        this.cost = new int[0];
+        this.parent = new int[0];
+        this.stamp = new int[0];
+        this.search = 0;
+        this.keys = new long[64];
+        this.values = new int[64];
+        this.size = 0;
+    }
+
+    /*
+     * Finds a cheapest path from the source to the target, following links
+     * backwards if reverse is true, and returns its cost, or
+     * Integer.MAX_VALUE if the target cannot be reached. The path can then be
+     * followed back from the target with parent(int).
+     */
+    int run(Stop source, Stop target, boolean reverse) {
+        int from = graph.indexOf(source);
+        int to = graph.indexOf(target);
+        if (from < 0 || to < 0) {
+            return Integer.MAX_VALUE;
+        }
+        start();
+        visit(from, 0, -1);
+        push(source.distanceTo(target), 0, from);
+
+        while (size > 0) {
+            long key = keys[0];
+            int current = pop();
+            if (current == to) {
+                return cost[to];
+            }
+            int currentCost = cost[current];
+            // skip stops which have since been reached more cheaply
+            if (Integer.MAX_VALUE - (int) key > currentCost) {
+                continue;
+            }
+            Stop stop = graph.getStop(current);
+            List<Stop> links = reverse ? stop.incomingList()
+                    : stop.neighbourList();
+            for (Stop next : links) {
+                int index = graph.indexOf(next);
+                int newCost = currentCost + stop.distanceTo(next);
+                if (index < 0 || newCost < 0) {
+                    continue;
+                }
+                if (stamp[index] != search || newCost < cost[index]) {
+                    visit(index, newCost, current);
+                    int estimate = newCost + next.distanceTo(target);
+                    if (estimate >= 0) {
+                        push(estimate, newCost, index);
+                    }
+                }
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /*
+     * Returns the index of the stop from which the stop with the given index
+     * was reached in the last search, or -1 if it was the source.
+     */
+    int parent(int index) {
+        return parent[index];
+    }
+
+    /*
+     * Returns the cost of reaching the stop with the given index in the last
+     * search. Only valid for stops on the path found.
+     */
+    int cost(int index) {
+        return cost[index];
+    }
+
+    /*
+     * Starts a new search, making room for every stop in the graph.
+     */
+    private void start() {
+        int count = graph.size();
+        if (cost.length < count) {
+            int length = Math.max(count, cost.length * 2);
+            cost = Arrays.copyOf(cost, length);
+            parent = Arrays.copyOf(parent, length);
+            stamp = Arrays.copyOf(stamp, length);
+        }
+        if (++search == 0) {
+            // the stamps have wrapped around, so none of them can be trusted
+            Arrays.fill(stamp, 0);
+            search = 1;
+        }
+        size = 0;
+    }
+
+    private void visit(int index, int newCost, int from) {
+        cost[index] = newCost;
+        parent[index] = from;
+        stamp[index] = search;
+    }
+
+    /*
+     * Adds a stop to the heap, ordered by estimate and then by highest cost.
+     */
+    private void push(int estimate, int newCost, int index) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        long key = ((long) estimate << 32) | (Integer.MAX_VALUE - newCost);
+        int child = size++;
+        while (child > 0) {
+            int up = (child - 1) >>> 1;
+            if (keys[up] <= key) {
+                break;
+            }
+            keys[child] = keys[up];
+            values[child] = values[up];
+            child = up;
+        }
+        keys[child] = key;
+        values[child] = index;
+    }
+
+    /*
+     * Removes the first stop from the heap, and returns its index.
+     */
+    private int pop() {
+        int top = values[0];
+        long lastKey = keys[--size];
+        int lastValue = values[size];
+        int hole = 0;
+        int half = size >>> 1;
+        while (hole < half) {
+            int child = 2 * hole + 1;
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (lastKey <= keys[child]) {
+                break;
+            }
+            keys[hole] = keys[child];
+            values[hole] = values[child];
+            hole = child;
+        }
+        keys[hole] = lastKey;
+        values[hole] = lastValue;
+        return top;
+    }
+}
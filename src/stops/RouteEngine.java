@@ -0,0 +1,581 @@
+package stops;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the cheapest (in Manhattan distance) routes between stops in the
+ * network, and records them in each stop's RoutingTable.
+ *
+ * Rather than repeatedly transferring every entry between neighbouring tables
+ * until nothing changes, the engine runs one priority-queue Dijkstra search per
+ * destination. Every stop's current entry for that destination is used as a
+ * starting label, and each label is pushed along the neighbour links exactly
+ * as RoutingTable.transferEntries(Stop) would, so the tables end up in the same
+ * state as after a full synchronisation.
+ */
+public class RouteEngine {
+
+    /*
+     * A tentative cost to a destination from a stop, waiting in the queue.
+     */
+    private static class Label {
+        private final Stop stop;
+        private final Stop destination;
+        private final int cost;
+
+        private Label(Stop stop, Stop destination, int cost) {
+            this.stop = stop;
+            this.destination = destination;
+            this.cost = cost;
+        }
+    }
+
+    // orders labels so that the cheapest is settled first
+    private static final Comparator<Label> BY_COST =
+            Comparator.comparingInt(label -> label.cost);
+
+    private RouteEngine() {
+    }
+
+    /**
+     * Synchronises the routing tables of every stop reachable from the given
+     * stops, so that each table holds the cheapest known cost (and next stop)
+     * for every destination known anywhere in that part of the network.
+     *
+     * A stop is reachable if it is a neighbour of a reachable stop, or a
+     * destination in the routing table of a reachable stop. Null stops are
+     * ignored.
+     * @param from The stops to start from.
+     */
+    public static void synchronise(Collection<Stop> from) {
+        List<Stop> scope = reachable(from);
+
+        // every destination known by any table in scope
+        Set<Stop> destinations = new LinkedHashSet<>();
+        for (Stop stop : scope) {
+            destinations.addAll(stop.getRoutingTable().destinations());
+        }
+
+        for (Stop destination : destinations) {
+            route(destination, scope);
+        }
+    }
+
+    /**
+     * Synchronises the routing tables of every stop in the given graph, in the
+     * same way as synchronise(Collection), but running each search over the
+     * graph's compact adjacency arrays.
+     *
+     * If any stop in the graph has a neighbour outside of it, the searches
+     * cannot be confined to the graph, so synchronise(Collection) is used
+     * instead.
+     * @param graph The graph whose stops should be synchronised.
+     */
+    public static void synchronise(StopGraph graph) {
+        int count = graph.size();
+        List<Stop> stops = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            stops.add(graph.getStop(i));
+        }
+        if (!graph.isClosed()) {
+            synchronise(stops);
+            return;
+        }
+
+        int[] cost = new int[count];
+        int[] next = new int[count];
+        LabelQueue queue = new LabelQueue();
+        for (int destination = 0; destination < count; destination++) {
+            route(graph, graph.getStop(destination), cost, next, queue);
+        }
+
+        // destinations outside the graph (e.g. added directly to a table)
+        Set<Stop> others = new LinkedHashSet<>();
+        for (Stop stop : stops) {
+            for (Stop destination : stop.getRoutingTable().destinations()) {
+                if (graph.indexOf(destination) < 0) {
+                    others.add(destination);
+                }
+            }
+        }
+        for (Stop destination : others) {
+            route(destination, stops);
+        }
+    }
+
+    /**
+     * Recomputes the routing table of every stop in the given graph from
+     * scratch, using only the neighbour links between the stops in the graph.
+     * Any entries which did not come from those links (e.g. added directly
+     * with RoutingTable.addOrUpdateEntry) are dropped.
+     *
+     * Each table is computed independently, with one single-source Dijkstra
+     * search per stop, by a ForkJoinPool with the given parallelism. The new
+     * tables are only put in place once every search has finished, so if a
+     * search fails, no table is changed.
+     *
+     * The resulting tables are the same as those a full synchronisation of
+     * the graph would produce, starting from just the neighbour entries.
+     *
+     * If any stop in the graph has a neighbour outside of it, the searches
+     * cannot be confined to the graph, so instead every table is reset to
+     * just its neighbour entries and synchronise(Collection) is used, on the
+     * calling thread.
+     * @param graph The graph whose routing tables should be rebuilt.
+     * @param parallelism The number of threads to use. If less than 1, the
+     *                    number of available processors is used.
+     */
+    public static void rebuild(StopGraph graph, int parallelism) {
+        int count = graph.size();
+        if (parallelism < 1) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        if (!graph.isClosed()) {
+            List<Stop> stops = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Stop stop = graph.getStop(i);
+                RoutingStorage table = graph.getBackend().create(graph);
+                table.put(stop, 0, stop);
+                for (Stop neighbour : stop.neighbourList()) {
+                    table.put(neighbour, stop.distanceTo(neighbour), stop);
+                }
+                stop.getRoutingTable().replaceStorage(table);
+                stops.add(stop);
+            }
+            synchronise(stops);
+            return;
+        }
+        // build the compact arrays up front, as the searches share them
+        graph.compact();
+        int[][] reverse = reverse(graph);
+
+        RoutingStorage[] tables = new RoutingStorage[count];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new RebuildTask(graph, reverse, tables, 0, count));
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int i = 0; i < count; i++) {
+            graph.getStop(i).getRoutingTable().replaceStorage(tables[i]);
+        }
+    }
+
+    /*
+     * Computes the routing tables for a range of stops in a graph, splitting
+     * the range in half until it is small enough to do directly.
+     */
+    private static class RebuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // the number of stops below which a range isn't split any further
+        private static final int THRESHOLD = 16;
+
+        private final StopGraph graph;
+        private final int[][] reverse;
+        private final RoutingStorage[] tables;
+        private final int from;
+        private final int to;
+
+        private RebuildTask(StopGraph graph, int[][] reverse,
+                            RoutingStorage[] tables, int from, int to) {
+            this.graph = graph;
+            this.reverse = reverse;
+            this.tables = tables;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RebuildTask(graph, reverse, tables, from, middle),
+                        new RebuildTask(graph, reverse, tables, middle, to));
+                return;
+            }
+            int count = graph.size();
+            int[] cost = new int[count];
+            int[] first = new int[count];
+            LabelQueue queue = new LabelQueue();
+            for (int source = from; source < to; source++) {
+                tables[source] = table(graph, reverse, source, cost, first,
+                        queue);
+            }
+        }
+    }
+
+    /*
+     * Computes the routing table of a single stop with a Dijkstra search over
+     * the reversed links, since a stop learns its routes from the stops which
+     * have it as a neighbour. The cost and first arrays and the queue are
+     * scratch space.
+     */
+    private static RoutingStorage table(StopGraph graph, int[][] reverse,
+                                        int source, int[] cost, int[] first,
+                                        LabelQueue queue) {
+        int count = graph.size();
+        Arrays.fill(cost, Integer.MAX_VALUE);
+        Arrays.fill(first, -1);
+        queue.clear();
+        cost[source] = 0;
+        first[source] = source;
+        queue.push(0, source);
+
+        int[] offsets = reverse[0];
+        int[] targets = reverse[1];
+        int[] weights = reverse[2];
+        while (!queue.isEmpty()) {
+            long label = queue.pop();
+            int current = LabelQueue.index(label);
+            int currentCost = LabelQueue.cost(label);
+            if (currentCost > cost[current]) {
+                continue;
+            }
+            for (int e = offsets[current]; e < offsets[current + 1]; e++) {
+                int next = targets[e];
+                int newCost = currentCost + weights[e];
+                if (newCost >= 0 && newCost < cost[next]) {
+                    cost[next] = newCost;
+                    // the stop passengers go to first, on the way to next
+                    first[next] = current == source ? next : first[current];
+                    queue.push(newCost, next);
+                }
+            }
+        }
+
+        // a stop's own neighbours are entries in its table, with the stop
+        // itself as the next stop (as in RoutingTable.addNeighbour)
+        int end = graph.neighbourEnd(source);
+        for (int e = graph.neighbourStart(source); e < end; e++) {
+            int neighbour = graph.neighbourAt(e);
+            if (graph.weightAt(e) <= cost[neighbour]) {
+                cost[neighbour] = graph.weightAt(e);
+                first[neighbour] = source;
+            }
+        }
+
+        RoutingStorage table = graph.getBackend().create(graph);
+        for (int i = 0; i < count; i++) {
+            if (first[i] >= 0) {
+                table.put(graph.getStop(i), cost[i], graph.getStop(first[i]));
+            }
+        }
+        return table;
+    }
+
+    /*
+     * Returns the graph's links reversed, in the same compact form, as
+     * {offsets, targets, weights}.
+     */
+    private static int[][] reverse(StopGraph graph) {
+        int count = graph.size();
+        int[] offsets = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            for (int e = graph.neighbourStart(i); e < graph.neighbourEnd(i);
+                 e++) {
+                offsets[graph.neighbourAt(e) + 1]++;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] targets = new int[offsets[count]];
+        int[] weights = new int[offsets[count]];
+        int[] fill = Arrays.copyOf(offsets, count);
+        for (int i = 0; i < count; i++) {
+            for (int e = graph.neighbourStart(i); e < graph.neighbourEnd(i);
+                 e++) {
+                int position = fill[graph.neighbourAt(e)]++;
+                targets[position] = i;
+                weights[position] = graph.weightAt(e);
+            }
+        }
+        return new int[][] {offsets, targets, weights};
+    }
+
+    /*
+     * Runs a single Dijkstra search towards the given destination over the
+     * compact graph, seeded with the entries the graph's stops already hold
+     * for it. The cost and next arrays are scratch space, one slot per stop.
+     */
+    private static void route(StopGraph graph, Stop destination, int[] cost,
+                              int[] next, LabelQueue queue) {
+        int count = graph.size();
+        queue.clear();
+        for (int i = 0; i < count; i++) {
+            cost[i] = graph.getStop(i).getRoutingTable().costTo(destination);
+            next[i] = -1;
+            if (cost[i] != Integer.MAX_VALUE) {
+                queue.push(cost[i], i);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            long label = queue.pop();
+            int current = LabelQueue.index(label);
+            int currentCost = LabelQueue.cost(label);
+            // skip labels which have since been improved upon
+            if (currentCost > cost[current]) {
+                continue;
+            }
+            int end = graph.neighbourEnd(current);
+            for (int e = graph.neighbourStart(current); e < end; e++) {
+                int neighbour = graph.neighbourAt(e);
+                int newCost = currentCost + graph.weightAt(e);
+                if (newCost >= 0 && newCost < cost[neighbour]) {
+                    cost[neighbour] = newCost;
+                    next[neighbour] = current;
+                    queue.push(newCost, neighbour);
+                }
+            }
+        }
+
+        // only the entries which improved need to be written back
+        for (int i = 0; i < count; i++) {
+            if (next[i] >= 0) {
+                graph.getStop(i).getRoutingTable().addOrUpdateEntry(
+                        destination, cost[i], graph.getStop(next[i]));
+            }
+        }
+    }
+
+    /*
+     * Runs a single Dijkstra search towards the given destination, seeded with
+     * the entries that the stops in scope already hold for it.
+     */
+    private static void route(Stop destination, List<Stop> scope) {
+        PriorityQueue<Label> queue = new PriorityQueue<>(BY_COST);
+        for (Stop stop : scope) {
+            int cost = stop.getRoutingTable().costTo(destination);
+            if (cost != Integer.MAX_VALUE) {
+                queue.add(new Label(stop, destination, cost));
+            }
+        }
+
+        relax(queue);
+    }
+
+    /**
+     * Updates the routing tables of the network after a link has been added
+     * from one stop to a neighbouring stop, assuming that the tables were
+     * synchronised before the link was added.
+     *
+     * The from stop's table gains (or improves) its entry for the neighbour,
+     * and the neighbour's table may now route through the from stop to any of
+     * the from stop's destinations. Only entries whose cost goes down are
+     * changed, and only those changes are passed on to further neighbours, so
+     * the rest of the network is left untouched.
+     * @param from The stop the link starts from.
+     * @param neighbour The stop which has been added as a neighbour of from.
+     */
+    public static void addLink(Stop from, Stop neighbour) {
+        PriorityQueue<Label> queue = new PriorityQueue<>(BY_COST);
+        RoutingTable fromTable = from.getRoutingTable();
+        int distance = from.distanceTo(neighbour);
+
+        if (fromTable.addOrUpdateEntry(neighbour, distance, from)) {
+            queue.add(new Label(from, neighbour, distance));
+        }
+        if (from != neighbour) {
+            RoutingTable neighbourTable = neighbour.getRoutingTable();
+            for (Stop destination : fromTable.destinations()) {
+                int cost = fromTable.costTo(destination);
+                if (cost == Integer.MAX_VALUE || cost + distance < 0) {
+                    continue;
+                }
+                if (neighbourTable.addOrUpdateEntry(destination,
+                        cost + distance, from)) {
+                    queue.add(new Label(neighbour, destination,
+                            cost + distance));
+                }
+            }
+        }
+        relax(queue);
+    }
+
+    /**
+     * Repairs the routing tables of the network after the link from one stop
+     * to a neighbouring stop has been removed, assuming that the tables were
+     * synchronised before the link was removed.
+     *
+     * The entries which may have been routed over the link are the from
+     * stop's entry for the neighbour (if it went directly to the neighbour),
+     * the neighbour's entries whose next stop is the from stop, and every
+     * entry whose next stop holds one of those entries for the same
+     * destination. These are checked cheapest first: an entry which can be
+     * routed through another stop at the same cost just has its next stop
+     * changed, and everything routed through it is left alone. The remaining
+     * entries are removed and recomputed with a Dijkstra search, seeded from
+     * the links into their stops which remain. Entries for destinations which
+     * can no longer be reached are left out.
+     * @param from The stop the link started from.
+     * @param neighbour The stop which is no longer a neighbour of from.
+     */
+    public static void removeLink(Stop from, Stop neighbour) {
+        if (from == neighbour) {
+            return;
+        }
+        // the invalid destinations, by the stop whose table holds them
+        Map<Stop, Set<Stop>> invalid = new IdentityHashMap<>();
+        PriorityQueue<Label> pending = new PriorityQueue<>(BY_COST);
+
+        RoutingTable fromTable = from.getRoutingTable();
+        if (fromTable.nextStop(neighbour) == from) {
+            pending.add(new Label(from, neighbour, fromTable.costTo(neighbour)));
+        }
+        RoutingTable neighbourTable = neighbour.getRoutingTable();
+        for (Stop destination : neighbourTable.destinations()) {
+            if (destination != neighbour
+                    && neighbourTable.nextStop(destination) == from) {
+                pending.add(new Label(neighbour, destination,
+                        neighbourTable.costTo(destination)));
+            }
+        }
+
+        while (!pending.isEmpty()) {
+            Label label = pending.poll();
+            Stop stop = label.stop;
+            Stop destination = label.destination;
+            Set<Stop> destinations = invalid.computeIfAbsent(stop,
+                    key -> Collections.newSetFromMap(new IdentityHashMap<>()));
+            if (destinations.contains(destination)) {
+                continue;
+            }
+            Stop other = equalLink(stop, destination, label.cost, invalid);
+            if (other != null) {
+                // still just as cheap, so nothing routed through it changes
+                RoutingTable table = stop.getRoutingTable();
+                table.removeEntry(destination);
+                table.addOrUpdateEntry(destination, label.cost, other);
+                continue;
+            }
+            destinations.add(destination);
+            // entries routed through an invalid entry may be invalid as well
+            for (Stop next : stop.neighbourList()) {
+                RoutingTable nextTable = next.getRoutingTable();
+                if (next != stop && next != destination
+                        && nextTable.nextStop(destination) == stop) {
+                    pending.add(new Label(next, destination,
+                            nextTable.costTo(destination)));
+                }
+            }
+        }
+
+        for (Map.Entry<Stop, Set<Stop>> entry : invalid.entrySet()) {
+            RoutingTable table = entry.getKey().getRoutingTable();
+            for (Stop destination : entry.getValue()) {
+                table.removeEntry(destination);
+            }
+        }
+
+        // recompute each one from the links into its stop which remain
+        PriorityQueue<Label> queue = new PriorityQueue<>(BY_COST);
+        for (Map.Entry<Stop, Set<Stop>> entry : invalid.entrySet()) {
+            Stop stop = entry.getKey();
+            for (Stop destination : entry.getValue()) {
+                Label label = cheapestLink(stop, destination);
+                if (label != null && stop.getRoutingTable().addOrUpdateEntry(
+                        destination, label.cost, label.stop)) {
+                    queue.add(new Label(stop, destination, label.cost));
+                }
+            }
+        }
+        relax(queue);
+    }
+
+    /*
+     * Returns a next stop through which the given stop can still reach the
+     * given destination at exactly the given cost, or null if there is none.
+     *
+     * Only links with a positive distance are considered, so the entry routed
+     * through is always cheaper than the given cost, and has therefore already
+     * been checked (and found valid) by removeLink.
+     */
+    private static Stop equalLink(Stop stop, Stop destination, int cost,
+                                  Map<Stop, Set<Stop>> invalid) {
+        for (Stop neighbour : stop.neighbourList()) {
+            if (neighbour == destination
+                    && stop.distanceTo(destination) == cost) {
+                return stop;
+            }
+        }
+        for (Stop previous : stop.incomingList()) {
+            int distance = previous.distanceTo(stop);
+            if (distance <= 0 || previous.getRoutingTable().costTo(destination)
+                    != cost - distance) {
+                continue;
+            }
+            Set<Stop> destinations = invalid.get(previous);
+            if (destinations == null || !destinations.contains(destination)) {
+                return previous;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Returns the cheapest way for the given stop to reach the given
+     * destination over a single link, as a label holding the next stop and the
+     * cost, or null if there is none. A link to the destination itself wins
+     * ties, as in RoutingTable.addNeighbour(Stop).
+     */
+    private static Label cheapestLink(Stop stop, Stop destination) {
+        Label best = null;
+        for (Stop neighbour : stop.neighbourList()) {
+            if (neighbour == destination) {
+                best = new Label(stop, destination,
+                        stop.distanceTo(destination));
+                break;
+            }
+        }
+        for (Stop previous : stop.incomingList()) {
+            int cost = previous.getRoutingTable().costTo(destination);
+            if (cost == Integer.MAX_VALUE) {
+                continue;
+            }
+            cost += previous.distanceTo(stop);
+            if (cost >= 0 && (best == null || cost < best.cost)) {
+                best = new Label(previous, destination, cost);
+            }
+        }
+        return best;
+    }
+
+    /*
+     * Settles the labels in the queue cheapest first, passing each one on to
+     * the neighbours of its stop whenever that lowers their cost.
+     */
+    private static void relax(PriorityQueue<Label> queue) {
+        while (!queue.isEmpty()) {
+            Label label = queue.poll();
+            Stop current = label.stop;
+            Stop destination = label.destination;
+            // skip labels which have since been improved upon
+            if (label.cost > current.getRoutingTable().costTo(destination)) {
+                continue;
+            }
+            for (Stop neighbour : current.neighbourList()) {
+                int cost = label.cost + current.distanceTo(neighbour);
+                if (cost >= 0 && neighbour.getRoutingTable().addOrUpdateEntry(
+                        destination, cost, current)) {
+                    queue.add(new Label(neighbour, destination, cost));
+                }
+            }
+        }
+    }
+
+    /*
+     * Returns every stop reachable from the given stops (including the given
+     * stops themselves), following both neighbour links and routing table
+     * destinations.
+     */
+    private static List<Stop> reachable(Collection<Stop> from) {
+        List<Stop> found = new ArrayList<>();
+        StopTraversal.forEachReachable(from, true, found::add);
+        return found;
+    }
+}
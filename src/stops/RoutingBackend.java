@@ -0,0 +1,46 @@
+package stops;
+
+/**
+ * The ways in which a RoutingTable can store its entries.
+ *
+ * The backend is chosen when a network is created, and applies to the routing
+ * table of every stop added to that network.
+ *
+ * HASH_MAP tells destinations apart by Stop.equals, so a stop and an equal
+ * copy of it share a single entry. ARRAYS and OFF_HEAP tell them apart by
+ * identity, as the network's graph does, so the two have separate entries.
+ * Either way, RoutingTable.getCosts() returns a map keyed by Stop.equals.
+ */
+public enum RoutingBackend {
+    /**
+     * A map from destination stops to RoutingEntry objects. Works for any
+     * stop, but costs a map node and an entry object per destination.
+     */
+    HASH_MAP,
+
+    /**
+     * Primitive int arrays on the heap, holding the cost and the index of the
+     * next stop for each destination (8 bytes per destination).
+     */
+    ARRAYS,
+
+    /**
+     * The same layout as ARRAYS, but held in direct byte buffers outside of
+     * the Java heap, sliced out of larger buffers shared between tables.
+     */
+    OFF_HEAP;
+
+    /*
+     * Creates empty storage of this kind for a stop in the given graph.
+     */
+    RoutingStorage create(StopGraph graph) {
+        switch (this) {
+            case ARRAYS:
+                return new IndexedStorage(graph, false);
+            case OFF_HEAP:
+                return new IndexedStorage(graph, true);
+            default:
+                return new MapStorage();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package stops;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Defers routing table synchronisation for a group of stops.
+ *
+ * While a stop is part of an open batch, adding a neighbour to it only records
+ * the neighbour in its routing table, and the usual network-wide
+ * synchronisation is skipped. When the batch is committed, every table in the
+ * batch is synchronised once, in a single pass.
+ *
+ * This is intended for bulk loads (e.g. reading a network from a file), where
+ * synchronising after every single neighbour is added would repeat almost all
+ * of the same work many times over.
+ */
+public class RoutingBatch {
+    // the stops whose synchronisation has been deferred
+    private List<Stop> stops;
+    // whether the batch has been committed
+    private boolean committed;
+    // the graph indexing the stops in the batch, or null if there is none
+    private StopGraph graph;
+
+    /**
+     * Creates a new, empty batch.
+     */
+    public RoutingBatch() {
+        this.stops = new ArrayList<>();
+        this.committed = false;
+        this.graph = null;
+    }
+
+    /**
+     * Creates a new, empty batch for stops in the given graph.
+     *
+     * When the batch is committed, the whole graph is synchronised over its
+     * compact adjacency arrays.
+     * @param graph The graph indexing the stops which will be in the batch.
+     */
+    public RoutingBatch(StopGraph graph) {
+        this();
+        this.graph = graph;
+    }
+
+    /**
+     * Adds the given stop to this batch, deferring synchronisation of its
+     * routing table until the batch is committed.
+     *
+     * If the given stop is null, or the batch has already been committed, the
+     * stop should not be added.
+     * @param stop The stop to add to the batch.
+     */
+    public void add(Stop stop) {
+        if (stop == null || committed) {
+            return;
+        }
+        stop.getRoutingTable().setDeferred(true);
+        stops.add(stop);
+    }
+
+    /**
+     * Ends this batch, and synchronises the routing tables of all the stops in
+     * it with the rest of the network. If routing in the batch's graph is
+     * lazy, there is nothing to synchronise.
+     *
+     * Committing a batch more than once has no further effect.
+     */
+    public void commit() {
+        if (committed) {
+            return;
+        }
+        committed = true;
+        for (Stop stop : stops) {
+            stop.getRoutingTable().setDeferred(false);
+        }
+        if (graph == null) {
+            RouteEngine.synchronise(stops);
+        } else if (graph.getRoutingCache() == null) {
+            // lazy routing finds routes when they are asked for instead
+            RouteEngine.synchronise(graph);
+        }
+        stops = new ArrayList<>();
+    }
+
+    /**
+     * Ends this batch without synchronising any routing tables, for when the
+     * tables of the stops in it are already up to date (e.g. they have been
+     * loaded from a snapshot). Linking stops in the batch synchronises their
+     * tables as usual from then on.
+     *
+     * Closing a batch which has been committed or closed has no effect.
+     */
+    public void close() {
+        if (committed) {
+            return;
+        }
+        committed = true;
+        for (Stop stop : stops) {
+            stop.getRoutingTable().setDeferred(false);
+        }
+        stops = new ArrayList<>();
+    }
+}
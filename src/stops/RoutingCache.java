@@ -0,0 +1,359 @@
+package stops;
+
+import java.util.Arrays;
+
+/**
+ * A size-bounded cache of routes between the stops in a StopGraph, used when
+ * the graph's routing is lazy (see StopGraph.setLazyRouting(int)).
+ *
+ * Instead of every routing table holding an entry for every reachable stop,
+ * the route from a stop to a destination is found the first time it is asked
+ * for, with an A* search guided by Manhattan distance, and kept here. Once the
+ * cache is full, a route which has not been used recently is evicted to make
+ * room. The whole cache is cleared whenever a neighbour link in the graph is
+ * added or removed, as any route could have changed.
+ *
+ * The routes are kept in an open-addressed hash table of primitive arrays, so
+ * nothing is boxed, and evicted with the clock algorithm: each route is marked
+ * when it is used, and a hand sweeping around the table evicts the first route
+ * it finds unmarked, unmarking the others as it passes them. This evicts
+ * roughly the least recently used route, without keeping them in order.
+ *
+ * If the graph has an up-to-date ContractionHierarchy (see
+ * StopGraph.buildHierarchy()), routes which are not cached are found with it
+ * instead.
+ *
+ * The routes found cost the same as those a synchronised routing table would
+ * hold for the graph's neighbour links.
+ */
+public class RoutingCache {
+    // marks that there is no route, as it is not a valid packed route, and
+    // an empty slot, as it is not a valid key
+    private static final long NONE = -1L;
+    // the most stops along a path found whose routes are cached along with it
+    private static final int PATH_ROUTES = 32;
+
+    // the graph whose routes are cached
+    private StopGraph graph;
+    // the most routes held at once
+    private int capacity;
+    // the (stop, destination) key in each slot of the table, or NONE
+    private long[] keys;
+    // the route in each slot, packed as (cost, next)
+    private long[] routes;
+    // whether the route in each slot has been used since the hand passed it
+    private boolean[] marked;
+    // the number of routes held
+    private int size;
+    // the slot the clock hand is at
+    private int hand;
+    private PathSearch search;
+    // the stops along the last path found, from the destination back
+    private int[] path;
+
+    // lookups answered from the cache, or with a new search
+    private long hits;
+    private long misses;
+    // routes dropped to make room for newer ones
+    private long evictions;
+
+    /*
+     * Creates an empty cache for routes in the given graph, holding at most
+     * the given number of routes.
+     */
+    RoutingCache(StopGraph graph, int capacity) {
+        this.graph = graph;
+        this.capacity = capacity;
+        this.keys = new long[16];
+        this.routes = new long[16];
+        this.marked = new boolean[16];
+        Arrays.fill(this.keys, NONE);
+        this.size = 0;
+        this.hand = 0;
+        this.search = new PathSearch(graph);
+        this.path = new int[16];
+    }
+
+    /**
+     * Returns the most routes this cache holds at once.
+     * @return The capacity of the cache.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of routes currently in this cache.
+     * @return The number of cached routes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of lookups which were answered from this cache.
+     * @return The number of cache hits.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups which needed a new search.
+     * @return The number of cache misses.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of routes which have been dropped from this cache to
+     * make room for newer ones.
+     * @return The number of evictions.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Removes every route from this cache. The hit, miss and eviction counts
+     * are kept.
+     */
+    public void clear() {
+        Arrays.fill(keys, NONE);
+        Arrays.fill(marked, false);
+        size = 0;
+        hand = 0;
+    }
+
+    /*
+     * Returns true if routes to the given destination from stops in the graph
+     * are looked up in this cache.
+     */
+    boolean covers(Stop destination) {
+        return graph.indexOf(destination) >= 0;
+    }
+
+    /*
+     * Returns the cost of the cheapest route from the given stop to the given
+     * destination, or Integer.MAX_VALUE if there is none.
+     */
+    int cost(Stop stop, Stop destination) {
+        return (int) (route(stop, destination) >>> 32);
+    }
+
+    /*
+     * Returns the next stop on the cheapest route from the given stop to the
+     * given destination, or null if there is none.
+     */
+    Stop next(Stop stop, Stop destination) {
+        int next = (int) route(stop, destination);
+        return next < 0 ? null : graph.getStop(next);
+    }
+
+    /*
+     * Returns the route from the given stop (which must be in the graph) to
+     * the given destination, packed as (cost, next index), finding and caching
+     * it if it isn't cached already.
+     */
+    private long route(Stop stop, Stop destination) {
+        int slot = slot(key(stop.getIndex(), destination.getIndex()));
+        if (keys[slot] != NONE) {
+            hits++;
+            marked[slot] = true;
+            return routes[slot];
+        }
+        misses++;
+        return find(stop, destination);
+    }
+
+    /*
+     * Finds and caches the route from the given stop to the given destination,
+     * with the same cost as a synchronised routing table would hold.
+     *
+     * Every stop on the path found is on its own cheapest route to the
+     * destination, and is where a passenger on that path will ask next, so the
+     * routes from the first few of those stops are cached as well. Only a
+     * quarter of the cache (and at most PATH_ROUTES) is given over to them, so
+     * that a long path doesn't push every other route out.
+     */
+    private long find(Stop stop, Stop destination) {
+        int from = stop.getIndex();
+        int to = destination.getIndex();
+        long direct = direct(stop, destination);
+        if (direct != NONE) {
+            put(key(from, to), direct, true);
+            return direct;
+        }
+
+        ContractionHierarchy hierarchy = graph.getHierarchy();
+        if (hierarchy != null) {
+            long route = hierarchy.route(stop, destination);
+            put(key(from, to), route, true);
+            return route;
+        }
+
+        // entries are passed on backwards along links, so search that way
+        int cost = search.run(stop, destination, true);
+        if (cost == Integer.MAX_VALUE) {
+            long none = pack(Integer.MAX_VALUE, -1);
+            put(key(from, to), none, true);
+            return none;
+        }
+        // walk back from the destination; each stop's next stop is the one
+        // walked through just before it
+        int length = 0;
+        for (int current = search.parent(to); current != from;
+             current = search.parent(current)) {
+            if (length == path.length) {
+                path = Arrays.copyOf(path, length * 2);
+            }
+            path[length++] = current;
+        }
+        long found = pack(cost, length == 0 ? to : path[length - 1]);
+        put(key(from, to), found, true);
+        // then cache the routes from the stops nearest the start
+        int cached = Math.min(length, Math.min(PATH_ROUTES, capacity / 4));
+        for (int i = length - 1; i >= length - cached; i--) {
+            int current = path[i];
+            long route = direct(graph.getStop(current), destination);
+            if (route == NONE) {
+                route = pack(cost - search.cost(current),
+                        i == 0 ? to : path[i - 1]);
+            }
+            put(key(current, to), route, false);
+        }
+        return found;
+    }
+
+    /*
+     * Caches the given route under the given key, evicting a route first if
+     * the cache is full. A route cached along the way is left unmarked, so it
+     * is among the first to go unless it is used.
+     */
+    private void put(long key, long route, boolean used) {
+        int slot = slot(key);
+        if (keys[slot] == NONE) {
+            if (size >= capacity) {
+                evict();
+                slot = slot(key);
+            }
+            keys[slot] = key;
+            marked[slot] = false;
+            size++;
+        }
+        routes[slot] = route;
+        marked[slot] |= used;
+        if (size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    /*
+     * Moves the clock hand around the table to the first unmarked route,
+     * unmarking each marked route it passes, and evicts it.
+     */
+    private void evict() {
+        int mask = keys.length - 1;
+        while (keys[hand] == NONE || marked[hand]) {
+            marked[hand] = false;
+            hand = (hand + 1) & mask;
+        }
+        remove(hand);
+        evictions++;
+    }
+
+    /*
+     * Empties the given slot, moving later routes in the same run back into
+     * it where their own slot comes before it, so that no lookup is cut short
+     * by the gap.
+     */
+    private void remove(int slot) {
+        int mask = keys.length - 1;
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != NONE) {
+            int home = home(keys[next]);
+            // moved back if its home is not between the gap and where it is
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                routes[gap] = routes[next];
+                marked[gap] = marked[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = NONE;
+        marked[gap] = false;
+        size--;
+    }
+
+    /*
+     * Returns the slot holding the given key, or the empty slot it would be
+     * put in if it is not in the table.
+     */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int slot = home(key);
+        while (keys[slot] != NONE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /*
+     * Returns the slot the given key hashes to.
+     */
+    private int home(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & (keys.length - 1);
+    }
+
+    /*
+     * Doubles the size of the table, keeping every route and its mark.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldRoutes = routes;
+        boolean[] oldMarked = marked;
+        keys = new long[oldKeys.length * 2];
+        routes = new long[oldRoutes.length * 2];
+        marked = new boolean[oldMarked.length * 2];
+        Arrays.fill(keys, NONE);
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != NONE) {
+                int newSlot = slot(oldKeys[slot]);
+                keys[newSlot] = oldKeys[slot];
+                routes[newSlot] = oldRoutes[slot];
+                marked[newSlot] = oldMarked[slot];
+            }
+        }
+        hand = 0;
+    }
+
+    /*
+     * Returns the route from the given stop to the given destination if the
+     * destination is the stop itself or one of its neighbours, or NONE
+     * otherwise. A neighbour is never further away than its distance, and the
+     * link to it wins ties, as in RoutingTable.addNeighbour(Stop).
+     */
+    private static long direct(Stop stop, Stop destination) {
+        if (stop == destination) {
+            return pack(0, stop.getIndex());
+        }
+        for (Stop neighbour : stop.neighbourList()) {
+            if (neighbour == destination) {
+                return pack(stop.distanceTo(destination), stop.getIndex());
+            }
+        }
+        return NONE;
+    }
+
+    private static long key(int stop, int destination) {
+        return ((long) stop << 32) | destination;
+    }
+
+    static long pack(int cost, int next) {
+        return ((long) cost << 32) | (next & 0xFFFFFFFFL);
+    }
+}
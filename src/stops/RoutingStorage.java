@@ -0,0 +1,52 @@
+package stops;
+
+import java.util.Collection;
+
+/*
+ * Holds the entries of a single RoutingTable: for each destination, the cost
+ * of reaching it and the next stop to go to.
+ *
+ * An entry may be present with a null next stop and a cost of
+ * Integer.MAX_VALUE, which is how RoutingEntry represents a destination with
+ * no known path.
+ */
+interface RoutingStorage {
+
+    /*
+     * Returns true if there is an entry for the given destination.
+     */
+    boolean contains(Stop destination);
+
+    /*
+     * Returns the cost of the entry for the given destination, or
+     * Integer.MAX_VALUE if there is no entry for it.
+     */
+    int cost(Stop destination);
+
+    /*
+     * Returns the next stop of the entry for the given destination, or null if
+     * there is no entry for it.
+     */
+    Stop next(Stop destination);
+
+    /*
+     * Adds or replaces the entry for the given destination.
+     */
+    void put(Stop destination, int cost, Stop next);
+
+    /*
+     * Removes the entry for the given destination, if there is one.
+     */
+    void remove(Stop destination);
+
+    /*
+     * Returns the destinations which have entries. The returned collection
+     * must not be modified, and may or may not reflect later changes.
+     */
+    Collection<Stop> destinations();
+
+    /*
+     * Returns the number of entries.
+     */
+    int size();
+}
@@ -8,12 +8,22 @@ import java.util.*;
  * The table is able to redirect passengers from their current stop to the
  * next intermediate stop which they should go to in order to reach their final
  * stopRoutingTable.
+ *
+ * By default the entries are held in a map of RoutingEntry objects. Tables of
+ * stops in a network created with another RoutingBackend hold them in that
+ * backend instead.
+ *
+ * If routing in the stop's network is lazy (see StopGraph.setLazyRouting(int)),
+ * the table only holds its stop and neighbours, and routes to other stops in
+ * the network are found on demand and kept in the network's RoutingCache.
  */
 public class RoutingTable {
     //initial stop of this table
     private Stop initialStop;
     //the table that handles destination and their entries
-    private Map<Stop, RoutingEntry> stopRoutingTable = new HashMap<>();
+    private RoutingStorage stopRoutingTable = new MapStorage();
+    //whether synchronisation is being held back by a RoutingBatch
+    private boolean deferred = false;
 
     /**
      * Creates a new RoutingTable for the given stop.
@@ -23,8 +33,7 @@ public class RoutingTable {
      * @param initialStop The stop for which this table will handle routing.
      */
     public RoutingTable(Stop initialStop){
-        this.stopRoutingTable.put(initialStop, new RoutingEntry(initialStop,
-                0));
+        this.stopRoutingTable.put(initialStop, 0, initialStop);
         this.initialStop = initialStop;
     }
 
@@ -40,24 +49,67 @@ public class RoutingTable {
      * The 'intermediate'/'next' stop between this table's stop and the new
      * neighbour stop should simply be the neighbour stop itself.
      *
+     * If the neighbour is already a destination, but the direct link is
+     * cheaper than the route to it, the entry is updated to the direct link,
+     * so the tables stay as a full synchronisation would leave them (which
+     * removeNeighbour(Stop) relies on).
+     *
      * Once the new neighbour has been added as an entry, this table should be
      * synchronised with the rest of the network using the synchronise() method.
+     * If this table's stop is part of an open RoutingBatch, the
+     * synchronisation is left for the batch to do when it is committed.
+     *
+     * If this table's stop is in a network with incremental routing turned on
+     * (see StopGraph.setIncremental(boolean)), the rest of the network is
+     * assumed to be synchronised already, and only the entries which the new
+     * neighbour makes cheaper are updated (see RouteEngine.addLink). If its
+     * routing is lazy, the table is never synchronised.
      * @param neighbour The stop to be added as a neighbour.
      */
     public void addNeighbour(Stop neighbour){
-        //cheking if this table contains the given neighbour
-        if (!(this.stopRoutingTable.containsKey(neighbour))) {
-            //now it's not there, we add it and synchronise the table
-            if (this.addOrUpdateEntry(neighbour,
-                    this.getStop().distanceTo(neighbour),
-                    this.getStop())) {
-                this.synchronise();
-            }
-            //If there the neighbour exist, we just update it based on its cost
-        } else if ((this.addOrUpdateEntry(neighbour,
-                this.costTo(neighbour), neighbour))) {
+        if (this.isIncremental()) {
+            RouteEngine.addLink(this.getStop(), neighbour);
+            return;
+        }
+        //add the neighbour, or update it if the direct link is cheaper than
+        //the route it is reached by, and synchronise the table if it changed
+        if (this.addOrUpdateEntry(neighbour,
+                this.getStop().distanceTo(neighbour),
+                this.getStop()) && !this.deferred && !this.isLazy()) {
+            this.synchronise();
+        }
+    }
+
+    /**
+     * Removes the given stop as a neighbour of the stop stored in this table,
+     * after the link between them has been removed (see
+     * Stop.removeNeighbouringStop(Stop)).
+     *
+     * Entries only ever get cheaper through addOrUpdateEntry(Stop, int, Stop),
+     * so instead the entries which were routed over the removed link are
+     * found, in this table and in the tables of the rest of the network, by
+     * following their next stops. Only those entries are recomputed from the
+     * remaining links (see RouteEngine.removeLink), and any destination which
+     * can no longer be reached is removed from the table. This relies on the
+     * tables being as a full synchronisation would leave them, which both
+     * addNeighbour(Stop) and incremental routing keep them.
+     *
+     * If this is not the routing table of its own stop, the rest of the
+     * network is not routed through it, and if its routing is lazy, the rest
+     * of the network holds no entries to repair. In either case only its
+     * entry for the neighbour (if it goes directly to the neighbour) is
+     * removed.
+     * @param neighbour The stop to be removed as a neighbour.
+     */
+    public void removeNeighbour(Stop neighbour) {
+        if (neighbour == null || neighbour == this.getStop()) {
             return;
         }
+        if (this.getStop().getRoutingTable() == this && !this.isLazy()) {
+            RouteEngine.removeLink(this.getStop(), neighbour);
+        } else if (this.nextStop(neighbour) == this.getStop()) {
+            this.removeEntry(neighbour);
+        }
     }
 
     /**
@@ -82,31 +134,37 @@ public class RoutingTable {
     public boolean addOrUpdateEntry(Stop destination, int newCost,
                                     Stop intermediate) {
         //checking if the destination is there, otherwise we add it to the tab..
-        if (this.stopRoutingTable.containsKey(destination)) {
-            if (newCost >= this.costTo(destination)) {
-                return false;
-            }
-            //replace the old value with the new one.
-            return (this.stopRoutingTable.replace(destination,
-                     this.stopRoutingTable.get(destination),new
-                    RoutingEntry(intermediate, newCost)));
+        if (this.stopRoutingTable.contains(destination)
+                && newCost >= this.costTo(destination)) {
+            return false;
+        }
+        //add or replace the entry, with the same defaults as a RoutingEntry
+        if (intermediate == null || newCost < 0) {
+            this.stopRoutingTable.put(destination, Integer.MAX_VALUE, null);
+        } else {
+            this.stopRoutingTable.put(destination, newCost, intermediate);
         }
-        this.stopRoutingTable.put(destination,new RoutingEntry(intermediate,
-                newCost));
         return true;
     }
 
     /**
      * Returns the cost associated with getting to the given stop.
+     *
+     * If routing is lazy, the cost of a route to any stop in the network is
+     * found (or taken from the network's RoutingCache) instead.
      * @param stop The stop to get the cost.
      * @return The cost to the given stop, or Integer.MAX_VALUE if the stop is
      * not currently in this routing table.
      */
     public int costTo(Stop stop) {
-        if (stopRoutingTable.containsKey(stop)) {
-            return this.stopRoutingTable.get(stop).getCost();
+        RoutingCache cache = this.lazyCache(stop);
+        if (cache != null) {
+            int cost = cache.cost(this.getStop(), stop);
+            if (cost != Integer.MAX_VALUE) {
+                return cost;
+            }
         }
-        return Integer.MAX_VALUE;
+        return this.stopRoutingTable.cost(stop);
     }
 
     /**
@@ -117,10 +175,10 @@ public class RoutingTable {
      */
     public Map<Stop, Integer> getCosts() {
         Map<Stop,Integer> stopCost = new HashMap<>();
-        for (Stop stop: stopRoutingTable.keySet()) {
-            stopCost.put(stop, this.costTo(stop));
+        for (Stop stop: stopRoutingTable.destinations()) {
+            stopCost.put(stop, this.stopRoutingTable.cost(stop));
         }
-        return new HashMap<>(stopCost);
+        return stopCost;
     }
 
     /**
@@ -131,19 +189,119 @@ public class RoutingTable {
         return this.initialStop;
     }
 
+    /*
+     * Returns true if neighbours added to this table should be routed
+     * incrementally, rather than by synchronising the whole network.
+     */
+    private boolean isIncremental() {
+        Stop stop = this.getStop();
+        return !this.deferred && stop != null && stop.getGraph() != null
+                && stop.getGraph().isIncremental()
+                && stop.getGraph().getRoutingCache() == null
+                && stop.getRoutingTable() == this;
+    }
+
+    /*
+     * Returns true if this table's routes are found on demand rather than
+     * held in the table.
+     */
+    private boolean isLazy() {
+        Stop stop = this.getStop();
+        return stop != null && stop.getGraph() != null
+                && stop.getGraph().getRoutingCache() != null;
+    }
+
+    /*
+     * Returns the cache to look up the route to the given destination in, or
+     * null if it should be looked up in this table.
+     */
+    private RoutingCache lazyCache(Stop destination) {
+        Stop stop = this.getStop();
+        if (stop == null || stop.getGraph() == null
+                || stop.getRoutingTable() != this) {
+            return null;
+        }
+        RoutingCache cache = stop.getGraph().getRoutingCache();
+        return cache != null && cache.covers(destination) ? cache : null;
+    }
+
+    /*
+     * Sets whether this table should hold back synchronisation when a
+     * neighbour is added, for use by RoutingBatch.
+     */
+    void setDeferred(boolean deferred) {
+        this.deferred = deferred;
+    }
+
+    /*
+     * Returns the destinations currently in this table, for use by the
+     * RouteEngine. The returned collection must not be modified.
+     */
+    Collection<Stop> destinations() {
+        return this.stopRoutingTable.destinations();
+    }
+
+    /*
+     * Removes the entry for the given destination, if there is one, for use
+     * by the RouteEngine when repairing routes.
+     */
+    void removeEntry(Stop destination) {
+        this.stopRoutingTable.remove(destination);
+    }
+
+    /*
+     * Moves this table's entries into the given storage, which is used from
+     * then on.
+     */
+    void setStorage(RoutingStorage storage) {
+        for (Stop destination : this.stopRoutingTable.destinations()) {
+            storage.put(destination, this.stopRoutingTable.cost(destination),
+                    this.stopRoutingTable.next(destination));
+        }
+        this.stopRoutingTable = storage;
+    }
+
+    /*
+     * Returns the storage holding this table's entries. It must not be
+     * modified.
+     */
+    RoutingStorage getStorage() {
+        return this.stopRoutingTable;
+    }
+
+    /*
+     * Replaces all of this table's entries with those in the given storage,
+     * which is used from then on.
+     */
+    void replaceStorage(RoutingStorage storage) {
+        this.stopRoutingTable = storage;
+    }
+
     /**
      * Returns the next intermediate stop which passengers should be routed to
      * in order to reach the given destination. If the given stop is null or not
      * in the table, then return null
+     *
+     * If routing is lazy, the route to any stop in the network is found (or
+     * taken from the network's RoutingCache) instead.
      * @param destination The destination which the passengers are being routed.
      * @return The best stop to route the passengers to in order to reach the
      * given destination.
      */
     public Stop nextStop(Stop destination) {
-        if (destination != null && getCosts().containsKey(destination)) {
-            return this.stopRoutingTable.get(destination).getNext();
+        //looked up directly in the table, without copying it, as this is
+        //called for every passenger arriving at a stop
+        if (destination == null) {
+            return null;
+        }
+        RoutingCache cache = this.lazyCache(destination);
+        if (cache != null) {
+            Stop next = cache.next(this.getStop(), destination);
+            if (next != null) {
+                return next;
+            }
         }
-        return null;
+        return this.stopRoutingTable.next(destination);
     }
 
     /**
@@ -161,32 +319,15 @@ public class RoutingTable {
      *
      * This process is designed to handle changes which need to be propagated
      * throughout the entire network, which could take more than one iteration.
+     *
+     * The tables are brought to that same final state by the RouteEngine,
+     * which settles each destination with a single Dijkstra search instead of
+     * repeating the transfers.
      */
     public void synchronise() {
-        //two boolean variables which control the iteration.
-        boolean valid = false;
-        boolean isValid;
-
-        // a new integer tester, to keep track of synchronization
-        int validTest = 0;
-        do {
-            for (Stop stopHere: this.traverseNetwork()){
-                for (Stop stop: stopHere.getNeighbours()) {
-                    isValid = stopHere.getRoutingTable().transferEntries(stop);
-                    if (isValid) {
-                        validTest += 1;
-                        valid = true;
-                    }
-                }
-            }
-            //check if no change occured. If so, the synchronization is
-            // completed.
-            if(validTest == 0){
-                valid = false;
-            }
-            //we reset the tester at every loop
-            validTest = 0;
-        } while (valid);
+        // the engine settles each destination once, rather than sweeping the
+        // network until no table changes
+        RouteEngine.synchronise(this.stopRoutingTable.destinations());
     }
 
     /**
@@ -219,7 +360,7 @@ public class RoutingTable {
         if (this.getStop().getNeighbours().contains(other)) {
             boolean isValid;
             //iterate over this table's stops
-            for (Stop stop : this.stopRoutingTable.keySet()) {
+            for (Stop stop : this.stopRoutingTable.destinations()) {
                 int fare = this.costTo(stop) + this.getStop().distanceTo(
                         other);
                 isValid = other.getRoutingTable().addOrUpdateEntry(
@@ -237,31 +378,21 @@ public class RoutingTable {
     /**
      * Performs a traversal of all the stops in the network, and returns a
      * list of every stop which is reachable from the stop stored in this table.
-     * Firstly create an empty list of Stops and an empty Stack of Stops.
-     * Push the RoutingTable's Stop on to the stack.
-     * While the stack is not empty,
-     * pop the top Stop (current) from the stack.
-     * For each of that stop's neighbours,
-     * if they are not in the list, add them to the stack.
-     * Then add the current Stop to the list.
-     * Return the list of seen stops.
+     *
+     * The traversal starts from this table's stop and from every destination
+     * already in this table (as those are known to be reachable), and follows
+     * the links between neighbouring stops breadth-first, visiting each stop
+     * once (see StopTraversal).
      * @return All of the stops in the network which are reachable by the stop
      * stored in this table.
      */
     public List<Stop> traverseNetwork() {
-        Stack<Stop> stopStack = new Stack<>();
-        List<Stop> stops = new ArrayList<>();
-        stopStack.push(getStop());
+        List<Stop> starts = new ArrayList<>(this.stopRoutingTable.size() + 1);
+        starts.add(getStop());
+        starts.addAll(this.stopRoutingTable.destinations());
 
-        while(!stopStack.isEmpty()){
-            stopStack.pop();
-            for(Stop stop: this.getCosts().keySet()){
-                if(!stops.contains(stop)){
-                    stopStack.push(stop);
-                }
-                stops.add(stop);
-            }
-        }
-        return new ArrayList<>(stops);
+        List<Stop> stops = new ArrayList<>();
+        StopTraversal.forEachReachable(starts, stops::add);
+        return stops;
     }
 }
@@ -3,7 +3,9 @@ package stops;
 import exceptions.NoNameException;
 import exceptions.TransportFormatException;
 import passengers.Passenger;
+import passengers.PassengerCounts;
 import routes.Route;
+import utilities.Tokenizer;
 import utilities.Writeable;
 import vehicles.PublicTransport;
 
@@ -18,19 +20,28 @@ import java.util.*;
 public class Stop implements Writeable {
     // the name of the stop
     private String name;
-    // the passengers currently waiting at the stop
-    private List<Passenger> passengers;
+    // the passengers currently waiting at the stop, queued by next stop
+    private WaitingPassengers passengers;
+    // the passengers waiting at the stop counted by destination index, and
+    // the number of counted passengers who have reached this stop
+    private PassengerCounts flows;
+    private long arrivedFlows;
     // the routes which this stop is located on
     private List<Route> routes;
     // the vehicles currently at this stop
     private Set<PublicTransport> atStop;
     // the stops directly adjacent to this stop along routes
     private List<Stop> neighbours;
+    // the stops which have this stop as a neighbour
+    private List<Stop> incoming;
     // the x and y coordinates of this stop
     private int xCoordinate;
     private int yCoordinate;
     //the routingTable on this stop
     private RoutingTable routeTable;
+    //the graph which indexes this stop (if any), and its index in that graph
+    private StopGraph graph;
+    private int index;
 
 
     /**
@@ -55,11 +66,16 @@ public class Stop implements Writeable {
         this.yCoordinate = y;
 
         this.neighbours = new ArrayList<>();
-        this.passengers = new ArrayList<>();
+        this.incoming = new ArrayList<>();
+        this.passengers = new WaitingPassengers();
+        this.flows = new PassengerCounts();
+        this.arrivedFlows = 0;
         this.routes = new ArrayList<>();
         this.atStop = new HashSet<>();
 
         this.routeTable = new RoutingTable(this);
+        this.graph = null;
+        this.index = -1;
     }
 
     /**
@@ -89,6 +105,32 @@ public class Stop implements Writeable {
         return yCoordinate;
     }
 
+    /**
+     * Returns the dense index given to this stop by the network it was added
+     * to (see {@link StopGraph}).
+     *
+     * @return The index of the stop, or -1 if it has not been added to a
+     *          network.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /*
+     * Returns the graph which indexes this stop, or null if there is none.
+     */
+    StopGraph getGraph() {
+        return graph;
+    }
+
+    /*
+     * Records the graph which indexes this stop, and its index in that graph.
+     */
+    void attach(StopGraph graph, int index) {
+        this.graph = graph;
+        this.index = index;
+    }
+
     /**
      * Records that this stop is part of the given route.
      *
@@ -103,6 +145,22 @@ public class Stop implements Writeable {
         routes.add(route);
     }
 
+    /**
+     * Records that this stop is no longer part of the given route.
+     *
+     * If the route was added to this stop more than once, every occurrence is
+     * removed. If the given route is null, or this stop is not on it, nothing
+     * happens.
+     *
+     * @param route The route to be removed.
+     */
+    public void removeRoute(Route route) {
+        if (route == null) {
+            return;
+        }
+        routes.removeIf(existing -> existing == route);
+    }
+
     /**
      * Returns the routes associated with this stop.
      *
@@ -134,9 +192,56 @@ public class Stop implements Writeable {
             return;
         }
         this.neighbours.add(neighbour);
+        neighbour.incoming.add(this);
+        if (graph != null) {
+            graph.invalidate();
+        }
         this.getRoutingTable().addNeighbour(neighbour);
     }
 
+    /**
+     * Stops recording the given stop as being a neighbour of this stop, and
+     * removes it as a neighbour from the routing table
+     * (RoutingTable.removeNeighbour(Stop)), so that passengers are no longer
+     * routed along the link between them.
+     *
+     * Only the link from this stop to the given stop is removed. If the given
+     * stop is null, or is not a neighbour of this stop, nothing happens.
+     * @param neighbour The stop to remove as a neighbour.
+     */
+    public void removeNeighbouringStop(Stop neighbour) {
+        if (neighbour == null) {
+            return;
+        }
+        int position = this.neighbours.indexOf(neighbour);
+        if (position < 0) {
+            return;
+        }
+        Stop removed = this.neighbours.remove(position);
+        removeIdentical(removed.incoming, this);
+        if (graph != null) {
+            graph.invalidate();
+        }
+        this.getRoutingTable().removeNeighbour(removed);
+    }
+
+    /**
+     * Removes every link between this stop and any other stop, in both
+     * directions: from this stop to each of its neighbours, and from each stop
+     * which has this stop as a neighbour to this stop.
+     *
+     * Once disconnected, no passengers are routed to or through this stop.
+     * The stop's routes are left as they are (see Route.removeStop(Stop)).
+     */
+    public void disconnect() {
+        for (Stop neighbour : new ArrayList<>(this.neighbours)) {
+            this.removeNeighbouringStop(neighbour);
+        }
+        for (Stop other : new ArrayList<>(this.incoming)) {
+            other.removeNeighbouringStop(this);
+        }
+    }
+
     /**
      * Returns all of the stops adjacent to this one on any routes.
      *
@@ -152,6 +257,35 @@ public class Stop implements Writeable {
         return new ArrayList<>(neighbours);
     }
 
+    /*
+     * Returns the neighbours of this stop without copying them, for use when
+     * routing. The returned list must not be modified.
+     */
+    List<Stop> neighbourList() {
+        return neighbours;
+    }
+
+    /*
+     * Returns the stops which have this stop as a neighbour, without copying
+     * them. The returned list must not be modified.
+     */
+    List<Stop> incomingList() {
+        return incoming;
+    }
+
+    /*
+     * Removes the first occurrence of exactly the given stop (rather than one
+     * equal to it) from the given list.
+     */
+    private static void removeIdentical(List<Stop> stops, Stop stop) {
+        for (int i = 0; i < stops.size(); i++) {
+            if (stops.get(i) == stop) {
+                stops.remove(i);
+                return;
+            }
+        }
+    }
+
     /**
      * Places a passenger at this stop.
      * If the given passenger is null, it should not be added to the stop.
@@ -163,6 +297,14 @@ public class Stop implements Writeable {
      * the passenger's desired final destination see
      * (RoutingTable.nextStop(Stop)). The stop should keep a record of where
      * each passenger waiting at it should be routed to next.
+     *
+     * The passenger joins the back of the queue for the stop they are routed
+     * to next, which vehicles departing for that stop board from (see
+     * transportDepart(PublicTransport, Stop)). The queue is chosen once, as
+     * they arrive: if their destination is changed while they wait (with
+     * Passenger.setDestination(Stop)), they still only board a vehicle
+     * departing for the stop they were routed to, and not one departing for
+     * their new destination.
      * @param passenger The passenger to add to the stop.
      */
     public void addPassenger(Passenger passenger) {
@@ -170,19 +312,113 @@ public class Stop implements Writeable {
             return;
         }
         if(passenger.getDestination() != null){
-            //finding passenger's destination from neighbouring stops
-            for(Stop stop: this.getNeighbours()){
-                if(stop.equals(passenger.getDestination())){
-                    //we find the passenger's new destination
-                    passenger.setDestination(this.routeTable.nextStop(
-                            stop));
-                    break;
-                }
+            route(passenger, nextStopTowards(passenger.getDestination()));
+        }
+        this.passengers.add(passenger, passenger.getDestination());
+    }
+
+    /*
+     * Returns the stop a passenger headed for the given destination should be
+     * routed to next, if the destination is one of this stop's neighbours, or
+     * null if it is not (and the passenger keeps their destination).
+     */
+    private Stop nextStopTowards(Stop destination) {
+        //finding passenger's destination from neighbouring stops
+        for (Stop stop : this.neighbours) {
+            if (stop.equals(destination)) {
+                return this.routeTable.nextStop(stop);
             }
-            this.passengers.add(passenger);
+        }
+        return null;
+    }
+
+    /*
+     * Gives the given passenger their new destination, found by
+     * nextStopTowards(Stop), if they have one.
+     */
+    private static void route(Passenger passenger, Stop nextStop) {
+        if (nextStop != null) {
+            passenger.setDestination(nextStop);
+        }
+    }
+
+    /**
+     * Places the given number of passengers headed for the stop with the given
+     * index (see {@link #getIndex()}) at this stop, as a count rather than as
+     * {@link Passenger} objects.
+     *
+     * <p>Counted passengers are not routed when they arrive. Instead, they
+     * keep their final destination, and board any vehicle departing for the
+     * next stop towards it (see
+     * {@link #transportDepart(PublicTransport, Stop)}). Passengers headed for
+     * this stop itself have already arrived, and are only added to
+     * {@link #getArrivedFlowCount()}.
+     *
+     * <p>If the count is not positive, or the index is negative, nothing
+     * happens. Destinations are looked up in the network this stop has been
+     * added to, so counted passengers at a stop which is not in a network, or
+     * headed for an index which is not in it, never board.
+     *
+     * @param destination The index of the stop the passengers are headed for.
+     * @param count The number of passengers to add to the stop.
+     * @throws ArithmeticException If the number of counted passengers waiting
+     *                             at this stop would overflow an int, in
+     *                             which case none are added.
+     */
+    public void addFlow(int destination, int count) {
+        if (destination < 0 || count <= 0) {
+            return;
+        }
+        if (destination == index) {
+            arrivedFlows += count;
             return;
         }
-        this.passengers.add(passenger);
+        flows.add(destination, count);
+    }
+
+    /**
+     * Returns the number of counted passengers (see {@link #addFlow(int, int)})
+     * waiting at this stop who are headed for the stop with the given index.
+     *
+     * @param destination The index of the stop.
+     * @return The number of counted passengers waiting to go there.
+     */
+    public int getWaitingFlow(int destination) {
+        return flows.get(destination);
+    }
+
+    /**
+     * Returns the number of counted passengers (see {@link #addFlow(int, int)})
+     * waiting at this stop, whatever their destination.
+     *
+     * @return The number of counted passengers waiting.
+     */
+    public int getWaitingFlowCount() {
+        return flows.total();
+    }
+
+    /**
+     * Returns the number of counted passengers (see {@link #addFlow(int, int)})
+     * who have reached this stop as their final destination, either by
+     * arriving on a vehicle or by being added here.
+     *
+     * @return The number of counted passengers who have arrived.
+     */
+    public long getArrivedFlowCount() {
+        return arrivedFlows;
+    }
+
+    /*
+     * Checks whether counted passengers waiting here for the stop with the
+     * given index should board a vehicle departing for the given next stop.
+     */
+    private boolean isRoutedVia(int destination, Stop nextStop) {
+        if (graph == null || destination >= graph.size()) {
+            return false;
+        }
+        // compared by identity, as Stop.equals compares the stops' routes
+        Stop stop = graph.getStop(destination);
+        return stop == nextStop || this.routeTable.nextStop(stop) == nextStop;
     }
 
     /**
@@ -206,7 +442,7 @@ public class Stop implements Writeable {
      */
     public List<Passenger> getWaitingPassengers() {
 
-        return new ArrayList<>(passengers);
+        return passengers.toList();
     }
 
     /**
@@ -247,19 +483,60 @@ public class Stop implements Writeable {
      * {@link PublicTransport#unload()}), and place them at this stop, as well
      * as recording the vehicle itself at this stop.
      *
+     * <p>The passengers are placed as if by {@link #addPassenger(Passenger)},
+     * in the order they are unloaded, but each distinct destination among them
+     * is only routed once, however many passengers are headed for it, and
+     * they are then queued together.
+     *
+     * <p>Any passengers on the vehicle who are only counted by destination are
+     * unloaded as well (using {@link PublicTransport#unloadFlows()}). Those
+     * headed for this stop have arrived, and the rest wait here, as if added
+     * by {@link #addFlow(int, int)}.
+     *
      * <p>This method does not need to check whether this stop is on the given
      * transport's route, or whether the transport's route is a route of this
      * stop, and should also not update the location of the transport.
      *
      * @param transport The public transport vehicle arriving at this stop.
+     * @throws ArithmeticException If the number of counted passengers waiting
+     *                             at this stop would overflow an int, in
+     *                             which case neither the stop nor the vehicle
+     *                             is changed.
      */
     public void transportArrive(PublicTransport transport) {
         if (transport == null || isAtStop(transport)) {
             return;
         }
+        // checked before anything is unloaded, so that an overflow leaves
+        // every passenger where they were
+        int staying = transport.getFlowCount()
+                - (index >= 0 ? transport.getFlow(index) : 0);
+        Math.addExact(flows.total(), staying);
+
         List<Passenger> arriving = transport.unload();
+        // the next stop towards each destination, or null if there is none
+        Map<Stop, Stop> nextStops = new HashMap<>();
         for (Passenger passenger : arriving) {
-            addPassenger(passenger);
+            Stop destination = passenger == null ? null
+                    : passenger.getDestination();
+            if (destination == null) {
+                continue;
+            }
+            Stop nextStop = nextStops.get(destination);
+            if (nextStop == null && !nextStops.containsKey(destination)) {
+                nextStop = nextStopTowards(destination);
+                nextStops.put(destination, nextStop);
+            }
+            route(passenger, nextStop);
+        }
+        this.passengers.addAll(arriving);
+
+        PassengerCounts counted = transport.unloadFlows();
+        if (!counted.isEmpty()) {
+            if (index >= 0) {
+                arrivedFlows += counted.take(index, counted.get(index));
+            }
+            this.flows.addAll(counted);
         }
 
         atStop.add(transport);
@@ -282,6 +559,15 @@ public class Stop implements Writeable {
      * arrived at the stop. If the transport vehicle reaches its capacity whilst
      * there are still passengers waiting, the remaining passengers should just
      * be left at the stop to wait for the next vehicle.
+     *
+     * Only the queue of passengers routed to the next stop is looked at (see
+     * addPassenger(Passenger)), so a departure costs as much as the number of
+     * passengers boarding, however many others are waiting.
+     *
+     * Once those passengers have boarded, any room left on the vehicle is
+     * taken by the counted passengers waiting here (see addFlow(int, int))
+     * whose next stop towards their destination is the vehicle's next stop,
+     * in ascending order of destination index.
      * @param transport The transport currently leaving this stop.
      * @param nextStop The next stop the transport it travelling towards.
      */
@@ -291,21 +577,20 @@ public class Stop implements Writeable {
             return;
         }
 
-        int capacity = transport.getCapacity();
-        int count = 0;
-        for (Passenger person : this.getWaitingPassengers()) {
-            if (person.getDestination().equals(nextStop)) {
-                //make sure that the number of passenger does not exceed the
-                //capacity of the vehicle.
-                 if (count < capacity) {
-                    try {
-                        transport.addPassenger(person);
-                        this.passengers.remove(person);
-                    } catch (Exception e) {
-
-                    }
-                    //we keep track of the current number of passenger on board
-                    count++;
+        //make sure that the number of passenger does not exceed the
+        //capacity of the vehicle, leaving everyone else waiting
+        int room = transport.getCapacity() - transport.passengerCount();
+        int boarded = transport.board(this.passengers.peek(nextStop, room),
+                room);
+        this.passengers.poll(nextStop, boarded);
+        if (!this.flows.isEmpty()) {
+            for (int destination : this.flows.destinations()) {
+                if (transport.passengerCount() >= transport.getCapacity()) {
+                    break;
+                }
+                if (isRoutedVia(destination, nextStop)) {
+                    this.flows.take(destination, transport.boardFlow(
+                            destination, this.flows.get(destination)));
                 }
             }
         }
@@ -353,6 +638,10 @@ public class Stop implements Writeable {
      */
     @Override
     public boolean equals(Object other) {
+        // the same stop is always equal to itself, so skip comparing routes
+        if (this == other) {
+            return true;
+        }
         if (!(other instanceof Stop)) {
             return false;
         }
@@ -370,7 +659,8 @@ public class Stop implements Writeable {
      */
     @Override
     public int hashCode() {
-        return this.name.hashCode();
+        return 31 * (31 * this.name.hashCode() + this.xCoordinate)
+                + this.yCoordinate;
     }
 
     /**
@@ -435,21 +725,19 @@ public class Stop implements Writeable {
             throws TransportFormatException {
         Stop stop;
         try {
-            String[] parts = stopString.split(":");
-            // check for extra delimiters.
-            int count = stopString.length() -
-                    stopString.replace(":", "").length();
+            // split and count the delimiters in one pass
+            String[] parts = Tokenizer.split(stopString, ':');
 
-            // there should be 3 parts
+            // there should be 3 parts, and no extra delimiters
             final int NUM_PARTS = 3;
-            if ((count + 1 != parts.length) || (parts.length != NUM_PARTS)){
+            if (!Tokenizer.isExact(parts) || (parts.length != NUM_PARTS)){
                 throw new TransportFormatException();
             }
 
             // get the components
             String name = parts[0];
-            int x = Integer.parseInt(parts[1].trim());
-            int y = Integer.parseInt(parts[2].trim());
+            int x = Tokenizer.parseInt(parts[1]);
+            int y = Tokenizer.parseInt(parts[2]);
 
             stop = new Stop(name, x, y);
         } catch (NumberFormatException | ArrayIndexOutOfBoundsException |
@@ -0,0 +1,498 @@
+package stops;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compact, index-based view of the stops in a network and the links between
+ * them.
+ *
+ * Each stop added to the graph is given a dense integer index (0, 1, 2, ...)
+ * in the order in which it was added, available from Stop.getIndex(). The
+ * neighbour links are stored in compressed sparse row form: the neighbours of
+ * the stop with index i are the targets at positions neighbourStart(i)
+ * (inclusive) to neighbourEnd(i) (exclusive), each with the Manhattan distance
+ * to that neighbour as its weight. Routing and traversal can run over these
+ * arrays without boxing, hashing or copying neighbour lists.
+ *
+ * The compact arrays are rebuilt lazily, the next time they are needed after a
+ * stop or neighbour link has been added. Links to stops which are not in this
+ * graph are left out.
+ *
+ * Every stop added to the graph has its routing table moved into the graph's
+ * RoutingBackend.
+ */
+public class StopGraph {
+    // the stops in this graph, by index
+    private List<Stop> stops;
+
+    // compressed adjacency: offsets into targets/weights for each stop
+    private int[] offsets;
+    private int[] targets;
+    private int[] weights;
+
+    // whether the compact arrays are out of date
+    private boolean dirty;
+
+    // how the routing tables of the stops in this graph store their entries
+    private RoutingBackend backend;
+
+    // whether new neighbour links are routed incrementally
+    private boolean incremental;
+
+    // the routes found on demand when routing is lazy, or null if it isn't
+    private RoutingCache cache;
+
+    // scratch space for findPath, created when first needed
+    private PathSearch search;
+
+    // the hierarchy built over the current links, or null if there isn't one
+    private ContractionHierarchy hierarchy;
+
+    // the per-mode tables built over the current links, or null
+    private ModeRouting modeRouting;
+
+    /**
+     * Creates a new graph with no stops, whose routing tables use the default
+     * (HASH_MAP) backend.
+     */
+    public StopGraph() {
+        this(RoutingBackend.HASH_MAP);
+    }
+
+    /**
+     * Creates a new graph with no stops, whose routing tables use the given
+     * backend.
+     * @param backend How the routing tables of stops in this graph should
+     *                store their entries. If null, HASH_MAP is used.
+     */
+    public StopGraph(RoutingBackend backend) {
+        this.backend = backend == null ? RoutingBackend.HASH_MAP : backend;
+        this.stops = new ArrayList<>();
+        this.offsets = new int[] {0};
+        this.targets = new int[0];
+        this.weights = new int[0];
+        this.dirty = false;
+        this.incremental = false;
+        this.cache = null;
+        this.search = null;
+        this.hierarchy = null;
+        this.modeRouting = null;
+    }
+
+    /**
+     * Adds the given stop to this graph, and gives it the next free index.
+     *
+     * If the stop is already in this graph, its existing index is returned.
+     * A stop can only be indexed by one graph, as it holds its own index (see
+     * Stop.getIndex()), so a stop which another graph indexes cannot be
+     * added.
+     * @param stop The stop to add. Must not be null.
+     * @return The index of the stop in this graph.
+     * @throws IllegalArgumentException If the stop is indexed by another
+     *         graph.
+     */
+    public int add(Stop stop) {
+        if (stop.getGraph() == this) {
+            return stop.getIndex();
+        }
+        if (stop.getGraph() != null) {
+            throw new IllegalArgumentException();
+        }
+        int index = stops.size();
+        stops.add(stop);
+        stop.attach(this, index);
+        stop.getRoutingTable().setStorage(createStorage());
+        dirty = true;
+        return index;
+    }
+
+    /**
+     * Returns the backend used by the routing tables of stops in this graph.
+     * @return The routing backend.
+     */
+    public RoutingBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Sets whether neighbour links added between stops in this graph should be
+     * routed incrementally.
+     *
+     * When turned on, adding a neighbour only updates the routing table
+     * entries whose cost the new link lowers, instead of synchronising the
+     * whole network. This relies on the tables already being synchronised, so
+     * it should only be turned on once the network's routing is complete (e.g.
+     * after a batch has been committed).
+     * @param incremental True to route new links incrementally.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Returns whether neighbour links added between stops in this graph are
+     * routed incrementally.
+     * @return True if new links are routed incrementally.
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Sets whether the routing tables of stops in this graph should find their
+     * routes lazily, and if so, how many routes to keep.
+     *
+     * With lazy routing, each routing table only holds entries for its own
+     * stop and its neighbours. A route to any other stop in the graph is found
+     * the first time RoutingTable.costTo(Stop) or RoutingTable.nextStop(Stop)
+     * asks for it, and kept in a RoutingCache shared by the whole graph, which
+     * holds at most the given number of routes. Adding neighbour links no
+     * longer synchronises any tables.
+     *
+     * Turning lazy routing on drops every other entry from the tables of the
+     * stops already in the graph (including entries added directly with
+     * RoutingTable.addOrUpdateEntry). As the tables are so small, they are
+     * held in maps whatever the graph's backend. Turning it off leaves the tables with
+     * just those entries, so they should then be rebuilt (see
+     * RouteEngine.rebuild(StopGraph, int)).
+     * @param capacity The most routes to cache, or 0 (or less) to turn lazy
+     *                 routing off.
+     */
+    public void setLazyRouting(int capacity) {
+        if (capacity <= 0) {
+            cache = null;
+            return;
+        }
+        cache = new RoutingCache(this, capacity);
+        for (Stop stop : stops) {
+            RoutingStorage storage = createStorage();
+            storage.put(stop, 0, stop);
+            for (Stop neighbour : stop.neighbourList()) {
+                if (!storage.contains(neighbour)) {
+                    storage.put(neighbour, stop.distanceTo(neighbour), stop);
+                }
+            }
+            stop.getRoutingTable().replaceStorage(storage);
+        }
+    }
+
+    /**
+     * Returns the cache of routes used when routing in this graph is lazy.
+     * @return The routing cache, or null if routing is not lazy.
+     */
+    public RoutingCache getRoutingCache() {
+        return cache;
+    }
+
+    /**
+     * Builds a contraction hierarchy over the stops and neighbour links
+     * currently in this graph, which can then answer routing queries without
+     * any routing tables (see ContractionHierarchy).
+     *
+     * Building takes far less time and memory than synchronising every
+     * routing table, and a query only searches a small part of the graph. The
+     * graph keeps the hierarchy until a neighbour link is added or removed,
+     * and while it does, lazy routing (see setLazyRouting(int)) finds routes
+     * which are not cached with it instead of searching the graph.
+     * @return The new hierarchy.
+     */
+    public ContractionHierarchy buildHierarchy() {
+        hierarchy = new ContractionHierarchy(this);
+        return hierarchy;
+    }
+
+    /**
+     * Returns the contraction hierarchy built over this graph's current links.
+     * @return The hierarchy, or null if none has been built since the last
+     *         time a neighbour link was added or removed.
+     */
+    public ContractionHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    /**
+     * Builds routing tables over the stops and neighbour links currently in
+     * this graph for every combination of route modes (see ModeRouting), so
+     * that passengers can be routed on some kinds of route only.
+     *
+     * One table is computed per stop for each combination of the modes in
+     * use, by a ForkJoinPool with the given parallelism, and identical parts
+     * of the tables are shared. The graph keeps the tables until a neighbour
+     * link is added or removed.
+     * @param parallelism The number of threads to use. If less than 1, the
+     *                    number of available processors is used.
+     * @return The new tables.
+     */
+    public ModeRouting buildModeRouting(int parallelism) {
+        modeRouting = new ModeRouting(this, parallelism);
+        return modeRouting;
+    }
+
+    /**
+     * Returns the per-mode routing tables built over this graph's current
+     * links.
+     * @return The tables, or null if none have been built since the last time
+     *         a neighbour link was added or removed.
+     */
+    public ModeRouting getModeRouting() {
+        return modeRouting;
+    }
+
+    /**
+     * Writes the routing table of each of the given stops, in order, to the
+     * given channel, so that they can be read back in place by
+     * mapRouting(int, IntBuffer).
+     *
+     * Each table is written as a row of 2 * stops.size() big-endian ints,
+     * holding a pair for each of the given stops in turn: the cost of reaching
+     * it, and the position in the list of the next stop on the way there,
+     * plus two. Stops with no entry are written as a pair of zeroes, and a
+     * missing next stop as a one. Entries for stops which are not in the list
+     * are left out, so the rows are only complete if the routing tables are
+     * synchronised, and route nowhere outside the given stops.
+     * @param stops The stops whose tables should be written, all of which
+     *              must be in this graph.
+     * @param channel The channel to write to.
+     * @throws IOException If the rows cannot be written to the channel.
+     * @throws IllegalArgumentException If any of the stops is not in this
+     *         graph.
+     */
+    public void writeRouting(List<Stop> stops, WritableByteChannel channel)
+            throws IOException {
+        int[] columns = new int[size()];
+        Arrays.fill(columns, -1);
+        for (int column = 0; column < stops.size(); column++) {
+            int index = indexOf(stops.get(column));
+            if (index < 0) {
+                throw new IllegalArgumentException();
+            }
+            columns[index] = column;
+        }
+
+        ByteBuffer bytes = ByteBuffer.allocate(stops.size() * 2
+                * Integer.BYTES);
+        IntBuffer row = bytes.asIntBuffer();
+        for (Stop stop : stops) {
+            Arrays.fill(bytes.array(), (byte) 0);
+            MappedStorage.write(stop.getRoutingTable().getStorage(), this,
+                    columns, row);
+            bytes.clear();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Replaces the routing table entries of the stop with the given index with
+     * those in the given row, as written by writeRouting(List,
+     * WritableByteChannel) for a list of stops in the same order as the stops
+     * in this graph.
+     *
+     * The row is read in place rather than copied, so it can be a region of a
+     * memory-mapped file, which is only read as entries are looked up. It is
+     * never written to: the first change to the table's entries (e.g. a new
+     * neighbour link) copies them into the graph's backend.
+     * @param index The index of the stop whose table should be replaced.
+     * @param row The row holding the table's entries, from its position to
+     *            its limit.
+     * @throws IndexOutOfBoundsException If no stop has the given index.
+     */
+    public void mapRouting(int index, IntBuffer row) {
+        stops.get(index).getRoutingTable().replaceStorage(
+                new MappedStorage(this, row.slice()));
+    }
+
+    /**
+     * Finds a cheapest journey from one stop in this graph to another, along
+     * neighbour links, without using any routing tables.
+     *
+     * The search is an A* search guided by the Manhattan distance to the
+     * destination, which never overestimates the cost of the rest of the
+     * journey, as every link costs the Manhattan distance between its stops.
+     * Its scratch space is kept between calls, so a query only allocates the
+     * journey it returns. As with the rest of the graph, queries must not run
+     * on several threads at once.
+     * @param from The stop to start from.
+     * @param to The stop to end at.
+     * @return A cheapest journey from the first stop to the second, or null if
+     *         either stop is null or not in this graph, or there is no way from
+     *         one to the other.
+     */
+    public Journey findPath(Stop from, Stop to) {
+        if (indexOf(from) < 0 || indexOf(to) < 0) {
+            return null;
+        }
+        if (search == null) {
+            search = new PathSearch(this);
+        }
+        int cost = search.run(from, to, false);
+        if (cost == Integer.MAX_VALUE) {
+            return null;
+        }
+        List<Stop> path = new ArrayList<>();
+        for (int i = to.getIndex(); i >= 0; i = search.parent(i)) {
+            path.add(stops.get(i));
+        }
+        Collections.reverse(path);
+        return new Journey(path, cost);
+    }
+
+    /**
+     * Returns the number of stops in this graph.
+     * @return The number of stops.
+     */
+    public int size() {
+        return stops.size();
+    }
+
+    /**
+     * Returns the stop with the given index.
+     * @param index The index of the stop.
+     * @return The stop with that index.
+     * @throws IndexOutOfBoundsException If no stop has the given index.
+     */
+    public Stop getStop(int index) {
+        return stops.get(index);
+    }
+
+    /**
+     * Returns the index of the given stop in this graph.
+     * @param stop The stop to find.
+     * @return The index of the stop, or -1 if the stop is null or not in this
+     * graph.
+     */
+    public int indexOf(Stop stop) {
+        if (stop == null || stop.getGraph() != this) {
+            return -1;
+        }
+        return stop.getIndex();
+    }
+
+    /**
+     * Returns the position of the first neighbour of the stop with the given
+     * index.
+     * @param index The index of the stop.
+     * @return The (inclusive) start of the stop's neighbours.
+     */
+    public int neighbourStart(int index) {
+        compact();
+        return offsets[index];
+    }
+
+    /**
+     * Returns the position just past the last neighbour of the stop with the
+     * given index.
+     * @param index The index of the stop.
+     * @return The (exclusive) end of the stop's neighbours.
+     */
+    public int neighbourEnd(int index) {
+        compact();
+        return offsets[index + 1];
+    }
+
+    /**
+     * Returns the index of the neighbour at the given position.
+     * @param position A position between neighbourStart(i) and
+     *                 neighbourEnd(i) for some stop i.
+     * @return The index of the neighbouring stop.
+     */
+    public int neighbourAt(int position) {
+        compact();
+        return targets[position];
+    }
+
+    /**
+     * Returns the Manhattan distance to the neighbour at the given position.
+     * @param position A position between neighbourStart(i) and
+     *                 neighbourEnd(i) for some stop i.
+     * @return The distance from stop i to that neighbour.
+     */
+    public int weightAt(int position) {
+        compact();
+        return weights[position];
+    }
+
+    /**
+     * Returns whether every neighbour of every stop in this graph is itself in
+     * this graph.
+     * @return True if no stop in the graph links to a stop outside it.
+     */
+    public boolean isClosed() {
+        for (Stop stop : stops) {
+            for (Stop neighbour : stop.neighbourList()) {
+                if (neighbour.getGraph() != this) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Creates empty storage for the routing table of a stop in this graph.
+     * With lazy routing, tables only hold a handful of entries, so they are
+     * kept in maps whatever the backend.
+     */
+    RoutingStorage createStorage() {
+        return cache == null ? backend.create(this) : new MapStorage();
+    }
+
+    /*
+     * Marks the compact arrays (and any cached routes, hierarchy or per-mode
+     * tables) as out of date, after a neighbour link has been added to or
+     * removed from one of the stops in this graph.
+     */
+    void invalidate() {
+        dirty = true;
+        hierarchy = null;
+        modeRouting = null;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /*
+     * Rebuilds the compact arrays if they are out of date.
+     */
+    void compact() {
+        if (!dirty) {
+            return;
+        }
+        int count = stops.size();
+        int[] newOffsets = new int[count + 1];
+        int[] newTargets = new int[16];
+        int[] newWeights = new int[16];
+        int edges = 0;
+
+        for (int i = 0; i < count; i++) {
+            Stop stop = stops.get(i);
+            newOffsets[i] = edges;
+            for (Stop neighbour : stop.neighbourList()) {
+                if (neighbour.getGraph() != this) {
+                    continue;
+                }
+                if (edges == newTargets.length) {
+                    newTargets = Arrays.copyOf(newTargets, edges * 2);
+                    newWeights = Arrays.copyOf(newWeights, edges * 2);
+                }
+                newTargets[edges] = neighbour.getIndex();
+                newWeights[edges] = stop.distanceTo(neighbour);
+                edges++;
+            }
+        }
+        newOffsets[count] = edges;
+
+        offsets = newOffsets;
+        targets = Arrays.copyOf(newTargets, edges);
+        weights = Arrays.copyOf(newWeights, edges);
+        dirty = false;
+    }
+}
@@ -0,0 +1,118 @@
+package stops;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Breadth-first traversal of the stops in the network, following the links
+ * between neighbouring stops.
+ *
+ * Each stop is visited exactly once. Stops are marked as visited in a bitset
+ * over their dense indexes (see StopGraph) where they have one, and in an
+ * identity-based set otherwise, so the traversal never compares stops with
+ * equals() or copies neighbour lists.
+ */
+public class StopTraversal {
+
+    /*
+     * The stops visited so far in a traversal.
+     */
+    private static class Visited {
+        // the graph whose indexes are tracked in the bitset, if any
+        private StopGraph graph;
+        private BitSet indexed = new BitSet();
+        // stops outside of that graph, created when first needed
+        private Set<Stop> others;
+
+        private Visited(StopGraph graph) {
+            this.graph = graph;
+        }
+
+        /*
+         * Marks the given stop as visited, and returns true if it had not
+         * been visited before.
+         */
+        private boolean add(Stop stop) {
+            if (graph != null && stop.getGraph() == graph) {
+                if (indexed.get(stop.getIndex())) {
+                    return false;
+                }
+                indexed.set(stop.getIndex());
+                return true;
+            }
+            if (others == null) {
+                others = Collections.newSetFromMap(new IdentityHashMap<>());
+            }
+            return others.add(stop);
+        }
+    }
+
+    private StopTraversal() {
+    }
+
+    /**
+     * Calls the given action once for every stop reachable from the given
+     * stop along neighbour links, including the given stop itself, in
+     * breadth-first order.
+     *
+     * If the given stop is null, the action is never called.
+     * @param start The stop to start from.
+     * @param action The action to perform for each reachable stop.
+     */
+    public static void forEachReachable(Stop start, Consumer<Stop> action) {
+        forEachReachable(Collections.singletonList(start), false, action);
+    }
+
+    /**
+     * Calls the given action once for every stop reachable from any of the
+     * given stops along neighbour links, including the given stops
+     * themselves, in breadth-first order.
+     *
+     * Null stops are ignored.
+     * @param starts The stops to start from.
+     * @param action The action to perform for each reachable stop.
+     */
+    public static void forEachReachable(Collection<Stop> starts,
+                                        Consumer<Stop> action) {
+        forEachReachable(starts, false, action);
+    }
+
+    /*
+     * Performs the traversal, additionally following the destinations in each
+     * visited stop's routing table if followTables is true.
+     */
+    static void forEachReachable(Collection<Stop> starts, boolean followTables,
+                                 Consumer<Stop> action) {
+        StopGraph graph = null;
+        for (Stop stop : starts) {
+            if (stop != null) {
+                graph = stop.getGraph();
+                break;
+            }
+        }
+        Visited visited = new Visited(graph);
+        Deque<Stop> pending = new ArrayDeque<>();
+
+        for (Stop stop : starts) {
+            if (stop != null && visited.add(stop)) {
+                pending.add(stop);
+            }
+        }
+        while (!pending.isEmpty()) {
+            Stop current = pending.poll();
+            action.accept(current);
+            for (Stop next : current.neighbourList()) {
+                if (visited.add(next)) {
+                    pending.add(next);
+                }
+            }
+            if (followTables) {
+                for (Stop next : current.getRoutingTable().destinations()) {
+                    if (next != null && visited.add(next)) {
+                        pending.add(next);
+                    }
+                }
+            }
+        }
+    }
+}
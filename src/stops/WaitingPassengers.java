@@ -0,0 +1,194 @@
+package stops;
+
+import passengers.Passenger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The passengers waiting at a stop, queued by the next stop each of them is
+ * headed for.
+ *
+ * Each next stop has its own first-in, first-out queue, so a vehicle departing
+ * for it only has to look at the passengers who are boarding, rather than at
+ * every passenger at the stop. All the passengers are also linked together in
+ * the order they arrived, so they can still be listed in that order, and any
+ * passenger can be unlinked in constant time when they board.
+ *
+ * Next stops are compared with equals(), as Stop.transportDepart(...) compares
+ * them, and passengers with no next stop (i.e. no destination) are queued
+ * together. A passenger stays in the queue they were added to, even if their
+ * destination changes while they wait.
+ */
+class WaitingPassengers {
+    /*
+     * A passenger waiting at the stop, linked to the passengers who arrived
+     * just before and after them.
+     */
+    private static class Waiting {
+        private final Passenger passenger;
+        private Waiting previous;
+        private Waiting next;
+
+        private Waiting(Passenger passenger) {
+            this.passenger = passenger;
+        }
+    }
+
+    // the passengers headed for each next stop, in the order they arrived
+    private Map<Stop, ArrayDeque<Waiting>> queues;
+    // the first and last passengers to arrive of those still waiting
+    private Waiting first;
+    private Waiting last;
+    // the number of passengers waiting
+    private int size;
+
+    /**
+     * Creates an empty set of queues.
+     */
+    WaitingPassengers() {
+        this.queues = new HashMap<>();
+        this.first = null;
+        this.last = null;
+        this.size = 0;
+    }
+
+    /**
+     * Adds the given passenger to the back of the queue for the given next
+     * stop.
+     * @param passenger The passenger arriving. Must not be null.
+     * @param nextStop The stop the passenger is headed for next, or null if
+     *                 they have no destination.
+     */
+    void add(Passenger passenger, Stop nextStop) {
+        queues.computeIfAbsent(nextStop, stop -> new ArrayDeque<>())
+                .add(link(passenger));
+    }
+
+    /**
+     * Adds each of the given passengers to the back of the queue for their
+     * destination, in order, as if by add(Passenger, Stop). Null passengers
+     * are skipped.
+     *
+     * Passengers arriving together are often headed for the same next stop,
+     * so each queue is only looked up when the next stop changes.
+     * @param arriving The passengers arriving, in order.
+     */
+    void addAll(List<Passenger> arriving) {
+        Stop nextStop = null;
+        ArrayDeque<Waiting> queue = null;
+        for (Passenger passenger : arriving) {
+            if (passenger == null) {
+                continue;
+            }
+            Stop destination = passenger.getDestination();
+            if (queue == null || destination != nextStop) {
+                nextStop = destination;
+                queue = queues.computeIfAbsent(nextStop,
+                        stop -> new ArrayDeque<>());
+            }
+            queue.add(link(passenger));
+        }
+    }
+
+    /**
+     * Returns the passengers at the front of the queue for the given next
+     * stop, without removing them.
+     * @param nextStop The next stop to look for passengers headed to.
+     * @param max The most passengers to return.
+     * @return Up to max of the passengers who have waited longest for the
+     * next stop, in the order they arrived.
+     */
+    List<Passenger> peek(Stop nextStop, int max) {
+        ArrayDeque<Waiting> queue = queues.get(nextStop);
+        if (queue == null || max <= 0) {
+            return new ArrayList<>();
+        }
+        List<Passenger> front = new ArrayList<>(Math.min(max, queue.size()));
+        for (Waiting waiting : queue) {
+            if (front.size() == max) {
+                break;
+            }
+            front.add(waiting.passenger);
+        }
+        return front;
+    }
+
+    /**
+     * Removes the given number of passengers from the front of the queue for
+     * the given next stop (or all of them, if fewer are waiting for it).
+     * @param nextStop The next stop to remove passengers headed to.
+     * @param count The number of passengers to remove.
+     */
+    void poll(Stop nextStop, int count) {
+        ArrayDeque<Waiting> queue = queues.get(nextStop);
+        if (queue == null) {
+            return;
+        }
+        for (int i = 0; i < count && !queue.isEmpty(); i++) {
+            unlink(queue.poll());
+        }
+        if (queue.isEmpty()) {
+            queues.remove(nextStop);
+        }
+    }
+
+    /**
+     * Returns the number of passengers waiting.
+     * @return The number of passengers.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns every passenger waiting, in the order they arrived.
+     * @return A new list of the waiting passengers.
+     */
+    List<Passenger> toList() {
+        List<Passenger> passengers = new ArrayList<>(size);
+        for (Waiting waiting = first; waiting != null;
+                waiting = waiting.next) {
+            passengers.add(waiting.passenger);
+        }
+        return passengers;
+    }
+
+    /*
+     * Adds the given passenger to the end of the order of arrival.
+     */
+    private Waiting link(Passenger passenger) {
+        Waiting waiting = new Waiting(passenger);
+        waiting.previous = last;
+        if (last == null) {
+            first = waiting;
+        } else {
+            last.next = waiting;
+        }
+        last = waiting;
+        size++;
+        return waiting;
+    }
+
+    /*
+     * Removes the given passenger from the order of arrival.
+     */
+    private void unlink(Waiting waiting) {
+        if (waiting.previous == null) {
+            first = waiting.next;
+        } else {
+            waiting.previous.next = waiting.next;
+        }
+        if (waiting.next == null) {
+            last = waiting.previous;
+        } else {
+            waiting.next.previous = waiting.previous;
+        }
+        waiting.previous = null;
+        waiting.next = null;
+        size--;
+    }
+}
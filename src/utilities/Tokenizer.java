@@ -0,0 +1,140 @@
+package utilities;
+
+/**
+ * Splits and parses the parts of encoded strings (see {@link Writeable}) in a
+ * single pass over each string.
+ *
+ * <p>Decoding used to split a string with {@link String#split(String)}, and
+ * then count its delimiters by removing them with
+ * {@link String#replace(CharSequence, CharSequence)} and comparing lengths.
+ * {@link #split(String, char)} finds every part and counts the delimiters
+ * at once, so a string is only read once however it is checked.
+ */
+public final class Tokenizer {
+
+    // no instances, only static helpers
+    private Tokenizer() {}
+
+    /**
+     * Returns every part of the given string between occurrences of the given
+     * delimiter, in order.
+     *
+     * <p>Unlike {@link String#split(String)}, empty parts at the end of the
+     * string are kept, so there is always exactly one more part than there
+     * are delimiters in the string. The string "a::b:" has four parts: "a",
+     * "", "b" and "".
+     *
+     * @param string The string to split.
+     * @param delimiter The character separating the parts.
+     * @return The parts of the string, of which there is at least one.
+     * @throws NullPointerException If the given string is null.
+     */
+    public static String[] split(String string, char delimiter) {
+        int length = string.length();
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (string.charAt(i) == delimiter) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return new String[] {string};
+        }
+
+        String[] parts = new String[count + 1];
+        int start = 0;
+        int part = 0;
+        for (int i = 0; i < length; i++) {
+            if (string.charAt(i) == delimiter) {
+                parts[part++] = string.substring(start, i);
+                start = i + 1;
+            }
+        }
+        parts[part] = string.substring(start);
+        return parts;
+    }
+
+    /**
+     * Returns true if the given parts (from {@link #split(String, char)}) are
+     * also exactly what {@link String#split(String)} would return. That is,
+     * unless the string had a delimiter at its very end, which split would
+     * drop along with the empty part after it.
+     *
+     * <p>Decoding treats a delimiter at the end of a string as an extra
+     * delimiter, so it is an error wherever this method returns false.
+     *
+     * @param parts The parts of a string, as returned by
+     *              {@link #split(String, char)}.
+     * @return True if the last part is not empty, or is the only part.
+     */
+    public static boolean isExact(String[] parts) {
+        return parts.length == 1 || !parts[parts.length - 1].isEmpty();
+    }
+
+    /**
+     * Returns the number of parts {@link String#split(String)} would have
+     * returned for the string the given parts came from. This is the number
+     * of parts once any empty parts at the end of the string are dropped, or
+     * one if the string was empty.
+     *
+     * @param parts The parts of a string, as returned by
+     *              {@link #split(String, char)}.
+     * @return The number of parts up to the last one that is not empty.
+     */
+    public static int splitLength(String[] parts) {
+        if (parts.length == 1) {
+            return 1;
+        }
+        int length = parts.length;
+        while (length > 0 && parts[length - 1].isEmpty()) {
+            length--;
+        }
+        return length;
+    }
+
+    /**
+     * Parses the given string as a decimal integer, ignoring any whitespace
+     * before or after it, exactly as
+     * {@code Integer.parseInt(string.trim())} would.
+     *
+     * <p>Strings of plain ASCII digits (with an optional sign) short enough
+     * that they cannot overflow are parsed in place, without trimming the
+     * string into a copy first; anything else is left to
+     * {@link Integer#parseInt(String)}.
+     *
+     * @param string The string to parse.
+     * @return The integer value of the string.
+     * @throws NumberFormatException If the trimmed string is not an integer.
+     * @throws NullPointerException If the given string is null.
+     */
+    public static int parseInt(String string) {
+        int start = 0;
+        int end = string.length();
+        while (start < end && string.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && string.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        boolean negative = false;
+        int i = start;
+        if (i < end && (string.charAt(i) == '-' || string.charAt(i) == '+')) {
+            negative = string.charAt(i) == '-';
+            i++;
+        }
+        // nine digits always fit in an int
+        if (i == end || end - i > 9) {
+            return Integer.parseInt(string.substring(start, end));
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            char c = string.charAt(i);
+            if (c < '0' || c > '9') {
+                return Integer.parseInt(string.substring(start, end));
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+}
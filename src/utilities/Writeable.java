@@ -1,5 +1,7 @@
 package utilities;
 
+import java.io.IOException;
+
 /**
  * Defines the interface for classes which are able to be encoded for writing
  * into files.
@@ -13,4 +15,20 @@ public interface Writeable {
      * @return A string representation of the object.
      */
     String encode();
+
+    /**
+     * Appends the same representation as {@link #encode()} to the given
+     * output, e.g. a buffered writer, so that it can be written to a file
+     * without building the whole string first.
+     *
+     * <p>By default, this appends the result of {@link #encode()}.
+     * Implementing classes whose representations can grow large should
+     * append them piece by piece instead.
+     *
+     * @param out The output to append to.
+     * @throws IOException If appending to the output fails.
+     */
+    default void encodeTo(Appendable out) throws IOException {
+        out.append(encode());
+    }
 }
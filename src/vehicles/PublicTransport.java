@@ -5,12 +5,18 @@ import exceptions.OverCapacityException;
 import exceptions.TransportException;
 import exceptions.TransportFormatException;
 import passengers.Passenger;
+import passengers.PassengerCounts;
 import routes.Route;
 import stops.Stop;
+import utilities.Tokenizer;
 import utilities.Writeable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
 
 /**
  * A base public transport vehicle in the transportation network.
@@ -19,6 +25,9 @@ public abstract class PublicTransport implements Writeable {
     // the passengers currently on board the vehicle
     private List<Passenger> passengers;
 
+    // the passengers on board counted by destination, rather than as objects
+    private PassengerCounts flows;
+
     // the place the vehicle is currently stopped
     private Stop currentLocation;
 
@@ -51,6 +60,7 @@ public abstract class PublicTransport implements Writeable {
      */
     public PublicTransport(int id, int capacity, Route route) {
         this.passengers = new ArrayList<>();
+        this.flows = new PassengerCounts();
         this.capacity = capacity < 0 ? 0 : capacity;
         this.id = id;
         this.route = route;
@@ -92,10 +102,14 @@ public abstract class PublicTransport implements Writeable {
     /**
      * Returns the number of passengers currently on board this vehicle.
      *
+     * <p>This includes the passengers who are only counted by destination
+     * (see {@link #boardFlow(int, int)}), as well as those returned by
+     * {@link #getPassengers()}.
+     *
      * @return The number of passengers in the vehicle.
      */
     public int passengerCount() {
-        return passengers.size();
+        return passengers.size() + flows.total();
     }
 
     /**
@@ -151,12 +165,110 @@ public abstract class PublicTransport implements Writeable {
             return;
         }
 
-        if (passengers.size() >= capacity) {
+        if (passengerCount() >= capacity) {
             throw new OverCapacityException();
         }
         passengers.add(passenger);
     }
 
+    /**
+     * Adds as many of the given passengers to this vehicle as it has room for,
+     * up to the given maximum, in the order the collection returns them, and
+     * returns how many were added.
+     *
+     * <p>The room left on the vehicle is worked out once, and the passengers
+     * who fit are copied on board together, so unlike calling
+     * {@link #addPassenger(Passenger)} for each passenger, no exception is
+     * thrown once the vehicle is full; the passengers who did not fit are
+     * simply not added. Null passengers are skipped, and do not count towards
+     * the number added.
+     *
+     * @param boarding The passengers boarding the vehicle, in order.
+     * @param max The most passengers to add.
+     * @return The number of passengers added, i.e. the first that many
+     *          (non-null) passengers in the collection are now on board.
+     */
+    public int board(Collection<Passenger> boarding, int max) {
+        int room = Math.min(max, capacity - passengerCount());
+        if (boarding == null || room <= 0) {
+            return 0;
+        }
+        Passenger[] fitting = boarding.toArray(new Passenger[0]);
+        int count = 0;
+        for (int i = 0; i < fitting.length && count < room; i++) {
+            if (fitting[i] != null) {
+                fitting[count++] = fitting[i];
+            }
+        }
+        passengers.addAll(Arrays.asList(fitting).subList(0, count));
+        return count;
+    }
+
+    /**
+     * Adds up to the given number of passengers headed for the stop with the
+     * given index (see {@link Stop#getIndex()}) to this vehicle, as a count
+     * rather than as {@link Passenger} objects, and returns how many were
+     * added.
+     *
+     * <p>As with {@link #board(Collection, int)}, no exception is thrown once
+     * the vehicle is full; the passengers who did not fit are simply not
+     * added. Counted passengers take up room on the vehicle just as other
+     * passengers do.
+     *
+     * @param destination The index of the stop the passengers are headed for.
+     * @param count The number of passengers boarding.
+     * @return The number of passengers added, which is 0 if the destination
+     *          index is negative.
+     */
+    public int boardFlow(int destination, int count) {
+        int room = Math.min(count, capacity - passengerCount());
+        if (destination < 0 || room <= 0) {
+            return 0;
+        }
+        flows.add(destination, room);
+        return room;
+    }
+
+    /**
+     * Returns the number of counted passengers (see
+     * {@link #boardFlow(int, int)}) on board this vehicle who are headed for
+     * the stop with the given index.
+     *
+     * @param destination The index of the stop.
+     * @return The number of counted passengers headed there.
+     */
+    public int getFlow(int destination) {
+        return flows.get(destination);
+    }
+
+    /**
+     * Returns the number of counted passengers (see
+     * {@link #boardFlow(int, int)}) on board this vehicle, across every
+     * destination.
+     *
+     * @return The number of counted passengers on board.
+     */
+    public int getFlowCount() {
+        return flows.total();
+    }
+
+    /**
+     * Empties the vehicle of all the passengers on board who are only counted
+     * by destination (see {@link #boardFlow(int, int)}), and returns their
+     * counts. The passengers returned by {@link #getPassengers()} stay on
+     * board.
+     *
+     * <p>Modifying the returned counts should not result in changes to the
+     * internal state of the class.
+     *
+     * @return The counts of the passengers who used to be on the vehicle.
+     */
+    public PassengerCounts unloadFlows() {
+        PassengerCounts leaving = flows;
+        flows = new PassengerCounts();
+        return leaving;
+    }
+
     /**
      * Removes the given passenger from the vehicle.
      *
@@ -187,6 +299,9 @@ public abstract class PublicTransport implements Writeable {
      * <p>Modifying the returned list should not result in changes to the
      * internal state of the class.
      *
+     * <p>Passengers who are only counted by destination are left on board
+     * (see {@link #unloadFlows()}).
+     *
      * @return The passengers who used to be on the vehicle.
      */
     public List<Passenger> unload() {
@@ -284,7 +399,7 @@ public abstract class PublicTransport implements Writeable {
         switch (type) {
             case "train":
                 return new Train(id, capacity, route,
-                        Integer.parseInt(extra.trim()));
+                        Tokenizer.parseInt(extra));
             case "bus":
                 return new Bus(id, capacity, route, extra);
             case "ferry":
@@ -365,33 +480,110 @@ public abstract class PublicTransport implements Writeable {
         if (transportString == null || existingRoutes == null) {
             throw new TransportFormatException();
         }
+        return decodeVehicle(transportString,
+                routeNumber -> routeFromNumber(routeNumber, existingRoutes),
+                true);
+    }
+
+    /**
+     * Creates a new public transport object based on the given string
+     * representation, as in {@link #decode(String, List)}, finding its route
+     * by number in the given index rather than by searching a list.
+     *
+     * <p>The index should map each route number to the route that
+     * {@link #decode(String, List)} would have used, i.e. the first route in
+     * the network with that number.
+     *
+     * @param transportString The string to decode.
+     * @param existingRoutes The routes which currently exist in the transport
+     *                       network, indexed by route number.
+     * @return The decoded public transport object (a Bus, Train, or Ferry,
+     *          depending on the type given in the string).
+     * @throws TransportFormatException If the given string or existingRoutes
+     *          index is null, or the string is otherwise incorrectly
+     *          formatted, as described in {@link #decode(String, List)}.
+     */
+    public static PublicTransport decode(String transportString,
+                                         Map<Integer, Route> existingRoutes)
+            throws TransportFormatException {
+
+        // parameters can't be null
+        if (transportString == null || existingRoutes == null) {
+            throw new TransportFormatException();
+        }
+        return decodeVehicle(transportString, existingRoutes::get, true);
+    }
 
+    /**
+     * Creates a new public transport object based on the given string
+     * representation, as in {@link #decode(String, Map)}, but without adding
+     * it to its route.
+     *
+     * <p>Nothing but the new vehicle is changed, so many vehicles can be
+     * decoded at once (e.g. on several threads) and then added to their routes
+     * in order with {@link Route#addTransport(PublicTransport)}. As the
+     * vehicle is not added to its route, an empty route is only reported when
+     * it is.
+     *
+     * @param transportString The string to decode.
+     * @param existingRoutes The routes which currently exist in the transport
+     *                       network, indexed by route number.
+     * @return The decoded public transport object (a Bus, Train, or Ferry,
+     *          depending on the type given in the string), which is not yet
+     *          on its route.
+     * @throws TransportFormatException If the given string or existingRoutes
+     *          index is null, or the string is otherwise incorrectly
+     *          formatted, as described in {@link #decode(String, List)}.
+     */
+    public static PublicTransport decodeDetached(String transportString,
+            Map<Integer, Route> existingRoutes)
+            throws TransportFormatException {
+
+        // parameters can't be null
+        if (transportString == null || existingRoutes == null) {
+            throw new TransportFormatException();
+        }
+        return decodeVehicle(transportString, existingRoutes::get, false);
+    }
+
+    /*
+     * Decodes the given transport string, as described in
+     * decode(String, List), finding the route it is on with the given lookup,
+     * which returns null for numbers that are not in the network, and adding
+     * the vehicle to the route if asked to.
+     *
+     * @requires transportString != null
+     */
+    private static PublicTransport decodeVehicle(String transportString,
+            IntFunction<Route> lookup, boolean addToRoute)
+            throws TransportFormatException {
         PublicTransport vehicle;
         try {
-            String[] parts = transportString.split(",");
-            // Check for extra delimiters
-            int count = transportString.length() -
-                    transportString.replace(",", "").length();
-            // there should be 5 parts to the transportString
+            // split and count the delimiters in one pass
+            String[] parts = Tokenizer.split(transportString, ',');
+            // there should be 5 parts to the transportString, and no extra
+            // delimiters
             final int NUM_PARTS = 5;
-            if ((count + 1 != parts.length) || (parts.length != NUM_PARTS)){
+            if (!Tokenizer.isExact(parts) || (parts.length != NUM_PARTS)){
                 throw new TransportFormatException();
             }
 
             // get the components, trimming if required
             String type = parts[0];
-            int id = Integer.parseInt(parts[1].trim());
-            int capacity = Integer.parseInt(parts[2].trim());
-            int routeNumber = Integer.parseInt(parts[3].trim());
+            int id = Tokenizer.parseInt(parts[1]);
+            int capacity = Tokenizer.parseInt(parts[2]);
+            int routeNumber = Tokenizer.parseInt(parts[3]);
             // Check if route is valid
-            Route route = routeFromNumber(routeNumber, existingRoutes);
+            Route route = lookup.apply(routeNumber);
             if (route == null) {
                 throw new TransportFormatException();
             }
             String extra = parts[4];
 
             vehicle = vehicleFromType(type, id, capacity, route, extra);
-            route.addTransport(vehicle);
+            if (addToRoute) {
+                route.addTransport(vehicle);
+            }
 
         } catch (NumberFormatException | ArrayIndexOutOfBoundsException
                 | TransportException e) {
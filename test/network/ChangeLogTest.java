@@ -0,0 +1,234 @@
+package network;
+
+import exceptions.TransportFormatException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import routes.BusRoute;
+import routes.Route;
+import stops.RoutingBackend;
+import stops.Stop;
+import vehicles.Bus;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChangeLogTest {
+
+    private Network network;
+    private File snapshot;
+    private File log;
+
+    @Before
+    public void setUp() throws Exception {
+        //a single bus route along three stops
+        network = new Network(RoutingBackend.ARRAYS);
+        Route route = new BusRoute("main", 1);
+        for (int i = 0; i < 3; i++) {
+            Stop stop = new Stop("s" + i, i * 2, 0);
+            network.addStop(stop);
+            route.addStop(stop);
+        }
+        network.addRoute(route);
+        network.addVehicle(new Bus(1, 30, route, "ABC"));
+        route.addTransport(network.getVehicles().get(0));
+
+        snapshot = File.createTempFile("network", ".snapshot");
+        snapshot.deleteOnExit();
+        log = File.createTempFile("network", ".log");
+        log.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        network.closeChangeLog();
+    }
+
+    /*
+     * Makes a change of every kind to the network.
+     */
+    private void change() throws Exception {
+        List<Stop> stops = network.getStops();
+        Stop branch = new Stop("branch", 4, 5);
+        network.addStop(branch);
+        network.extendRoute(network.getRoutes().get(0), branch);
+
+        Route cross = new BusRoute("cross", 2);
+        cross.addStop(stops.get(0));
+        cross.addStop(branch);
+        network.addRoute(cross);
+        network.addVehicle(new Bus(2, 40, cross, "DEF"));
+
+        network.removeStop(stops.get(1));
+        network.addStop(stops.get(1));
+    }
+
+    /*
+     * Asserts that the given networks hold the same stops, routes, vehicles
+     * and routing.
+     */
+    private static void assertSameNetwork(Network expected, Network actual) {
+        List<Stop> expectedStops = expected.getStops();
+        List<Stop> actualStops = actual.getStops();
+        assertEquals(expectedStops.size(), actualStops.size());
+        for (int i = 0; i < expectedStops.size(); i++) {
+            assertEquals(expectedStops.get(i).encode(),
+                    actualStops.get(i).encode());
+            for (int j = 0; j < expectedStops.size(); j++) {
+                assertEquals(expectedStops.get(i).getRoutingTable()
+                                .costTo(expectedStops.get(j)),
+                        actualStops.get(i).getRoutingTable()
+                                .costTo(actualStops.get(j)));
+            }
+        }
+        assertEquals(expected.getRoutes().size(), actual.getRoutes().size());
+        for (int i = 0; i < expected.getRoutes().size(); i++) {
+            assertEquals(expected.getRoutes().get(i).encode(),
+                    actual.getRoutes().get(i).encode());
+        }
+        assertEquals(expected.getVehicles().size(),
+                actual.getVehicles().size());
+        for (int i = 0; i < expected.getVehicles().size(); i++) {
+            assertEquals(expected.getVehicles().get(i).encode(),
+                    actual.getVehicles().get(i).encode());
+        }
+    }
+
+    @Test
+    public void changesAreReplayed() throws Exception {
+        network.logChanges(snapshot.getPath(), log.getPath(), true, 0);
+        long snapshotLength = snapshot.length();
+        change();
+        //the changes are only appended to the log
+        assertEquals(snapshotLength, snapshot.length());
+        assertEquals(7, Files.readAllLines(log.toPath()).size());
+
+        Network recovered = Network.recover(snapshot.getPath(), log.getPath(),
+                RoutingBackend.ARRAYS, 0);
+        assertSameNetwork(network, recovered);
+
+        //the recovered network carries on logging
+        network.closeChangeLog();
+        recovered.addStop(new Stop("late", 9, 9));
+        recovered.closeChangeLog();
+        Network again = Network.recover(snapshot.getPath(), log.getPath(),
+                null, 0);
+        assertSameNetwork(recovered, again);
+        again.closeChangeLog();
+    }
+
+    @Test
+    public void logIsCompacted() throws Exception {
+        network.logChanges(snapshot.getPath(), log.getPath(), false, 4);
+        change();
+        //compacted once the new route and its vehicle were logged
+        assertEquals(3, Files.readAllLines(log.toPath()).size());
+        network.closeChangeLog();
+
+        Network recovered = Network.recover(snapshot.getPath(), log.getPath(),
+                null, 4);
+        assertSameNetwork(network, recovered);
+        recovered.closeChangeLog();
+    }
+
+    @Test
+    public void indexesSurviveCompactionAfterRemoval() throws Exception {
+        Stop last = new Stop("s3", 6, 0);
+        network.addStop(last);
+        List<Stop> stops = network.getStops();
+        network.logChanges(snapshot.getPath(), log.getPath(), true, 0);
+        network.removeStop(stops.get(1));
+        network.compactChanges();
+
+        //logged by graph index, which the removed stop still holds
+        Route extra = new BusRoute("extra", 3);
+        network.addRoute(extra);
+        network.extendRoute(extra, stops.get(2));
+        network.extendRoute(extra, last);
+        network.addStop(stops.get(1));
+        network.closeChangeLog();
+
+        Network recovered = Network.recover(snapshot.getPath(), log.getPath(),
+                RoutingBackend.ARRAYS, 0);
+        assertSameNetwork(network, recovered);
+        assertEquals("bus,extra,3:s2|s3",
+                recovered.getRoutes().get(1).encode());
+        recovered.closeChangeLog();
+
+        //and once more after compacting the restored stop
+        recovered = Network.recover(snapshot.getPath(), log.getPath(), null,
+                1);
+        recovered.closeChangeLog();
+        recovered = Network.recover(snapshot.getPath(), log.getPath(), null,
+                0);
+        assertSameNetwork(network, recovered);
+        recovered.closeChangeLog();
+    }
+
+    @Test
+    public void tornRoutesAreDroppedWhole() throws Exception {
+        network.logChanges(snapshot.getPath(), log.getPath(), false, 0);
+        List<Stop> stops = network.getStops();
+        Route cross = new BusRoute("cross", 2);
+        for (Stop stop : stops) {
+            cross.addStop(stop);
+        }
+        network.addRoute(cross);
+        network.closeChangeLog();
+        //the route and its stops are one change
+        List<String> lines = Files.readAllLines(log.toPath());
+        assertEquals(2, lines.size());
+        assertEquals("route bus,cross,2:0|1|2", lines.get(1));
+
+        //so if it is cut off part of the way through its stops, none of it
+        //is replayed
+        byte[] written = Files.readAllBytes(log.toPath());
+        Files.write(log.toPath(), Arrays.copyOf(written,
+                written.length - 3));
+        Network recovered = Network.recover(snapshot.getPath(), log.getPath(),
+                null, 0);
+        assertEquals(1, recovered.getRoutes().size());
+        assertEquals(1, Files.readAllLines(log.toPath()).size());
+        recovered.closeChangeLog();
+    }
+
+    @Test
+    public void partialChangesAreDropped() throws Exception {
+        network.logChanges(snapshot.getPath(), log.getPath(), false, 0);
+        network.addStop(new Stop("whole", 1, 1));
+        network.closeChangeLog();
+        try (FileWriter writer = new FileWriter(log, true)) {
+            writer.write("stop torn:");
+        }
+        Network recovered = Network.recover(snapshot.getPath(), log.getPath(),
+                null, 0);
+        assertEquals(4, recovered.getStops().size());
+        assertEquals("whole:1:1", recovered.getStops().get(3).encode());
+        recovered.closeChangeLog();
+
+        //a log older than its snapshot is already in it
+        String stale = "changes 0\nstop stale:1:2\n";
+        try (FileWriter writer = new FileWriter(log)) {
+            writer.write(stale);
+        }
+        recovered = Network.recover(snapshot.getPath(), log.getPath(), null,
+                0);
+        assertEquals(3, recovered.getStops().size());
+        recovered.closeChangeLog();
+
+        //but one newer than its snapshot cannot be replayed
+        try (FileWriter writer = new FileWriter(log)) {
+            writer.write("changes 9\n");
+        }
+        try {
+            Network.recover(snapshot.getPath(), log.getPath(), null, 0);
+            fail();
+        } catch (TransportFormatException expected) {
+        }
+    }
+}
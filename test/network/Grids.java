@@ -0,0 +1,146 @@
+package network;
+
+import routes.BusRoute;
+import routes.Route;
+import routes.TrainRoute;
+import stops.RoutingBackend;
+import stops.Stop;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The square grid network the routing tests and benchmarks are run on.
+ *
+ * <p>The stop in row r and column c is named "s{r}_{c}", at (3c, 2r). There
+ * is a bus route along every row r, numbered r, and a train route along every
+ * column c, numbered side + c, so every stop is on two routes and the whole
+ * network is one connected component.
+ */
+public final class Grids {
+
+    // no instances, only static helpers
+    private Grids() {}
+
+    /**
+     * Builds a side x side grid, with its routing tables synchronised once
+     * all of its routes have been added.
+     *
+     * @param backend How the stops' routing tables store their entries.
+     * @param side The number of stops along each side of the grid.
+     * @return The grid network.
+     * @throws Exception If the network cannot be built.
+     */
+    public static Network grid(RoutingBackend backend, int side)
+            throws Exception {
+        return grid(backend, 0, side);
+    }
+
+    /**
+     * Builds a side x side grid with lazy routing (see
+     * {@link Network#setLazyRouting(int)}) caching at most the given number
+     * of routes, or with its routing tables synchronised once all of its
+     * routes have been added if the capacity is 0.
+     *
+     * @param backend How the stops' routing tables store their entries.
+     * @param capacity The most routes to cache, or 0 for eager routing.
+     * @param side The number of stops along each side of the grid.
+     * @return The grid network.
+     * @throws Exception If the network cannot be built.
+     */
+    public static Network grid(RoutingBackend backend, int capacity,
+                               int side) throws Exception {
+        Network network = new Network(backend);
+        network.setLazyRouting(capacity);
+        Stop[][] stops = new Stop[side][side];
+        network.beginBatch();
+        for (int row = 0; row < side; row++) {
+            for (int col = 0; col < side; col++) {
+                stops[row][col] = new Stop("s" + row + "_" + col, col * 3,
+                        row * 2);
+                network.addStop(stops[row][col]);
+            }
+        }
+        for (int i = 0; i < side; i++) {
+            Route rowRoute = new BusRoute("row" + i, i);
+            Route colRoute = new TrainRoute("col" + i, side + i);
+            for (int j = 0; j < side; j++) {
+                rowRoute.addStop(stops[i][j]);
+                colRoute.addStop(stops[j][i]);
+            }
+            network.addRoute(rowRoute);
+            network.addRoute(colRoute);
+        }
+        network.commit();
+        return network;
+    }
+
+    /**
+     * Writes the stop section of a side x side grid network file (see
+     * {@link Network#Network(String)}): the number of stops, then each stop.
+     *
+     * @param writer The writer to write to.
+     * @param side The number of stops along each side of the grid.
+     * @throws IOException If the stops cannot be written.
+     */
+    static void writeStops(Writer writer, int side) throws IOException {
+        writer.write(side * side + "\n");
+        for (int row = 0; row < side; row++) {
+            for (int col = 0; col < side; col++) {
+                writer.write("s" + row + "_" + col + ":" + col * 3 + ":"
+                        + row * 2 + "\n");
+            }
+        }
+    }
+
+    /**
+     * Writes the line of the bus route along the given row of a side x side
+     * grid network file.
+     *
+     * @param writer The writer to write to.
+     * @param row The row of the route.
+     * @param side The number of stops along each side of the grid.
+     * @throws IOException If the route cannot be written.
+     */
+    static void writeRow(Writer writer, int row, int side)
+            throws IOException {
+        writer.write("bus,row" + row + "," + row + ":");
+        for (int col = 0; col < side; col++) {
+            writer.write((col == 0 ? "" : "|") + "s" + row + "_" + col);
+        }
+        writer.write("\n");
+    }
+
+    /**
+     * Writes the line of the train route along the given column of a
+     * side x side grid network file.
+     *
+     * @param writer The writer to write to.
+     * @param col The column of the route.
+     * @param side The number of stops along each side of the grid.
+     * @throws IOException If the route cannot be written.
+     */
+    static void writeColumn(Writer writer, int col, int side)
+            throws IOException {
+        writer.write("train,col" + col + "," + (side + col) + ":");
+        for (int row = 0; row < side; row++) {
+            writer.write((row == 0 ? "" : "|") + "s" + row + "_" + col);
+        }
+        writer.write("\n");
+    }
+
+    /**
+     * Writes the vehicle section of a side x side grid network file: a bus
+     * on the route along each row.
+     *
+     * @param writer The writer to write to.
+     * @param side The number of stops along each side of the grid.
+     * @throws IOException If the vehicles cannot be written.
+     */
+    static void writeBuses(Writer writer, int side) throws IOException {
+        writer.write(side + "\n");
+        for (int row = 0; row < side; row++) {
+            writer.write("bus," + row + ",40," + row + ",REG" + row + "\n");
+        }
+    }
+}
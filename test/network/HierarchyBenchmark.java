@@ -0,0 +1,99 @@
+package network;
+
+import stops.ContractionHierarchy;
+import stops.RoutingBackend;
+import stops.Stop;
+import utilities.Heap;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares answering routing queries with synchronised routing tables against
+ * a contraction hierarchy (see {@link Network#buildContractionHierarchy()}).
+ *
+ * <p>The network is the grid from {@link Grids}. For each approach, the time
+ * (and heap) taken to prepare it is printed, followed by the average time to
+ * answer {@code costTo} and {@code nextStop} for random pairs of stops, and the
+ * number of pairs on which the two disagree on cost. Tables are rebuilt in
+ * parallel with {@link Network#rebuildRouting(int)}.
+ *
+ * <p>Usage: {@code java network.HierarchyBenchmark [stops...]}, e.g.
+ * {@code java network.HierarchyBenchmark 2500 10000}. The routing backend can
+ * be set with {@code -Dbackend=} (default ARRAYS).
+ */
+public class HierarchyBenchmark {
+    // pairs of stops queried
+    private static final int QUERIES = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[] {2500, 10000}
+                : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        RoutingBackend backend = RoutingBackend.valueOf(
+                System.getProperty("backend", "ARRAYS"));
+
+        for (int size : sizes) {
+            Network network = Grids.grid(backend, 1,
+                    (int) Math.ceil(Math.sqrt(size)));
+            List<Stop> stops = network.getStops();
+            int[] pairs = pairs(stops.size(), new Random(size));
+            System.out.printf("%d stops:%n", stops.size());
+
+            long before = Heap.used();
+            long start = System.nanoTime();
+            network.setLazyRouting(0);
+            network.rebuildRouting(0);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("  tables:    built in %6d ms, %4d MB",
+                    elapsed / 1_000_000,
+                    (Heap.used() - before) >> 20);
+            int[] expected = new int[QUERIES];
+            start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                Stop from = stops.get(pairs[2 * i]);
+                Stop to = stops.get(pairs[2 * i + 1]);
+                expected[i] = from.getRoutingTable().costTo(to);
+                from.getRoutingTable().nextStop(to);
+            }
+            elapsed = System.nanoTime() - start;
+            System.out.printf(", %7.2f us/query%n", elapsed / 1e3 / QUERIES);
+
+            before = Heap.used();
+            start = System.nanoTime();
+            ContractionHierarchy hierarchy =
+                    network.buildContractionHierarchy();
+            elapsed = System.nanoTime() - start;
+            System.out.printf("  hierarchy: built in %6d ms, %4d MB",
+                    elapsed / 1_000_000,
+                    (Heap.used() - before) >> 20);
+            int mismatches = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                Stop from = stops.get(pairs[2 * i]);
+                Stop to = stops.get(pairs[2 * i + 1]);
+                if (hierarchy.costTo(from, to) != expected[i]) {
+                    mismatches++;
+                }
+                hierarchy.nextStop(from, to);
+            }
+            elapsed = System.nanoTime() - start;
+            System.out.printf(", %7.2f us/query, %d shortcuts, %d mismatches%n",
+                    elapsed / 1e3 / QUERIES, hierarchy.getShortcutCount(),
+                    mismatches);
+        }
+    }
+
+    /*
+     * Returns QUERIES random pairs of stop indexes, flattened.
+     */
+    private static int[] pairs(int count, Random random) {
+        int[] pairs = new int[2 * QUERIES];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = random.nextInt(count);
+        }
+        return pairs;
+    }
+}
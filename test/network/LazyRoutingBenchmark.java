@@ -0,0 +1,114 @@
+package network;
+
+import stops.RoutingBackend;
+import stops.RoutingCache;
+import stops.Stop;
+import utilities.Heap;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times building a network with lazy routing (see
+ * {@link Network#setLazyRouting(int)}), and then routing passengers through
+ * it.
+ *
+ * <p>The network is the grid from {@link Grids}. Passengers start at random
+ * stops, four in five of them heading to one of a small set of popular
+ * destinations and the rest anywhere, and the next stop is looked up at every
+ * stop along their way, as {@link Stop#addPassenger} does. The hit, miss and eviction
+ * counts are cumulative. Finally, whole journeys between the same stops are
+ * found with {@link Network#findPath(Stop, Stop)}, which uses no tables or
+ * cache at all.
+ *
+ * <p>Usage: {@code java network.LazyRoutingBenchmark [stops...]}, e.g.
+ * {@code java network.LazyRoutingBenchmark 10000 50000}. The cache capacity
+ * can be set with {@code -Dcapacity=} (default 100000) and the routing
+ * backend with {@code -Dbackend=} (default ARRAYS).
+ */
+public class LazyRoutingBenchmark {
+    // passengers routed per round
+    private static final int PASSENGERS = 20_000;
+    // the number of popular destinations
+    private static final int POPULAR = 50;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[] {10000, 50000}
+                : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        int capacity = Integer.getInteger("capacity", 100_000);
+        RoutingBackend backend = RoutingBackend.valueOf(
+                System.getProperty("backend", "ARRAYS"));
+
+        for (int size : sizes) {
+            long start = System.nanoTime();
+            Network network = Grids.grid(backend, capacity,
+                    (int) Math.ceil(Math.sqrt(size)));
+            long elapsed = System.nanoTime() - start;
+            List<Stop> stops = network.getStops();
+            System.out.printf("%d stops: built in %d ms, %d MB used%n",
+                    stops.size(), elapsed / 1_000_000, Heap.used() >> 20);
+
+            for (int round = 1; round <= 3; round++) {
+                start = System.nanoTime();
+                long lookups = route(stops, new Random(round));
+                elapsed = System.nanoTime() - start;
+                RoutingCache cache = network.getRoutingCache();
+                System.out.printf("  round %d: %.2f us/lookup, %d lookups,"
+                                + " %d hits, %d misses, %d evictions%n",
+                        round, elapsed / 1e3 / lookups, lookups,
+                        cache.getHits(), cache.getMisses(),
+                        cache.getEvictions());
+            }
+
+            start = System.nanoTime();
+            long hops = findPaths(network, new Random(1));
+            elapsed = System.nanoTime() - start;
+            System.out.printf("  findPath: %.2f us/query, %.1f stops/journey%n",
+                    elapsed / 1e3 / PASSENGERS, (double) hops / PASSENGERS);
+        }
+    }
+
+    /*
+     * Routes PASSENGERS passengers from random stops, mostly to popular
+     * destinations, looking up the next stop at every stop along the way, and
+     * returns the total number of lookups.
+     */
+    private static long route(List<Stop> stops, Random random) {
+        long lookups = 0;
+        int count = stops.size();
+        for (int i = 0; i < PASSENGERS; i++) {
+            Stop current = stops.get(random.nextInt(count));
+            Stop to = random.nextInt(5) == 0
+                    ? stops.get(random.nextInt(count))
+                    : stops.get(random.nextInt(POPULAR) * (count / POPULAR));
+            while (current != to) {
+                Stop next = current.getRoutingTable().nextStop(to);
+                lookups++;
+                // a stop routes passengers for its neighbours via itself
+                current = next == current ? to : next;
+            }
+        }
+        return lookups;
+    }
+
+    /*
+     * Finds journeys between the same stops as route(stops, random) with the
+     * same seed, and returns the total number of stops along them.
+     */
+    private static long findPaths(Network network, Random random) {
+        List<Stop> stops = network.getStops();
+        long hops = 0;
+        int count = stops.size();
+        for (int i = 0; i < PASSENGERS; i++) {
+            Stop from = stops.get(random.nextInt(count));
+            Stop to = random.nextInt(5) == 0
+                    ? stops.get(random.nextInt(count))
+                    : stops.get(random.nextInt(POPULAR) * (count / POPULAR));
+            hops += network.findPath(from, to).getStops().size();
+        }
+        return hops;
+    }
+}
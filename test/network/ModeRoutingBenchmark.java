@@ -0,0 +1,92 @@
+package network;
+
+import routes.FerryRoute;
+import routes.Route;
+import stops.ModeRouting;
+import stops.RoutingBackend;
+import stops.Stop;
+import utilities.Heap;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times building per-mode routing tables (see
+ * {@link Network#buildModeRouting(int)}) and answering mode-restricted
+ * queries with them, against rebuilding the ordinary routing tables once.
+ *
+ * <p>The network is the grid from {@link Grids} (bus routes along the rows,
+ * train routes along the columns), with a ferry route zig-zagging across every
+ * tenth pair of rows, so that every combination of modes routes differently.
+ * The heap used by each set of tables, and the number of pages stored against
+ * the number the tables refer to, are printed.
+ *
+ * <p>Usage: {@code java network.ModeRoutingBenchmark [stops...]}, e.g.
+ * {@code java network.ModeRoutingBenchmark 1000 2500}. The number of threads
+ * can be set with {@code -Dthreads=} (default: one per processor).
+ */
+public class ModeRoutingBenchmark {
+    // queries per round
+    private static final int QUERIES = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[] {1000, 2500}
+                : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        int threads = Integer.getInteger("threads", 0);
+
+        for (int size : sizes) {
+            int side = (int) Math.ceil(Math.sqrt(size));
+            Network network = Grids.grid(RoutingBackend.ARRAYS,
+                    1, side);
+            List<Stop> stops = network.getStops();
+            for (int row = 0; row + 1 < side; row += 10) {
+                Route ferry = new FerryRoute("ferry" + row, 2 * side + row);
+                for (int col = 0; col < side; col++) {
+                    ferry.addStop(stops.get((row + col % 2) * side + col));
+                }
+                network.addRoute(ferry);
+            }
+            System.out.printf("%d stops:%n", stops.size());
+
+            long before = Heap.used();
+            long start = System.nanoTime();
+            network.setLazyRouting(0);
+            network.rebuildRouting(threads);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("  all modes, routing tables: built in %d ms,"
+                            + " %d MB%n", elapsed / 1_000_000,
+                    (Heap.used() - before) >> 20);
+
+            before = Heap.used();
+            start = System.nanoTime();
+            ModeRouting routing = network.buildModeRouting(threads);
+            elapsed = System.nanoTime() - start;
+            System.out.printf("  every mask, mode tables: built in %d ms,"
+                            + " %d MB, %d pages stored for %d references%n",
+                    elapsed / 1_000_000,
+                    (Heap.used() - before) >> 20,
+                    routing.getPageCount(), routing.getPageReferenceCount());
+
+            Random random = new Random(size);
+            for (int round = 1; round <= 3; round++) {
+                long reachable = 0;
+                start = System.nanoTime();
+                for (int i = 0; i < QUERIES; i++) {
+                    Stop from = stops.get(random.nextInt(stops.size()));
+                    Stop to = stops.get(random.nextInt(stops.size()));
+                    int modes = 1 + random.nextInt(ModeRouting.ALL);
+                    if (routing.nextStop(from, to, modes) != null) {
+                        reachable++;
+                    }
+                }
+                elapsed = System.nanoTime() - start;
+                System.out.printf("  round %d: %.3f us/query, %.1f%%"
+                                + " reachable%n", round,
+                        elapsed / 1e3 / QUERIES, 100.0 * reachable / QUERIES);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package network;
+
+import routes.BusRoute;
+import routes.Route;
+import stops.RoutingBackend;
+import stops.Stop;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Times loading a generated network file through {@link Network#Network(String)}.
+ *
+ * <p>The generated network is the grid from {@link Grids}, with a bus on each
+ * row's route.
+ *
+ * <p>Usage: {@code java network.NetworkLoadBenchmark [stops...]}, e.g.
+ * {@code java network.NetworkLoadBenchmark 1000 10000 50000}. The routing
+ * backend can be chosen with {@code -Dbackend=ARRAYS} (default HASH_MAP),
+ * and the number of threads decoding stop and vehicle lines with
+ * {@code -Dparallelism=} (default 0, every available processor).
+ * With {@code -Drebuild=true}, each loaded network also has its routing
+ * rebuilt with {@link Network#rebuildRouting(int)}, on one thread and then on
+ * every available processor. With {@code -Dupdates=true}, incremental
+ * routing is then turned on, and adding a detour (a new link between two
+ * existing stops) and a temporary stop are timed, followed by removing the
+ * temporary stop and closing a stop on the grid.
+ */
+public class NetworkLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[] {1000, 10000, 50000}
+                : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        RoutingBackend backend = RoutingBackend.valueOf(
+                System.getProperty("backend", "HASH_MAP"));
+        int parallelism = Integer.getInteger("parallelism", 0);
+
+        for (int size : sizes) {
+            File file = File.createTempFile("network", ".txt");
+            file.deleteOnExit();
+            int stops = writeGrid(file, size);
+
+            long start = System.nanoTime();
+            Network network = new Network(file.getPath(), backend,
+                    parallelism);
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%d stops: loaded in %d ms%n",
+                    network.getStops().size(), elapsed / 1_000_000);
+            if (network.getStops().size() != stops) {
+                throw new AssertionError("unexpected stop count");
+            }
+
+            if (Boolean.getBoolean("rebuild")) {
+                int processors = Runtime.getRuntime().availableProcessors();
+                for (int threads : new int[] {1, processors}) {
+                    start = System.nanoTime();
+                    network.rebuildRouting(threads);
+                    elapsed = System.nanoTime() - start;
+                    System.out.printf("  rebuilt on %d thread(s) in %d ms%n",
+                            threads, elapsed / 1_000_000);
+                }
+            }
+
+            if (Boolean.getBoolean("updates")) {
+                timeUpdates(network);
+            }
+        }
+    }
+
+    /*
+     * Times a detour and a temporary stop being added to the given network
+     * with incremental routing, and stops being removed from it.
+     */
+    private static void timeUpdates(Network network) throws Exception {
+        network.setIncrementalRouting(true);
+        int count = network.getStops().size();
+
+        // a detour between two stops near the middle of the grid
+        Stop from = network.getStops().get(count / 2);
+        Stop to = network.getStops().get(count / 2 + (int) Math.sqrt(count) + 1);
+        Route detour = new BusRoute("detour", -1);
+        long start = System.nanoTime();
+        detour.addStop(from);
+        detour.addStop(to);
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("  detour added in %.3f ms%n", elapsed / 1e6);
+
+        // a temporary stop, linked into the detour route
+        Stop temporary = new Stop("temporary", from.getX() + 1, from.getY());
+        start = System.nanoTime();
+        network.addStop(temporary);
+        detour.addStop(temporary);
+        elapsed = System.nanoTime() - start;
+        System.out.printf("  temporary stop added in %.3f ms%n", elapsed / 1e6);
+
+        // close the temporary stop again, and then a stop on the grid
+        start = System.nanoTime();
+        network.removeStop(temporary);
+        elapsed = System.nanoTime() - start;
+        System.out.printf("  temporary stop removed in %.3f ms%n",
+                elapsed / 1e6);
+
+        start = System.nanoTime();
+        network.removeStop(to);
+        elapsed = System.nanoTime() - start;
+        System.out.printf("  grid stop closed in %.3f ms%n", elapsed / 1e6);
+    }
+
+    /*
+     * Writes a grid network with roughly the given number of stops to the
+     * given file, and returns the number of stops actually written.
+     */
+    static int writeGrid(File file, int size) throws IOException {
+        int side = (int) Math.ceil(Math.sqrt(size));
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            Grids.writeStops(writer, side);
+            writer.write(side * 2 + "\n");
+            for (int row = 0; row < side; row++) {
+                Grids.writeRow(writer, row, side);
+            }
+            for (int col = 0; col < side; col++) {
+                Grids.writeColumn(writer, col, side);
+            }
+            Grids.writeBuses(writer, side);
+        }
+        return side * side;
+    }
+}
@@ -0,0 +1,113 @@
+package network;
+
+import org.junit.Before;
+import org.junit.Test;
+import routes.BusRoute;
+import routes.FerryRoute;
+import routes.Route;
+import stops.RoutingBackend;
+import utilities.Writeable;
+import vehicles.Bus;
+import vehicles.Train;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NetworkSaveTest {
+
+    private Network network;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        network = Grids.grid(RoutingBackend.ARRAYS, 4);
+        List<Route> routes = network.getRoutes();
+        network.addVehicle(new Bus(1, 30, routes.get(0), "ABC"));
+        network.addVehicle(new Train(2, 60, routes.get(1), 3));
+        //a route with no stops (so no vehicles either)
+        network.addRoute(new FerryRoute("empty", 20));
+
+        file = File.createTempFile("network", ".txt");
+        file.deleteOnExit();
+    }
+
+    @Test
+    public void savedNetworksLoadTheSame() throws Exception {
+        network.save(file.getPath());
+        Network loaded = new Network(file.getPath());
+        assertEquals(encoded(network.getStops()), encoded(loaded.getStops()));
+        assertEquals(encoded(network.getRoutes()),
+                encoded(loaded.getRoutes()));
+        assertEquals(encoded(network.getVehicles()),
+                encoded(loaded.getVehicles()));
+
+        //saving the loaded network writes the same file
+        File again = File.createTempFile("network", ".txt");
+        again.deleteOnExit();
+        loaded.save(again.getPath());
+        assertArrayEquals(Files.readAllBytes(file.toPath()),
+                Files.readAllBytes(again.toPath()));
+    }
+
+    @Test
+    public void encodeToMatchesEncode() throws Exception {
+        List<Writeable> components = new ArrayList<>();
+        components.addAll(network.getStops());
+        components.addAll(network.getRoutes());
+        components.addAll(network.getVehicles());
+        for (Writeable component : components) {
+            StringBuilder out = new StringBuilder();
+            component.encodeTo(out);
+            assertEquals(component.encode(), out.toString());
+        }
+    }
+
+    @Test
+    public void failedSavesLeaveTheFileAlone() throws Exception {
+        network.save(file.getPath());
+        byte[] saved = Files.readAllBytes(file.toPath());
+
+        //a route which cannot be written, after the stops have been
+        network.addRoute(new BusRoute("broken", 30) {
+            @Override
+            public void encodeTo(Appendable out) throws IOException {
+                throw new IOException("broken");
+            }
+        });
+        try {
+            network.save(file.getPath());
+            fail("the broken route was saved");
+        } catch (IOException expected) {
+            //the save failed part of the way through
+        }
+        assertArrayEquals(saved, Files.readAllBytes(file.toPath()));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        //a save to a new file leaves nothing behind at all
+        File missing = new File(file.getPath() + ".new");
+        try {
+            network.save(missing.getPath());
+            fail("the broken route was saved");
+        } catch (IOException expected) {
+            //nothing was written
+        }
+        assertFalse(missing.exists());
+        assertFalse(new File(missing.getPath() + ".tmp").exists());
+    }
+
+    /*
+     * Returns the encoding of each of the given components, in order.
+     */
+    private static List<String> encoded(List<? extends Writeable> components) {
+        List<String> encodings = new ArrayList<>();
+        for (Writeable component : components) {
+            encodings.add(component.encode());
+        }
+        return encodings;
+    }
+}
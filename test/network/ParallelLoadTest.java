@@ -0,0 +1,111 @@
+package network;
+
+import exceptions.TransportFormatException;
+import org.junit.Before;
+import org.junit.Test;
+import routes.Route;
+import stops.Stop;
+import vehicles.PublicTransport;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ParallelLoadTest {
+
+    private File file;
+    private List<String> lines;
+
+    @Before
+    public void setUp() throws Exception {
+        //enough stops and vehicles to be decoded in several chunks each
+        lines = new ArrayList<>();
+        lines.add("5000");
+        for (int i = 0; i < 5000; i++) {
+            lines.add("stop" + i + ":" + i + ":" + i % 7);
+        }
+        lines.add("2");
+        lines.add("bus,loop,1:stop0|stop1|stop2|stop1|stop0");
+        lines.add("train,line,2:stop2|stop3");
+        lines.add("3000");
+        for (int i = 0; i < 3000; i++) {
+            lines.add(i % 3 == 0 ? "train," + i + ",60,2,3"
+                    : "bus," + i + ",30,1,REG" + i);
+        }
+
+        file = File.createTempFile("network", ".txt");
+        file.deleteOnExit();
+    }
+
+    private void write() throws Exception {
+        try (PrintWriter writer = new PrintWriter(file)) {
+            for (String line : lines) {
+                writer.println(line);
+            }
+        }
+    }
+
+    @Test
+    public void sameNetworkAsSequential() throws Exception {
+        write();
+        Network sequential = new Network(file.getPath(), null, 1);
+        Network parallel = new Network(file.getPath(), null, 4);
+
+        List<Stop> expectedStops = sequential.getStops();
+        List<Stop> actualStops = parallel.getStops();
+        assertEquals(5000, actualStops.size());
+        for (int i = 0; i < expectedStops.size(); i++) {
+            assertEquals(expectedStops.get(i).encode(),
+                    actualStops.get(i).encode());
+        }
+
+        List<PublicTransport> expected = sequential.getVehicles();
+        List<PublicTransport> actual = parallel.getVehicles();
+        assertEquals(3000, actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).encode(), actual.get(i).encode());
+        }
+        //each vehicle is on its route, in the order of the file
+        Route loop = parallel.getRoutes().get(0);
+        assertEquals(2000, loop.getTransports().size());
+        assertEquals("bus,1,30,1,REG1", loop.getTransports().get(0).encode());
+        assertEquals(2, actualStops.get(1).getNeighbours().size());
+        assertEquals(6, actualStops.get(0).getRoutingTable()
+                .costTo(actualStops.get(3)));
+    }
+
+    @Test
+    public void formatErrorsAreReported() throws Exception {
+        //a bad stop, late in the section
+        lines.set(4000, "stop:1");
+        write();
+        try {
+            new Network(file.getPath(), null, 4);
+            fail();
+        } catch (TransportFormatException expected) {
+        }
+
+        //a vehicle on a route of another type
+        lines.set(4000, "stop3999:3999:2");
+        lines.set(lines.size() - 10, "train,1,60,1,3");
+        write();
+        try {
+            new Network(file.getPath(), null, 4);
+            fail();
+        } catch (TransportFormatException expected) {
+        }
+
+        //a missing vehicle line
+        lines.remove(lines.size() - 1);
+        lines.set(lines.size() - 9, "bus,1,30,1,REG1");
+        write();
+        try {
+            new Network(file.getPath(), null, 4);
+            fail();
+        } catch (TransportFormatException expected) {
+        }
+    }
+}
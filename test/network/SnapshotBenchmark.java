@@ -0,0 +1,106 @@
+package network;
+
+import routes.Route;
+import stops.RoutingBackend;
+import stops.Stop;
+import vehicles.Bus;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times starting a network from a binary snapshot with routing tables (see
+ * {@link Network#saveSnapshot(String, boolean)}), against loading the same
+ * network from the text format, which computes every routing table.
+ *
+ * <p>The network is the grid from {@link Grids} (bus routes along the rows,
+ * train routes along the columns) with a bus on every row route, routed
+ * eagerly. After each load, random routing queries are timed, the first of
+ * which read their rows of the snapshot from the disk.
+ *
+ * <p>Usage: {@code java network.SnapshotBenchmark [stops...]}, e.g.
+ * {@code java network.SnapshotBenchmark 2500 10000}. The routing backend can
+ * be chosen with {@code -Dbackend=HASH_MAP} (default ARRAYS).
+ */
+public class SnapshotBenchmark {
+    // queries per round
+    private static final int QUERIES = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[] {2500, 10000}
+                : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        RoutingBackend backend = RoutingBackend.valueOf(
+                System.getProperty("backend", "ARRAYS"));
+
+        for (int size : sizes) {
+            int side = (int) Math.ceil(Math.sqrt(size));
+            Network network = Grids.grid(backend, 1, side);
+            List<Route> routes = network.getRoutes();
+            for (int row = 0; row < side; row++) {
+                network.addVehicle(new Bus(row, 40, routes.get(2 * row),
+                        "REG" + row));
+            }
+            network.setLazyRouting(0);
+            network.rebuildRouting(0);
+            System.out.printf("%d stops:%n", network.getStops().size());
+
+            File text = File.createTempFile("network", ".txt");
+            text.deleteOnExit();
+            File snapshot = File.createTempFile("network", ".snapshot");
+            snapshot.deleteOnExit();
+
+            long start = System.nanoTime();
+            network.save(text.getPath());
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("  text saved in %d ms, %d KB%n",
+                    elapsed / 1_000_000, text.length() >> 10);
+            start = System.nanoTime();
+            network.saveSnapshot(snapshot.getPath(), true);
+            elapsed = System.nanoTime() - start;
+            System.out.printf("  snapshot saved in %d ms, %d MB%n",
+                    elapsed / 1_000_000, snapshot.length() >> 20);
+            network = null;
+
+            start = System.nanoTime();
+            Network loaded = Network.loadSnapshot(snapshot.getPath(), backend);
+            elapsed = System.nanoTime() - start;
+            System.out.printf("  snapshot loaded in %.1f ms%n", elapsed / 1e6);
+            timeQueries(loaded, size);
+            loaded = null;
+
+            start = System.nanoTime();
+            loaded = new Network(text.getPath(), backend);
+            elapsed = System.nanoTime() - start;
+            System.out.printf("  text loaded in %d ms%n", elapsed / 1_000_000);
+            timeQueries(loaded, size);
+
+            text.delete();
+            snapshot.delete();
+        }
+    }
+
+    /*
+     * Times rounds of random routing queries between the stops of the given
+     * network.
+     */
+    private static void timeQueries(Network network, int seed) {
+        List<Stop> stops = network.getStops();
+        Random random = new Random(seed);
+        for (int round = 1; round <= 2; round++) {
+            long total = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                Stop from = stops.get(random.nextInt(stops.size()));
+                Stop to = stops.get(random.nextInt(stops.size()));
+                total += from.getRoutingTable().costTo(to);
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("    round %d: %.3f us/query (%d)%n", round,
+                    elapsed / 1e3 / QUERIES, total);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package network;
+
+import exceptions.TransportFormatException;
+import org.junit.Before;
+import org.junit.Test;
+import routes.BusRoute;
+import routes.Route;
+import stops.RoutingBackend;
+import stops.Stop;
+import vehicles.Bus;
+import vehicles.PublicTransport;
+import vehicles.Train;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SnapshotTest {
+
+    private Network network;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        network = Grids.grid(RoutingBackend.ARRAYS, 4);
+        network.addVehicle(new Bus(1, 30, network.getRoutes().get(0), "ABC"));
+        network.addVehicle(new Train(2, 60, network.getRoutes().get(1), 3));
+
+        file = File.createTempFile("network", ".snapshot");
+        file.deleteOnExit();
+    }
+
+    @Test
+    public void routingTablesAreMapped() throws Exception {
+        network.saveSnapshot(file.getPath(), true);
+        Network loaded = Network.loadSnapshot(file.getPath(),
+                RoutingBackend.ARRAYS);
+
+        List<Stop> expected = network.getStops();
+        List<Stop> actual = loaded.getStops();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getName(), actual.get(i).getName());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.get(i).getRoutingTable()
+                                .costTo(expected.get(j)),
+                        actual.get(i).getRoutingTable().costTo(actual.get(j)));
+                assertEquals(expected.get(i).getRoutingTable()
+                                .nextStop(expected.get(j)).getName(),
+                        actual.get(i).getRoutingTable()
+                                .nextStop(actual.get(j)).getName());
+            }
+        }
+        assertEquals(8, loaded.getRoutes().size());
+        List<PublicTransport> vehicles = loaded.getVehicles();
+        assertEquals("bus,1,30,0,ABC", vehicles.get(0).encode());
+        assertEquals("train,2,60,4,3", vehicles.get(1).encode());
+
+        //tables can still change once loaded
+        Stop extra = new Stop("extra", 1, 1);
+        loaded.addStop(extra);
+        Route spur = new BusRoute("spur", 9);
+        spur.addStop(actual.get(0));
+        spur.addStop(extra);
+        loaded.addRoute(spur);
+        assertEquals(17, actual.get(15).getRoutingTable().costTo(extra));
+        assertEquals(17, extra.getRoutingTable().costTo(actual.get(15)));
+    }
+
+    @Test
+    public void onlyRouteLinksAreSaved() throws Exception {
+        network.getStops().get(0).addNeighbouringStop(
+                network.getStops().get(15));
+        try {
+            network.saveSnapshot(file.getPath(), true);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        //without the tables, the snapshot is loaded as the text would be
+        network.saveSnapshot(file.getPath(), false);
+        Network loaded = Network.loadSnapshot(file.getPath(), null);
+        Stop first = loaded.getStops().get(0);
+        assertEquals(2, first.getNeighbours().size());
+        assertEquals(15, first.getRoutingTable().costTo(
+                loaded.getStops().get(15)));
+
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write("1\nstop:0:0\n0\n0\n");
+        }
+        try {
+            Network.loadSnapshot(file.getPath(), null);
+            fail();
+        } catch (TransportFormatException expected) {
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package network;
+
+import utilities.Heap;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Times loading a network file of hundreds of megabytes through
+ * {@link Network#Network(String)} and saving it again with
+ * {@link Network#save(String)}, and reports the most heap used while doing
+ * each.
+ *
+ * <p>The generated network is a small grid of stops (as in {@link Grids}),
+ * with a bus route along every row and a bus per row. The file is then padded out to the requested size with shuttle
+ * bus routes, each running back and forth along the first few stops of the
+ * first row, so the file is mostly route lines to be tokenized while the
+ * network itself (and routing it) stays small.
+ *
+ * <p>Usage: {@code java network.StreamingLoadBenchmark [megabytes...]}, e.g.
+ * {@code java network.StreamingLoadBenchmark 100 300}. The side of the grid
+ * can be set with {@code -Dside=} (default 32).
+ */
+public class StreamingLoadBenchmark {
+    // stops along each shuttle route
+    private static final int SHUTTLE_STOPS = 10_000;
+
+    // distinct stops each shuttle runs back and forth along
+    private static final int SHUTTLE_SPAN = 4;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[] {100, 300}
+                : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        int side = Integer.getInteger("side", 32);
+
+        for (int megabytes : sizes) {
+            File file = File.createTempFile("network", ".txt");
+            file.deleteOnExit();
+            int routes = writeShuttles(file, side, (long) megabytes << 20);
+            double fileMegabytes = file.length() / (double) (1 << 20);
+
+            System.gc();
+            for (MemoryPoolMXBean pool
+                    : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+            long start = System.nanoTime();
+            Network network = new Network(file.getPath());
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%.0f MB, %d routes: loaded in %d ms"
+                            + " (%.1f MB/s), peak heap %d MB%n",
+                    fileMegabytes, network.getRoutes().size(),
+                    elapsed / 1_000_000, fileMegabytes / (elapsed / 1e9),
+                    peakHeap() >> 20);
+            if (network.getRoutes().size() != routes) {
+                throw new AssertionError("unexpected route count");
+            }
+
+            System.gc();
+            for (MemoryPoolMXBean pool
+                    : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+            long before = Heap.used();
+            start = System.nanoTime();
+            network.save(file.getPath());
+            elapsed = System.nanoTime() - start;
+            System.out.printf("  saved in %d ms, peak heap %d MB over the"
+                            + " %d MB in use%n", elapsed / 1_000_000,
+                    (peakHeap() - before) >> 20, before >> 20);
+            file.delete();
+        }
+    }
+
+    /*
+     * Returns the most heap used since the peaks were last reset, summed over
+     * the heap's memory pools.
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /*
+     * Writes a side x side grid network, padded with shuttle routes until the
+     * file is at least the given number of bytes, to the given file, and
+     * returns the number of routes written.
+     */
+    private static int writeShuttles(File file, int side, long bytes)
+            throws IOException {
+        // each shuttle stop is written as "s0_{col}|"
+        long shuttleBytes = (long) SHUTTLE_STOPS * 5;
+        int shuttles = (int) Math.max(1, bytes / shuttleBytes);
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            Grids.writeStops(writer, side);
+            writer.write(side + shuttles + "\n");
+            for (int row = 0; row < side; row++) {
+                Grids.writeRow(writer, row, side);
+            }
+            for (int shuttle = 0; shuttle < shuttles; shuttle++) {
+                writer.write("bus,shuttle" + shuttle + "," + (side + shuttle)
+                        + ":");
+                for (int i = 0; i < SHUTTLE_STOPS; i++) {
+                    // 0, 1, ..., SPAN - 1, SPAN - 2, ..., 1, 0, 1, ...
+                    int col = i % (2 * SHUTTLE_SPAN - 2);
+                    if (col >= SHUTTLE_SPAN) {
+                        col = 2 * SHUTTLE_SPAN - 2 - col;
+                    }
+                    writer.write((i == 0 ? "" : "|") + "s0_" + col);
+                }
+                writer.newLine();
+            }
+
+            Grids.writeBuses(writer, side);
+        }
+        return side + shuttles;
+    }
+}
@@ -0,0 +1,112 @@
+package network;
+
+import org.junit.Before;
+import org.junit.Test;
+import routes.BusRoute;
+import routes.Route;
+import routes.TrainRoute;
+import stops.Stop;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TransferRouterTest {
+
+    private Network network;
+    private Stop lakes;
+    private Stop city;
+    private Stop valley;
+    private Stop toowong;
+    private Route bus;
+    private Route train;
+    private Route express;
+
+    @Before
+    public void setUp() throws Exception {
+        network = new Network();
+        lakes = new Stop("UQLake", 0, 0);
+        city = new Stop("City", 2, 0);
+        valley = new Stop("Valley", 2, 2);
+        toowong = new Stop("Toowong", 0, 5);
+        network.addStops(Arrays.asList(lakes, city, valley, toowong));
+        bus = new BusRoute("Goma", 1);
+        bus.addStop(lakes);
+        bus.addStop(city);
+        train = new TrainRoute("Milo", 2);
+        train.addStop(city);
+        train.addStop(valley);
+        express = new BusRoute("Papi", 3);
+        express.addStop(lakes);
+        express.addStop(toowong);
+        express.addStop(valley);
+        network.addRoute(bus);
+        network.addRoute(train);
+        network.addRoute(express);
+    }
+
+    @Test
+    public void findItineraries() {
+        List<Itinerary> itineraries = network.findItineraries(lakes, valley,
+                3);
+        //a single route, or one change for less
+        assertEquals(2, itineraries.size());
+        Itinerary direct = itineraries.get(0);
+        assertEquals(0, direct.getTransfers());
+        assertEquals(10, direct.getCost());
+        assertSame(express, direct.getLegs().get(0).getRoute());
+        assertEquals(Arrays.asList(lakes, toowong, valley),
+                direct.getLegs().get(0).getStops());
+        Itinerary cheapest = itineraries.get(1);
+        assertEquals(1, cheapest.getTransfers());
+        assertEquals(4, cheapest.getCost());
+        assertSame(bus, cheapest.getLegs().get(0).getRoute());
+        assertSame(city, cheapest.getLegs().get(1).getBoardingStop());
+        assertSame(valley, cheapest.getLegs().get(1).getAlightingStop());
+
+        //routes can be ridden backwards, and changes limited
+        itineraries = network.findItineraries(valley, lakes, 0);
+        assertEquals(1, itineraries.size());
+        assertEquals(Arrays.asList(valley, toowong, lakes),
+                itineraries.get(0).getLegs().get(0).getStops());
+
+        assertEquals(0, network.findItineraries(lakes, lakes, 3).get(0)
+                .getLegs().size());
+        assertTrue(network.findItineraries(lakes, new Stop("x", 1, 1), 3)
+                .isEmpty());
+    }
+
+    @Test
+    public void removedStopsAreNotRouted() {
+        network.removeStop(toowong);
+        List<Itinerary> itineraries = network.findItineraries(lakes, valley,
+                3);
+        //the express now goes straight past, as cheaply as changing
+        assertEquals(1, itineraries.size());
+        assertEquals(4, itineraries.get(0).getCost());
+        assertEquals(Arrays.asList(lakes, valley),
+                itineraries.get(0).getLegs().get(0).getStops());
+    }
+
+    @Test
+    public void stopsAddedToRoutesAreRouted() {
+        assertEquals(2, network.findItineraries(lakes, valley, 3).size());
+        //extending the bus route directly still rebuilds the router
+        bus.addStop(valley);
+        List<Itinerary> itineraries = network.findItineraries(lakes, valley,
+                3);
+        assertEquals(1, itineraries.size());
+        assertEquals(0, itineraries.get(0).getTransfers());
+        assertEquals(4, itineraries.get(0).getCost());
+        assertSame(bus, itineraries.get(0).getLegs().get(0).getRoute());
+
+        //as does taking a stop off a route directly
+        bus.removeStop(city);
+        express.removeStop(toowong);
+        itineraries = network.findItineraries(lakes, valley, 3);
+        assertEquals(1, itineraries.size());
+        assertEquals(Arrays.asList(lakes, valley),
+                itineraries.get(0).getLegs().get(0).getStops());
+    }
+}
@@ -0,0 +1,64 @@
+package network;
+
+import stops.RoutingBackend;
+import stops.Stop;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times transfer-aware itinerary queries (see
+ * {@link Network#findItineraries(Stop, Stop, int)}).
+ *
+ * <p>The network is the grid from {@link Grids}, with a bus route along every
+ * row and a train route along every column, so any two stops are at most one
+ * change apart. Pairs of stops are picked at random, and the average time per
+ * query and number of itineraries returned are printed. The first query, which
+ * builds the router, is timed separately.
+ *
+ * <p>Usage: {@code java network.TransferRoutingBenchmark [stops...]}, e.g.
+ * {@code java network.TransferRoutingBenchmark 10000 50000}. The most
+ * changes considered can be set with {@code -Dtransfers=} (default 4).
+ */
+public class TransferRoutingBenchmark {
+    // queries per round
+    private static final int QUERIES = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[] {10000, 50000}
+                : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        int transfers = Integer.getInteger("transfers", 4);
+
+        for (int size : sizes) {
+            Network network = Grids.grid(RoutingBackend.ARRAYS,
+                    1, (int) Math.ceil(Math.sqrt(size)));
+            List<Stop> stops = network.getStops();
+            long start = System.nanoTime();
+            network.findItineraries(stops.get(0), stops.get(1), transfers);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%d stops, %d routes: router built in %d ms%n",
+                    stops.size(), network.getRoutes().size(),
+                    elapsed / 1_000_000);
+
+            Random random = new Random(size);
+            for (int round = 1; round <= 3; round++) {
+                long itineraries = 0;
+                start = System.nanoTime();
+                for (int i = 0; i < QUERIES; i++) {
+                    Stop from = stops.get(random.nextInt(stops.size()));
+                    Stop to = stops.get(random.nextInt(stops.size()));
+                    itineraries += network.findItineraries(from, to,
+                            transfers).size();
+                }
+                elapsed = System.nanoTime() - start;
+                System.out.printf("  round %d: %.2f us/query,"
+                                + " %.2f itineraries/query%n", round,
+                        elapsed / 1e3 / QUERIES,
+                        (double) itineraries / QUERIES);
+            }
+        }
+    }
+}
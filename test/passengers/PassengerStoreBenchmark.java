@@ -0,0 +1,80 @@
+package passengers;
+
+import network.Network;
+import stops.Stop;
+import utilities.Heap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the heap taken up by a day's passengers when they are kept as
+ * {@link Passenger} and {@link ConcessionPassenger} objects with the heap
+ * taken up when they are kept in a {@link PassengerStore}.
+ *
+ * <p>The given number of passengers are each headed for one of the stops of
+ * a network at random, and each is named after one of a pool of names at
+ * random (re-created for each passenger, as names read from a file would be).
+ * One in ten is a concession passenger.
+ *
+ * <p>Usage: {@code java passengers.PassengerStoreBenchmark [passengers...]},
+ * e.g. {@code java passengers.PassengerStoreBenchmark 1000000}. The number of
+ * stops can be set with {@code -Dstops=} (default 200), and the number of
+ * distinct names with {@code -Dnames=} (default 5000).
+ */
+public class PassengerStoreBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[] {100_000, 1_000_000}
+                : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        int stopCount = Integer.getInteger("stops", 200);
+        int nameCount = Integer.getInteger("names", 5000);
+
+        Network network = new Network();
+        List<Stop> stops = new ArrayList<>();
+        for (int i = 0; i < stopCount; i++) {
+            Stop stop = new Stop("s" + i, i, 0);
+            network.addStop(stop);
+            stops.add(stop);
+        }
+
+        for (int size : sizes) {
+            long before = Heap.used();
+            Random random = new Random(size);
+            List<Passenger> objects = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                String name = "name" + random.nextInt(nameCount);
+                Stop destination = stops.get(random.nextInt(stopCount));
+                objects.add(i % 10 == 0
+                        ? new ConcessionPassenger(name, destination, 420000 + i)
+                        : new Passenger(name, destination));
+            }
+            long asObjects = Heap.used() - before;
+            //keep the passengers reachable until they have been measured
+            int objectCount = objects.size();
+            objects = null;
+
+            before = Heap.used();
+            random = new Random(size);
+            PassengerStore store = new PassengerStore(network.getGraph());
+            for (int i = 0; i < size; i++) {
+                String name = "name" + random.nextInt(nameCount);
+                Stop destination = stops.get(random.nextInt(stopCount));
+                if (i % 10 == 0) {
+                    store.addConcession(name, destination, 420000 + i);
+                } else {
+                    store.add(name, destination);
+                }
+            }
+            long asStore = Heap.used() - before;
+
+            System.out.printf("%d passengers: %d KB as objects, %d KB in a "
+                    + "store (%d names)%n", objectCount, asObjects / 1024,
+                    asStore / 1024, store.nameCount());
+        }
+    }
+}
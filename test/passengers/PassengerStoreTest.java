@@ -0,0 +1,92 @@
+package passengers;
+
+import network.Network;
+import org.junit.Before;
+import org.junit.Test;
+import routes.BusRoute;
+import stops.Stop;
+import vehicles.Bus;
+import vehicles.PublicTransport;
+
+import static org.junit.Assert.*;
+
+public class PassengerStoreTest {
+
+    private Stop north;
+    private Stop south;
+    private PassengerStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        Network network = new Network();
+        north = new Stop("North", 0, 4);
+        south = new Stop("South", 0, -4);
+        network.addStop(north);
+        network.addStop(south);
+        store = new PassengerStore(network.getGraph());
+    }
+
+    @Test
+    public void handlesReadAndWriteTheStore() {
+        int first = store.add("Ada\n", north);
+        int second = store.add("Ada", null);
+        assertEquals(0, first);
+        assertEquals(1, second);
+        assertEquals(2, store.size());
+        //both names are the same once cleaned, so are stored once
+        assertEquals(1, store.nameCount());
+
+        Passenger passenger = store.get(first);
+        assertEquals("Ada", passenger.getName());
+        assertSame(north, passenger.getDestination());
+        assertEquals(north.getIndex(), store.getDestinationIndex(first));
+        assertEquals("Passenger named Ada", passenger.toString());
+        assertNull(store.get(second).getDestination());
+
+        passenger.setDestination(south);
+        assertSame(south, store.getDestination(first));
+        assertEquals(store.get(first), passenger);
+        assertFalse(store.get(second).equals(passenger));
+        assertEquals(first, store.idOf(passenger));
+        assertEquals(-1, store.idOf(new Passenger("Ada", south)));
+
+        //stops which are not in the graph are still stored
+        Stop elsewhere = new Stop("Elsewhere", 9, 9);
+        passenger.setDestination(elsewhere);
+        assertSame(elsewhere, passenger.getDestination());
+        assertEquals(-1, store.getDestinationIndex(first));
+    }
+
+    @Test
+    public void concessionHandlesValidateLikeConcessionPassengers() {
+        int valid = store.addConcession("Bo", south, 420000);
+        int invalid = store.addConcession("Cy", south, 430000);
+        assertTrue(store.get(valid) instanceof ConcessionPassenger);
+        assertFalse(store.get(store.add("Di", south))
+                instanceof ConcessionPassenger);
+
+        ConcessionPassenger concession =
+                (ConcessionPassenger) store.get(valid);
+        assertTrue(concession.isValid());
+        assertFalse(((ConcessionPassenger) store.get(invalid)).isValid());
+        concession.expire();
+        assertFalse(store.isValid(valid));
+        concession.renew(42);
+        assertFalse(concession.isValid());
+        concession.renew(4212345);
+        assertTrue(store.isValid(valid));
+    }
+
+    @Test
+    public void handlesRideVehicles() throws Exception {
+        PublicTransport bus = new Bus(1, 2, new BusRoute("Loop", 1), "ABC");
+        bus.addPassenger(store.get(store.add("Ed", north)));
+        assertTrue(bus.removePassenger(store.get(0)));
+        assertEquals(0, bus.passengerCount());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void unknownIdsAreRejected() {
+        store.get(0);
+    }
+}
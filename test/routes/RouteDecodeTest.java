@@ -0,0 +1,89 @@
+package routes;
+
+import exceptions.TransportFormatException;
+import org.junit.Before;
+import org.junit.Test;
+import stops.Stop;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RouteDecodeTest {
+
+    private List<Stop> stops;
+    private Map<String, Stop> stopsByName;
+
+    @Before
+    public void setUp() {
+        //two stops share a name, and the first one should always be used
+        stops = Arrays.asList(new Stop("UQLake", 0, 0),
+                new Stop("City", 2, 0), new Stop("City", 5, 5),
+                new Stop("Valley", 2, 2));
+        stopsByName = new HashMap<>();
+        for (Stop stop : stops) {
+            stopsByName.putIfAbsent(stop.getName(), stop);
+        }
+    }
+
+    @Test
+    public void indexedStopsDecodeLikeTheList() {
+        String[] lines = {"bus,red,1:UQLake|City|Valley", "bus,red,1:",
+                "bus,red,1", "bus,,1:City", "train,red, 7 :City",
+                "ferry,red,3:Valley|UQLake", "bus,red,1:City|City",
+                "bus,red,1:UQLake||City", "bus,red,1:UQLake|",
+                "bus,red,1:|UQLake", "bus,red,1:Toowong", "bus,red,1::City",
+                "bus,red,1:City:Valley", "tram,red,1:City", "bus,red,x:City",
+                "bus,red:City", "bus,red,1,2:City", "bus,red,1,:City",
+                "bus,red,1: City", "bus,red,1:", "", ":", ",,:", "bus"};
+        for (String line : lines) {
+            Route expected = decodeOrNull(line, stops);
+            Route actual = null;
+            try {
+                actual = Route.decode(line, stopsByName);
+            } catch (TransportFormatException e) {
+                //rejected, as the list version should have been
+            }
+            if (expected == null) {
+                assertNull(line, actual);
+                continue;
+            }
+            assertNotNull(line, actual);
+            assertEquals(line, expected.toString(), actual.toString());
+            List<Stop> want = expected.getStopsOnRoute();
+            List<Stop> got = actual.getStopsOnRoute();
+            assertEquals(line, want.size(), got.size());
+            for (int i = 0; i < want.size(); i++) {
+                assertSame(line, want.get(i), got.get(i));
+            }
+        }
+        assertSame(stops.get(1), decodeOrNull("bus,red,1:City", stops)
+                .getStopsOnRoute().get(0));
+    }
+
+    @Test(expected = TransportFormatException.class)
+    public void nullIndexIsRejected() throws Exception {
+        Route.decode("bus,red,1:City", (Map<String, Stop>) null);
+    }
+
+    @Test(expected = TransportFormatException.class)
+    public void nullStringIsRejected() throws Exception {
+        Route.decode(null, new HashMap<String, Stop>());
+    }
+
+    /*
+     * Decodes the given line with the list of stops, or returns null if it is
+     * rejected.
+     */
+    private static Route decodeOrNull(String line, List<Stop> stops) {
+        try {
+            return Route.decode(line, new ArrayList<>(stops));
+        } catch (TransportFormatException e) {
+            return null;
+        }
+    }
+}
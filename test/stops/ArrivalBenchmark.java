@@ -0,0 +1,75 @@
+package stops;
+
+import passengers.Passenger;
+import routes.BusRoute;
+import routes.Route;
+import vehicles.PublicTransport;
+import vehicles.Train;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times {@link Stop#transportArrive(PublicTransport)} when a full train
+ * unloads its passengers at an interchange, where they are headed for a
+ * handful of the interchange's neighbours.
+ *
+ * <p>Each round, a new interchange is linked to a ring of neighbouring stops
+ * (in both directions), and a train carrying the given number of passengers,
+ * each headed for one of the first few neighbours at random, arrives at it.
+ * Only the arrivals themselves are timed.
+ *
+ * <p>Usage: {@code java stops.ArrivalBenchmark [passengers...]}, e.g.
+ * {@code java stops.ArrivalBenchmark 100 1000}. The number of neighbours can
+ * be set with {@code -Dneighbours=} (default 32), and the number of them the
+ * passengers are headed for with {@code -Ddestinations=} (default 8).
+ */
+public class ArrivalBenchmark {
+    // arrivals per size
+    private static final int ARRIVALS = 5_000;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[] {100, 1000}
+                : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        int neighbourCount = Integer.getInteger("neighbours", 32);
+        int destinations = Math.min(neighbourCount,
+                Integer.getInteger("destinations", 8));
+
+        for (int size : sizes) {
+            Random random = new Random(size);
+            Route route = new BusRoute("line", 1);
+            long waiting = 0;
+            long elapsed = 0;
+            for (int i = 0; i < ARRIVALS; i++) {
+                Stop interchange = new Stop("interchange", 0, 0);
+                List<Stop> neighbours = new ArrayList<>();
+                for (int j = 0; j < neighbourCount; j++) {
+                    Stop neighbour = new Stop("n" + j, j + 1, 1);
+                    interchange.addNeighbouringStop(neighbour);
+                    neighbour.addNeighbouringStop(interchange);
+                    neighbours.add(neighbour);
+                }
+
+                List<Passenger> passengers = new ArrayList<>(size);
+                for (int j = 0; j < size; j++) {
+                    passengers.add(new Passenger("p" + j,
+                            neighbours.get(random.nextInt(destinations))));
+                }
+                PublicTransport train = new Train(i, size, route, 4);
+                train.board(passengers, size);
+
+                long start = System.nanoTime();
+                interchange.transportArrive(train);
+                elapsed += System.nanoTime() - start;
+                waiting += interchange.getWaitingPassengers().size();
+            }
+
+            System.out.printf("%d passengers: %.2f us/arrival (%d waiting)%n",
+                    size, elapsed / 1e3 / ARRIVALS, waiting);
+        }
+    }
+}
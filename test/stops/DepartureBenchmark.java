@@ -0,0 +1,76 @@
+package stops;
+
+import passengers.Passenger;
+import routes.BusRoute;
+import routes.Route;
+import vehicles.Bus;
+import vehicles.PublicTransport;
+
+import java.util.Random;
+
+/**
+ * Times {@link Stop#transportDepart(PublicTransport, Stop)} at a busy
+ * interchange, where thousands of passengers wait for many different next
+ * stops and each departure only boards a few of them.
+ *
+ * <p>The interchange is kept topped up to the given number of waiting
+ * passengers, each headed for one of a ring of next stops at random (which
+ * are not linked to it, so the passengers' destinations are left as they
+ * are). Each round, a bus arrives, departs for the next stop in the ring
+ * with the passengers headed there (up to its capacity), and the passengers
+ * it took are replaced. Only the departures themselves are timed.
+ *
+ * <p>Usage: {@code java stops.DepartureBenchmark [waiting...]}, e.g.
+ * {@code java stops.DepartureBenchmark 1000 10000}. The number of next stops
+ * can be set with {@code -Dstops=} (default 64), and the capacity of each
+ * bus with {@code -Dcapacity=} (default 40).
+ */
+public class DepartureBenchmark {
+    // departures per size
+    private static final int DEPARTURES = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[] {1000, 10000}
+                : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        int neighbourCount = Integer.getInteger("stops", 64);
+        int capacity = Integer.getInteger("capacity", 40);
+
+        for (int waiting : sizes) {
+            Stop interchange = new Stop("interchange", 0, 0);
+            Stop[] neighbours = new Stop[neighbourCount];
+            Route route = new BusRoute("ring", 1);
+            for (int i = 0; i < neighbourCount; i++) {
+                neighbours[i] = new Stop("n" + i, i + 1, 1);
+            }
+
+            Random random = new Random(waiting);
+            for (int i = 0; i < waiting; i++) {
+                interchange.addPassenger(new Passenger("p" + i,
+                        neighbours[random.nextInt(neighbourCount)]));
+            }
+
+            long boarded = 0;
+            long elapsed = 0;
+            for (int i = 0; i < DEPARTURES; i++) {
+                PublicTransport bus = new Bus(i, capacity, route, "BUS" + i);
+                interchange.transportArrive(bus);
+                long start = System.nanoTime();
+                interchange.transportDepart(bus,
+                        neighbours[i % neighbourCount]);
+                elapsed += System.nanoTime() - start;
+                int taken = bus.getPassengers().size();
+                boarded += taken;
+                for (int j = 0; j < taken; j++) {
+                    interchange.addPassenger(new Passenger("q" + j,
+                            neighbours[random.nextInt(neighbourCount)]));
+                }
+            }
+
+            System.out.printf("%d waiting: %.2f us/departure (%d boarded)%n",
+                    waiting, elapsed / 1e3 / DEPARTURES, boarded);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package stops;
+
+import network.Network;
+import passengers.Passenger;
+import utilities.Heap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the heap taken up by a day's demand waiting at the stops of a
+ * network when it is held as {@link Passenger} objects with the heap taken up
+ * when it is only counted by destination (see {@link Stop#addFlow(int, int)}).
+ *
+ * <p>The network is the given number of unlinked stops (as only the waiting
+ * passengers are measured, not where they go). The given number of
+ * passengers are spread across the stops at random, each headed for another
+ * stop at random, first as passengers and then as counts.
+ *
+ * <p>Usage: {@code java stops.FlowBenchmark [passengers...]}, e.g.
+ * {@code java stops.FlowBenchmark 100000 1000000}. The number of stops can be
+ * set with {@code -Dstops=} (default 200).
+ */
+public class FlowBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[] {100_000, 1_000_000}
+                : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        int stopCount = Integer.getInteger("stops", 200);
+
+        for (int size : sizes) {
+            long objects = measure(stopCount, size, false);
+            long counts = measure(stopCount, size, true);
+            System.out.printf("%d passengers: %d KB as passengers, %d KB as "
+                    + "counts%n", size, objects / 1024, counts / 1024);
+        }
+    }
+
+    //the heap taken up by the given demand, placed as passengers or counts
+    private static long measure(int stopCount, int size, boolean counted)
+            throws Exception {
+        Network network = new Network();
+        List<Stop> stops = new ArrayList<>();
+        for (int i = 0; i < stopCount; i++) {
+            Stop stop = new Stop("s" + i, i, 0);
+            network.addStop(stop);
+            stops.add(stop);
+        }
+
+        long before = Heap.used();
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            Stop origin = stops.get(random.nextInt(stopCount));
+            Stop destination = stops.get(random.nextInt(stopCount));
+            if (counted) {
+                origin.addFlow(destination.getIndex(), 1);
+            } else {
+                origin.addPassenger(new Passenger("p" + i, destination));
+            }
+        }
+        long after = Heap.used();
+        //keep the stops reachable until they have been measured
+        if (stops.get(0).getWaitingFlowCount() < 0) {
+            throw new AssertionError();
+        }
+        return after - before;
+    }
+}
@@ -0,0 +1,498 @@
+package stops;
+
+import network.Grids;
+import network.Network;
+import org.junit.Test;
+import utilities.Heap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RoutingBackendTest {
+
+    @Test
+    public void sameRoutesInEveryBackend() throws Exception {
+        List<Stop> expected = Grids.grid(RoutingBackend.HASH_MAP, 8).getStops();
+        for (RoutingBackend backend : new RoutingBackend[] {
+                RoutingBackend.ARRAYS, RoutingBackend.OFF_HEAP}) {
+            List<Stop> actual = Grids.grid(backend, 8).getStops();
+            for (int i = 0; i < expected.size(); i++) {
+                RoutingTable want = expected.get(i).getRoutingTable();
+                RoutingTable got = actual.get(i).getRoutingTable();
+                assertEquals(want.getCosts().size(), got.getCosts().size());
+                for (int j = 0; j < expected.size(); j++) {
+                    assertEquals(want.costTo(expected.get(j)),
+                            got.costTo(actual.get(j)));
+                    assertEquals(want.nextStop(expected.get(j)).getName(),
+                            got.nextStop(actual.get(j)).getName());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void entriesOutsideTheNetwork() {
+        Network network = new Network(RoutingBackend.ARRAYS);
+        Stop stop = new Stop("UQLake", 5, 3);
+        Stop outside = new Stop("CampJil", 0, 2);
+        network.getGraph().add(stop);
+        RoutingTable table = stop.getRoutingTable();
+        //destinations and next stops outside the network are still stored
+        assertTrue(table.addOrUpdateEntry(outside, 23, stop));
+        assertTrue(table.addOrUpdateEntry(null, 6, outside));
+        assertEquals(23, table.costTo(outside));
+        assertEquals(stop, table.nextStop(outside));
+        assertEquals(3, table.getCosts().size());
+        //and the cost can only ever go down
+        assertFalse(table.addOrUpdateEntry(outside, 45, stop));
+        assertEquals(0, table.costTo(stop));
+    }
+
+    @Test
+    public void equalStopsShareEntriesOnlyInMaps() {
+        for (RoutingBackend backend : RoutingBackend.values()) {
+            Network network = new Network(backend);
+            Stop stop = new Stop("UQLake", 5, 3);
+            Stop inside = new Stop("CampJil", 0, 2);
+            Stop outside = new Stop("CampJil", 0, 2);
+            network.getGraph().add(stop);
+            network.getGraph().add(inside);
+            assertEquals(inside, outside);
+            RoutingTable table = stop.getRoutingTable();
+
+            //whichever of the equal stops is added first
+            for (boolean insideFirst : new boolean[] {true, false}) {
+                table.removeEntry(inside);
+                table.removeEntry(outside);
+                Stop first = insideFirst ? inside : outside;
+                Stop second = insideFirst ? outside : inside;
+                assertTrue(table.addOrUpdateEntry(first, 30, stop));
+                if (backend == RoutingBackend.HASH_MAP) {
+                    //the copy is the same destination, so only gets cheaper
+                    assertFalse(table.addOrUpdateEntry(second, 40, stop));
+                    assertTrue(table.addOrUpdateEntry(second, 20, stop));
+                    assertEquals(20, table.costTo(first));
+                } else {
+                    //the copy is a destination of its own
+                    assertTrue(table.addOrUpdateEntry(second, 40, stop));
+                    assertEquals(30, table.costTo(first));
+                    assertEquals(40, table.costTo(second));
+                    table.removeEntry(second);
+                    assertEquals(30, table.costTo(first));
+                    assertEquals(Integer.MAX_VALUE, table.costTo(second));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void lazyRoutesCostTheSame() throws Exception {
+        List<Stop> eager = Grids.grid(RoutingBackend.ARRAYS, 6).getStops();
+        Network network = Grids.grid(RoutingBackend.ARRAYS, 6);
+        network.setLazyRouting(1000);
+        List<Stop> lazy = network.getStops();
+        //the tables only hold each stop and its neighbours
+        assertEquals(3, lazy.get(0).getRoutingTable().getCosts().size());
+        for (int i = 0; i < eager.size(); i++) {
+            for (int j = 0; j < eager.size(); j++) {
+                assertEquals(eager.get(i).getRoutingTable().costTo(eager.get(j)),
+                        lazy.get(i).getRoutingTable().costTo(lazy.get(j)));
+            }
+        }
+        RoutingCache cache = network.getRoutingCache();
+        assertEquals(1000, cache.size());
+        assertTrue(cache.getEvictions() > 0);
+        //routes found along the way are cached too
+        assertTrue(cache.getHits() > 0);
+        assertEquals(36 * 36, cache.getHits() + cache.getMisses());
+        //a passenger is routed along the way
+        Stop next = lazy.get(0).getRoutingTable().nextStop(lazy.get(35));
+        assertTrue(next.getNeighbours().contains(lazy.get(0)));
+        //new links clear the cache
+        lazy.get(0).addNeighbouringStop(lazy.get(35));
+        assertEquals(0, cache.size());
+        assertEquals(lazy.get(0).distanceTo(lazy.get(35)),
+                lazy.get(0).getRoutingTable().costTo(lazy.get(35)));
+    }
+
+    @Test
+    public void lazyCacheKeepsRoutesInUse() throws Exception {
+        //a long line of stops, with room for only a few routes
+        Network network = new Network(RoutingBackend.ARRAYS);
+        List<Stop> line = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            line.add(new Stop("s" + i, i, 0));
+        }
+        network.addStops(line);
+        network.setLazyRouting(8);
+        for (int i = 1; i < line.size(); i++) {
+            link(line.get(i - 1), line.get(i));
+        }
+        RoutingCache cache = network.getRoutingCache();
+        RoutingTable first = line.get(0).getRoutingTable();
+
+        //a long path only caches the routes from the first few stops on it
+        assertEquals(59, first.costTo(line.get(59)));
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getMisses());
+        assertEquals(57, line.get(2).getRoutingTable().costTo(line.get(59)));
+        assertEquals(1, cache.getHits());
+
+        //a route which keeps being used outlasts those which are not
+        for (int i = 10; i < 50; i++) {
+            assertEquals(59, first.costTo(line.get(59)));
+            assertEquals(i - 5, line.get(5).getRoutingTable().costTo(
+                    line.get(i)));
+            assertTrue(cache.size() <= 8);
+        }
+        assertEquals(41, cache.getMisses());
+        assertEquals(41, cache.getHits());
+        assertTrue(cache.getEvictions() > 0);
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(59, first.costTo(line.get(59)));
+    }
+
+    @Test
+    public void hierarchyRoutesCostTheSame() throws Exception {
+        Network network = Grids.grid(RoutingBackend.ARRAYS, 6);
+        List<Stop> stops = network.getStops();
+        ContractionHierarchy hierarchy = network.buildContractionHierarchy();
+        assertTrue(hierarchy.getShortcutCount() > 0);
+        for (Stop from : stops) {
+            for (Stop to : stops) {
+                int cost = from.getRoutingTable().costTo(to);
+                assertEquals(cost, hierarchy.costTo(from, to));
+                Stop next = hierarchy.nextStop(from, to);
+                if (next != from) {
+                    //the next stop is one step along a cheapest route
+                    assertTrue(next.getNeighbours().contains(from));
+                    assertEquals(cost, next.distanceTo(from)
+                            + next.getRoutingTable().costTo(to));
+                }
+            }
+        }
+        //new links drop the hierarchy
+        stops.get(0).addNeighbouringStop(stops.get(35));
+        assertFalse(hierarchy.isCurrent());
+        assertNull(network.getContractionHierarchy());
+    }
+
+    @Test
+    public void modeRoutesCostTheSame() throws Exception {
+        Network network = Grids.grid(RoutingBackend.ARRAYS, 6);
+        List<Stop> stops = network.getStops();
+        ModeRouting routing = network.buildModeRouting(2);
+        for (Stop from : stops) {
+            for (Stop to : stops) {
+                assertEquals(from.getRoutingTable().costTo(to),
+                        routing.costTo(from, to, ModeRouting.ALL));
+                assertEquals(from.getRoutingTable().costTo(to), routing.costTo(
+                        from, to, ModeRouting.BUS | ModeRouting.TRAIN));
+                //buses only run along the rows
+                assertEquals(from.getY() == to.getY() ? from.distanceTo(to)
+                        : Integer.MAX_VALUE,
+                        routing.costTo(from, to, ModeRouting.BUS));
+                assertEquals(from == to ? 0 : Integer.MAX_VALUE,
+                        routing.costTo(from, to, ModeRouting.FERRY));
+            }
+        }
+        Stop next = routing.nextStop(stops.get(0), stops.get(5),
+                ModeRouting.BUS);
+        assertSame(stops.get(1), next);
+        assertNull(routing.nextStop(stops.get(0), stops.get(6),
+                ModeRouting.BUS));
+        //identical pages are only stored once
+        assertTrue(routing.getPageCount() < routing.getPageReferenceCount());
+        //new links drop the tables
+        stops.get(0).addNeighbouringStop(stops.get(35));
+        assertFalse(routing.isCurrent());
+        assertNull(network.getModeRouting());
+    }
+
+    @Test
+    public void pathsCostTheSame() throws Exception {
+        Network network = Grids.grid(RoutingBackend.ARRAYS, 6);
+        List<Stop> stops = network.getStops();
+        for (Stop from : stops) {
+            for (Stop to : stops) {
+                Journey journey = network.findPath(from, to);
+                assertEquals(from.getRoutingTable().costTo(to),
+                        journey.getCost());
+                assertSame(from, journey.getStart());
+                assertSame(to, journey.getEnd());
+                //every step is along a link
+                int cost = 0;
+                List<Stop> path = journey.getStops();
+                for (int i = 1; i < path.size(); i++) {
+                    assertTrue(path.get(i - 1).getNeighbours()
+                            .contains(path.get(i)));
+                    cost += path.get(i - 1).distanceTo(path.get(i));
+                }
+                assertEquals(cost, journey.getCost());
+            }
+        }
+        assertNull(network.findPath(stops.get(0), new Stop("x", 0, 0)));
+    }
+
+    @Test
+    public void arraysUseLessMemoryThanMaps() throws Exception {
+        long before = Heap.used();
+        Network maps = Grids.grid(RoutingBackend.HASH_MAP, 20);
+        long mapBytes = Heap.used() - before;
+        assertEquals(400, maps.getStops().size());
+        maps = null;
+
+        before = Heap.used();
+        Network arrays = Grids.grid(RoutingBackend.ARRAYS, 20);
+        long arrayBytes = Heap.used() - before;
+        assertEquals(400, arrays.getStops().size());
+        arrays = null;
+
+        before = Heap.used();
+        long directBefore = Heap.direct();
+        Network offHeap = Grids.grid(RoutingBackend.OFF_HEAP, 20);
+        long offHeapBytes = Heap.used() - before;
+        long directBytes = Heap.direct() - directBefore;
+        assertEquals(400, offHeap.getStops().size());
+
+        //every stop reaches all 400 stops, at 8 bytes an entry
+        long entryBytes = 400L * 400 * 8;
+        assertTrue(arrayBytes * 2 < mapBytes);
+        assertTrue(arrayBytes > entryBytes);
+        //off the heap, the entries move out of it into direct buffers
+        assertTrue(directBytes >= entryBytes);
+        assertTrue(offHeapBytes + entryBytes < arrayBytes);
+    }
+
+    @Test
+    public void incrementalRoutesMatchSynchronisedRoutes() throws Exception {
+        for (RoutingBackend backend : RoutingBackend.values()) {
+            //two components, each a line of stops, routed from scratch
+            Network network = new Network(backend);
+            List<Stop> stops = scattered(network, 40, 1);
+            network.beginBatch();
+            for (int i = 1; i < stops.size(); i++) {
+                if (i != stops.size() / 2) {
+                    link(stops.get(i - 1), stops.get(i));
+                }
+            }
+            network.commit();
+
+            //then links added one at a time: shortcuts within each
+            //component are cheaper than the line they run beside, and the
+            //link across the middle joins the components
+            network.setIncrementalRouting(true);
+            Random random = new Random(2);
+            int half = stops.size() / 2;
+            for (int i = 0; i < 10; i++) {
+                int offset = i % 2 == 0 ? 0 : half;
+                link(stops.get(offset + random.nextInt(half)),
+                        stops.get(offset + random.nextInt(half)));
+            }
+            link(stops.get(half - 1), stops.get(half));
+            for (int i = 0; i < 10; i++) {
+                link(stops.get(random.nextInt(stops.size())),
+                        stops.get(random.nextInt(stops.size())));
+            }
+
+            //the same links, all synchronised at once
+            Network expected = new Network(backend);
+            List<Stop> copies = scattered(expected, 40, 1);
+            expected.beginBatch();
+            for (int i = 0; i < stops.size(); i++) {
+                for (Stop neighbour : stops.get(i).getNeighbours()) {
+                    copies.get(i).addNeighbouringStop(
+                            copies.get(stops.indexOf(neighbour)));
+                }
+            }
+            expected.commit();
+            assertSameTables(copies, stops);
+        }
+    }
+
+    @Test
+    public void removedLinksMatchSynchronisedRoutes() throws Exception {
+        for (RoutingBackend backend : RoutingBackend.values()) {
+            //a line of stops, linked one at a time in the default mode
+            Network network = new Network(backend);
+            List<Stop> stops = scattered(network, 30, 5);
+            for (int i = 1; i < stops.size(); i++) {
+                link(stops.get(i - 1), stops.get(i));
+            }
+            //then shortcuts between stops which are already reached along
+            //the line, and some of the links taken away again
+            Random random = new Random(6);
+            for (int i = 0; i < 15; i++) {
+                link(stops.get(random.nextInt(stops.size())),
+                        stops.get(random.nextInt(stops.size())));
+            }
+            for (int i = 0; i < 10; i++) {
+                Stop stop = stops.get(random.nextInt(stops.size()));
+                List<Stop> neighbours = new ArrayList<>(stop.getNeighbours());
+                if (!neighbours.isEmpty()) {
+                    Stop neighbour = neighbours.get(
+                            random.nextInt(neighbours.size()));
+                    stop.removeNeighbouringStop(neighbour);
+                    neighbour.removeNeighbouringStop(stop);
+                }
+            }
+
+            //the remaining links, all synchronised at once
+            Network expected = new Network(backend);
+            List<Stop> copies = scattered(expected, 30, 5);
+            expected.beginBatch();
+            for (int i = 0; i < stops.size(); i++) {
+                for (Stop neighbour : stops.get(i).getNeighbours()) {
+                    copies.get(i).addNeighbouringStop(
+                            copies.get(stops.indexOf(neighbour)));
+                }
+            }
+            expected.commit();
+            assertSameTables(copies, stops);
+        }
+    }
+
+    @Test
+    public void rebuiltRoutesMatchSynchronisedRoutes() throws Exception {
+        for (RoutingBackend backend : RoutingBackend.values()) {
+            Network expected = randomNetwork(backend, null);
+            for (int parallelism : new int[] {1, 4}) {
+                Network network = randomNetwork(backend, null);
+                network.rebuildRouting(parallelism);
+                assertSameTables(expected.getStops(), network.getStops());
+            }
+        }
+    }
+
+    @Test
+    public void rebuiltRoutesMatchSynchronisedRoutesOutsideTheGraph()
+            throws Exception {
+        for (RoutingBackend backend : RoutingBackend.values()) {
+            //a stop which was never added to the network is linked to it
+            Stop outside = new Stop("outside", 500, 500);
+            Network expected = randomNetwork(backend, outside);
+            List<Stop> want = expected.getStops();
+            want.add(outside);
+            for (int parallelism : new int[] {1, 4}) {
+                Stop other = new Stop("outside", 500, 500);
+                Network network = randomNetwork(backend, other);
+                assertFalse(network.getGraph().isClosed());
+                network.rebuildRouting(parallelism);
+                List<Stop> got = network.getStops();
+                got.add(other);
+                assertSameTables(want, got);
+            }
+        }
+    }
+
+    /*
+     * Adds the given number of stops to a network, scattered at random so that
+     * no two routes are likely to cost the same.
+     */
+    private static List<Stop> scattered(Network network, int count, long seed)
+            throws Exception {
+        Random random = new Random(seed);
+        List<Stop> stops = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Stop stop = new Stop("s" + i, random.nextInt(1000),
+                    random.nextInt(1000));
+            network.addStop(stop);
+            stops.add(stop);
+        }
+        return stops;
+    }
+
+    /*
+     * Builds a network of scattered stops joined by random links, in a single
+     * batch. If a stop outside the network is given, it is linked to (and
+     * from) the first stop.
+     */
+    private static Network randomNetwork(RoutingBackend backend, Stop outside)
+            throws Exception {
+        Network network = new Network(backend);
+        List<Stop> stops = scattered(network, 40, 3);
+        Random random = new Random(4);
+        network.beginBatch();
+        for (int i = 1; i < stops.size(); i++) {
+            link(stops.get(random.nextInt(i)), stops.get(i));
+            link(stops.get(random.nextInt(i)), stops.get(i));
+        }
+        if (outside != null) {
+            link(stops.get(0), outside);
+        }
+        network.commit();
+        return network;
+    }
+
+    /*
+     * Links two stops in both directions, as adding them to a route does.
+     */
+    private static void link(Stop first, Stop second) {
+        if (first != second) {
+            first.addNeighbouringStop(second);
+            second.addNeighbouringStop(first);
+        }
+    }
+
+    /*
+     * Checks that the stops in two networks, in the same order, have the same
+     * entries: the same destinations, at the same cost, via the same next
+     * stop. Stops are matched across the networks by name.
+     *
+     * Manhattan distances tie whenever a stop lies between two others, so
+     * where the next stops differ, both must be a first step along a route
+     * of that cost.
+     */
+    private static void assertSameTables(List<Stop> expected,
+                                         List<Stop> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            RoutingTable want = expected.get(i).getRoutingTable();
+            RoutingTable got = actual.get(i).getRoutingTable();
+            Map<Stop, Integer> wantCosts = want.getCosts();
+            Map<Stop, Integer> gotCosts = got.getCosts();
+            assertEquals(wantCosts.size(), gotCosts.size());
+            for (Map.Entry<Stop, Integer> entry : wantCosts.entrySet()) {
+                Stop destination = null;
+                for (Stop stop : gotCosts.keySet()) {
+                    if (stop.getName().equals(entry.getKey().getName())) {
+                        destination = stop;
+                    }
+                }
+                assertNotNull(destination);
+                int cost = entry.getValue();
+                assertEquals(cost, (int) gotCosts.get(destination));
+                Stop wantNext = want.nextStop(entry.getKey());
+                Stop gotNext = got.nextStop(destination);
+                if (!wantNext.getName().equals(gotNext.getName())) {
+                    assertStepCosts(expected.get(i), wantNext, entry.getKey(),
+                            cost);
+                    assertStepCosts(actual.get(i), gotNext, destination,
+                            cost);
+                }
+            }
+        }
+    }
+
+    /*
+     * Checks that going from a stop to the given next stop, then on to the
+     * destination, costs the given amount. A stop's own neighbours have the
+     * stop itself as their next stop (see RoutingTable.addNeighbour).
+     */
+    private static void assertStepCosts(Stop stop, Stop next,
+                                        Stop destination, int cost) {
+        if (next == stop) {
+            assertTrue(stop.getNeighbours().contains(destination));
+            assertEquals(cost, stop.distanceTo(destination));
+            return;
+        }
+        assertTrue(stop.getNeighbours().contains(next));
+        assertEquals(cost, stop.distanceTo(next)
+                + next.getRoutingTable().costTo(destination));
+    }
+}
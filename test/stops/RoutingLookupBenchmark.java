@@ -0,0 +1,71 @@
+package stops;
+
+import network.Grids;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Times {@link RoutingTable#costTo(Stop)} and {@link RoutingTable#nextStop(Stop)}
+ * on a routed grid network, and checks that the lookups allocate nothing.
+ *
+ * <p>Allocation is measured with the per-thread allocation counter of
+ * {@link com.sun.management.ThreadMXBean}, after a warm-up long enough for the
+ * lookups to be compiled. The benchmark fails with an AssertionError if any
+ * bytes are allocated during the measured lookups.
+ *
+ * <p>Usage: {@code java stops.RoutingLookupBenchmark [side]} (default 30, i.e.
+ * a 30 x 30 grid), for each {@link RoutingBackend}.
+ */
+public class RoutingLookupBenchmark {
+    // lookups per measured round
+    private static final int LOOKUPS = 5_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int side = args.length == 0 ? 30 : Integer.parseInt(args[0]);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean)
+                        ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        for (RoutingBackend backend : RoutingBackend.values()) {
+            List<Stop> stops = Grids.grid(backend, side).getStops();
+            int count = stops.size();
+
+            long checksum = 0;
+            for (int round = 0; round < 5; round++) {
+                checksum += lookups(stops, count);
+            }
+
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            checksum += lookups(stops, count);
+            long elapsed = System.nanoTime() - start;
+            bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+            System.out.printf("%s: %.1f ns/lookup, %d bytes allocated"
+                            + " (checksum %d)%n", backend,
+                    (double) elapsed / (2 * LOOKUPS), bytes, checksum);
+            if (bytes != 0) {
+                throw new AssertionError(backend + " lookups allocated "
+                        + bytes + " bytes");
+            }
+        }
+    }
+
+    //performs LOOKUPS pairs of costTo and nextStop calls
+    private static long lookups(List<Stop> stops, int count) {
+        long checksum = 0;
+        int from = 0;
+        int to = count / 2;
+        for (int i = 0; i < LOOKUPS; i++) {
+            RoutingTable table = stops.get(from).getRoutingTable();
+            Stop destination = stops.get(to);
+            checksum += table.costTo(destination);
+            checksum += table.nextStop(destination).getX();
+            from = from + 1 == count ? 0 : from + 1;
+            to = to + 7 >= count ? to + 7 - count : to + 7;
+        }
+        return checksum;
+    }
+}
@@ -176,6 +176,39 @@ public class RoutingTableTest {
         assertTrue(stop8.getRoutingTable().getCosts().containsKey(stop7));
     }
 
+    @Test
+    public void removeNeighbour() {
+        //link four stops in a line along a route: stop1 - stop2 - stop3 - stop
+        Route line = new BusRoute("Line", 7);
+        line.addStop(stop1);
+        line.addStop(stop2);
+        line.addStop(stop3);
+        line.addStop(stop);
+        RoutingTable first = stop1.getRoutingTable();
+        assertEquals(stop1.distanceTo(stop2) + stop2.distanceTo(stop3)
+                + stop3.distanceTo(stop), first.costTo(stop));
+        //removing a link cuts off everything routed over it
+        stop3.removeNeighbouringStop(stop2);
+        stop2.removeNeighbouringStop(stop3);
+        assertFalse(first.getCosts().containsKey(stop3));
+        assertFalse(first.getCosts().containsKey(stop));
+        assertEquals(2, first.getCosts().size());
+        assertTrue(stop.getRoutingTable().getCosts().containsKey(stop3));
+        //removing a stop from the route links up the stops either side of it
+        line.addStop(stop2);
+        line.removeStop(stop);
+        assertFalse(stop.getRoutes().contains(line));
+        assertFalse(stop3.getNeighbours().contains(stop));
+        assertEquals(1, stop.getRoutingTable().getCosts().size());
+        assertEquals(stop1.distanceTo(stop2) + stop2.distanceTo(stop3),
+                first.costTo(stop3));
+        assertEquals(stop2, first.nextStop(stop3));
+        //removing a stop which isn't a neighbour does nothing
+        stop1.removeNeighbouringStop(stop);
+        stop1.removeNeighbouringStop(null);
+        assertEquals(3, first.getCosts().size());
+    }
+
     @Test
     public void transferEntries() {
         //testing a null stop and check if the entries are transfered
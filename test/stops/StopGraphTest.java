@@ -0,0 +1,187 @@
+package stops;
+
+import network.Network;
+import org.junit.Before;
+import org.junit.Test;
+import routes.BusRoute;
+import routes.Route;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StopGraphTest {
+
+    private Network network;
+    private StopGraph graph;
+    private List<Stop> stops;
+
+    @Before
+    public void setUp() throws Exception {
+        //a loop of stops, with a spur off the first
+        network = new Network(RoutingBackend.ARRAYS);
+        graph = network.getGraph();
+        stops = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            stops.add(new Stop("s" + i, i * 2, i % 3));
+        }
+        network.addStops(stops);
+        Route loop = new BusRoute("loop", 1);
+        for (int i = 0; i < 5; i++) {
+            loop.addStop(stops.get(i));
+        }
+        loop.addStop(stops.get(0));
+        network.addRoute(loop);
+        Route spur = new BusRoute("spur", 2);
+        spur.addStop(stops.get(0));
+        spur.addStop(stops.get(5));
+        network.addRoute(spur);
+    }
+
+    @Test
+    public void stopsAreIndexedInOrder() {
+        assertEquals(6, graph.size());
+        for (int i = 0; i < stops.size(); i++) {
+            assertEquals(i, stops.get(i).getIndex());
+            assertEquals(i, graph.indexOf(stops.get(i)));
+            assertSame(stops.get(i), graph.getStop(i));
+        }
+        assertEquals(-1, graph.indexOf(null));
+        assertEquals(-1, graph.indexOf(new Stop("s0", 0, 0)));
+        //adding a stop again keeps its index
+        assertEquals(2, graph.add(stops.get(2)));
+        assertEquals(6, graph.size());
+    }
+
+    @Test
+    public void indexesAreStableAfterRemoval() throws Exception {
+        network.removeStop(stops.get(2));
+        Stop added = new Stop("added", 9, 9);
+        network.addStop(added);
+        //the removed stop keeps its index, and no index is reused
+        assertEquals(7, graph.size());
+        assertEquals(6, added.getIndex());
+        for (int i = 0; i < stops.size(); i++) {
+            assertEquals(i, graph.indexOf(stops.get(i)));
+            assertSame(stops.get(i), graph.getStop(i));
+        }
+        //and gets it back when it is restored
+        network.addStop(stops.get(2));
+        assertEquals(2, stops.get(2).getIndex());
+        assertEquals(7, graph.size());
+        assertCompactMatchesNeighbours(graph);
+    }
+
+    @Test
+    public void stopsInAnotherNetworkAreRejected() throws Exception {
+        Network other = new Network();
+        Stop shared = stops.get(5);
+        Stop fresh = new Stop("fresh", 1, 1);
+        try {
+            other.addStop(shared);
+            fail("the stop was taken from its network");
+        } catch (IllegalArgumentException expected) {
+            //a stop can only be in one network
+        }
+        try {
+            other.addStops(Arrays.asList(fresh, shared));
+            fail("the stop was taken from its network");
+        } catch (IllegalArgumentException expected) {
+            //and none of the stops are added
+        }
+        try {
+            other.getGraph().add(shared);
+            fail("the stop was taken from its graph");
+        } catch (IllegalArgumentException expected) {
+            //graphs refuse it too
+        }
+        assertTrue(other.getStops().isEmpty());
+        assertEquals(0, other.getGraph().size());
+        assertEquals(-1, fresh.getIndex());
+
+        //removed stops keep their index, so cannot move either
+        network.removeStop(shared);
+        try {
+            other.addStop(shared);
+            fail("the removed stop was taken from its network");
+        } catch (IllegalArgumentException expected) {
+            //it can still be restored to its own network
+        }
+
+        //the first network still indexes and routes all of its stops
+        network.addStop(shared);
+        assertEquals(5, graph.indexOf(shared));
+        assertCompactMatchesNeighbours(graph);
+        network.getRoutes().get(1).addStop(shared);
+        assertEquals(stops.get(0).distanceTo(shared),
+                network.findPath(stops.get(0), shared).getCost());
+        assertEquals(stops.get(0).distanceTo(shared),
+                stops.get(0).getRoutingTable().costTo(shared));
+    }
+
+    @Test
+    public void compactArraysMatchNeighbours() {
+        assertCompactMatchesNeighbours(graph);
+        assertTrue(graph.isClosed());
+        //new links are seen as soon as they are made
+        stops.get(3).addNeighbouringStop(stops.get(5));
+        assertCompactMatchesNeighbours(graph);
+        stops.get(1).removeNeighbouringStop(stops.get(2));
+        assertCompactMatchesNeighbours(graph);
+        //links to stops outside the graph are left out
+        Stop outside = new Stop("outside", 20, 20);
+        stops.get(4).addNeighbouringStop(outside);
+        assertCompactMatchesNeighbours(graph);
+        assertFalse(graph.isClosed());
+    }
+
+    @Test
+    public void hashCodeAgreesWithEquals() {
+        Stop first = new Stop("Lakes", 3, 4);
+        Stop second = new Stop("Lakes", 3, 4);
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        //routes are part of equality, and the hash of equal stops still agrees
+        Route route = new BusRoute("Goma", 1);
+        first.addRoute(route);
+        assertFalse(first.equals(second));
+        second.addRoute(route);
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        //indexing a stop changes neither
+        network.getGraph().add(first);
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        for (Stop stop : Arrays.asList(new Stop("Lakes", 4, 3),
+                new Stop("Lake", 3, 4), new Stop("Lakes", 3, 5))) {
+            assertFalse(first.equals(stop));
+        }
+    }
+
+    /*
+     * Checks that the compact arrays of a graph hold exactly the links from
+     * each of its stops to its neighbours in the graph, in the order of
+     * getNeighbours(), with their distances.
+     */
+    private static void assertCompactMatchesNeighbours(StopGraph graph) {
+        for (int i = 0; i < graph.size(); i++) {
+            Stop stop = graph.getStop(i);
+            List<Integer> expected = new ArrayList<>();
+            for (Stop neighbour : stop.getNeighbours()) {
+                if (graph.indexOf(neighbour) >= 0) {
+                    expected.add(neighbour.getIndex());
+                }
+            }
+            List<Integer> actual = new ArrayList<>();
+            for (int e = graph.neighbourStart(i); e < graph.neighbourEnd(i);
+                 e++) {
+                actual.add(graph.neighbourAt(e));
+                assertEquals(stop.distanceTo(graph.getStop(
+                        graph.neighbourAt(e))), graph.weightAt(e));
+            }
+            assertEquals(expected, actual);
+        }
+    }
+}
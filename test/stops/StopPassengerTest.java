@@ -0,0 +1,241 @@
+package stops;
+
+import org.junit.Before;
+import org.junit.Test;
+import network.Network;
+import passengers.Passenger;
+import routes.BusRoute;
+import routes.Route;
+import vehicles.Bus;
+import vehicles.PublicTransport;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StopPassengerTest {
+
+    private Stop stop;
+    private Stop north;
+    private Stop south;
+    private PublicTransport vehicle;
+
+    @Before
+    public void setUp() throws Exception {
+        stop = new Stop("Central", 0, 0);
+        north = new Stop("North", 0, 4);
+        south = new Stop("South", 0, -4);
+        vehicle = new Bus(1, 3, new BusRoute("Loop", 1), "ABC123");
+        stop.transportArrive(vehicle);
+    }
+
+    @Test
+    public void departuresBoardInArrivalOrder() throws Exception {
+        Passenger[] passengers = new Passenger[6];
+        for (int i = 0; i < passengers.length; i++) {
+            passengers[i] = new Passenger("p" + i, i % 2 == 0 ? north : south);
+            stop.addPassenger(passengers[i]);
+        }
+        //no destination, so never boards
+        Passenger lost = new Passenger("lost");
+        stop.addPassenger(lost);
+
+        vehicle.addPassenger(new Passenger("already on board"));
+        stop.transportDepart(vehicle, north);
+
+        //only two seats were left, for the first two headed north
+        List<Passenger> onBoard = vehicle.getPassengers();
+        assertEquals(3, onBoard.size());
+        assertSame(passengers[0], onBoard.get(1));
+        assertSame(passengers[2], onBoard.get(2));
+
+        //everyone else is still waiting, in the order they arrived
+        List<Passenger> waiting = stop.getWaitingPassengers();
+        assertEquals(5, waiting.size());
+        assertSame(passengers[1], waiting.get(0));
+        assertSame(passengers[3], waiting.get(1));
+        assertSame(passengers[4], waiting.get(2));
+        assertSame(passengers[5], waiting.get(3));
+        assertSame(lost, waiting.get(4));
+    }
+
+    @Test
+    public void arrivalsAreRoutedAsIfAddedOneByOne() throws Exception {
+        //the same stops, linked both ways, with passengers added one by one
+        Stop[] linked = {stop, new Stop("Central", 0, 0)};
+        Stop[] others = {north, new Stop("North", 0, 4)};
+        for (int i = 0; i < 2; i++) {
+            linked[i].addNeighbouringStop(others[i]);
+            others[i].addNeighbouringStop(linked[i]);
+        }
+        PublicTransport arriving = new Bus(2, 10, new BusRoute("Loop", 1),
+                "DEF456");
+        Stop[] destinations = {north, south, null, north, south, north};
+        for (int i = 0; i < destinations.length; i++) {
+            arriving.addPassenger(new Passenger("a" + i, destinations[i]));
+            linked[1].addPassenger(new Passenger("a" + i,
+                    destinations[i] == north ? others[1] : destinations[i]));
+        }
+        stop.transportArrive(arriving);
+
+        List<Passenger> expected = linked[1].getWaitingPassengers();
+        List<Passenger> actual = stop.getWaitingPassengers();
+        assertEquals(destinations.length, actual.size());
+        for (int i = 0; i < destinations.length; i++) {
+            assertEquals(expected.get(i).getName(), actual.get(i).getName());
+            assertEquals(String.valueOf(expected.get(i).getDestination()),
+                    String.valueOf(actual.get(i).getDestination()));
+        }
+
+        //and they board by their new destination
+        Stop next = actual.get(0).getDestination();
+        stop.transportDepart(vehicle, next);
+        assertEquals(3, vehicle.getPassengers().size());
+        assertEquals("a0", vehicle.getPassengers().get(0).getName());
+    }
+
+    @Test
+    public void changedDestinationsKeepTheirQueue() throws Exception {
+        Passenger changed = new Passenger("changed", north);
+        Passenger given = new Passenger("given");
+        stop.addPassenger(changed);
+        stop.addPassenger(given);
+        changed.setDestination(south);
+        given.setDestination(south);
+
+        //neither is queued for the south, so neither boards
+        stop.transportDepart(vehicle, south);
+        assertTrue(vehicle.getPassengers().isEmpty());
+        assertEquals(2, stop.getWaitingPassengers().size());
+
+        //the passenger first headed north still boards for the north
+        PublicTransport next = new Bus(2, 3, new BusRoute("Loop", 1), "DEF");
+        stop.transportArrive(next);
+        stop.transportDepart(next, north);
+        assertEquals(1, next.getPassengers().size());
+        assertSame(changed, next.getPassengers().get(0));
+        assertEquals(south, changed.getDestination());
+        assertSame(given, stop.getWaitingPassengers().get(0));
+    }
+
+    @Test
+    public void departuresOnlyTakeTheirCapacity() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            stop.addPassenger(new Passenger("p" + i, south));
+        }
+        stop.transportDepart(vehicle, south);
+        assertEquals(3, vehicle.getPassengers().size());
+        assertEquals(2, stop.getWaitingPassengers().size());
+        assertEquals("p3", stop.getWaitingPassengers().get(0).getName());
+
+        //a vehicle which is not at the stop takes no one
+        stop.transportDepart(vehicle, south);
+        assertEquals(2, stop.getWaitingPassengers().size());
+
+        PublicTransport next = new Bus(2, 3, new BusRoute("Loop", 1), "DEF");
+        stop.transportArrive(next);
+        stop.transportDepart(next, south);
+        assertEquals(2, next.getPassengers().size());
+        assertTrue(stop.getWaitingPassengers().isEmpty());
+    }
+
+    @Test
+    public void countedPassengersRideToTheirDestination() throws Exception {
+        Network network = new Network();
+        Stop[] line = new Stop[4];
+        Route route = new BusRoute("Line", 2);
+        for (int i = 0; i < line.length; i++) {
+            line[i] = new Stop("s" + i, i * 2, 0);
+            network.addStop(line[i]);
+            route.addStop(line[i]);
+        }
+        network.addRoute(route);
+        PublicTransport bus = new Bus(3, 5, route, "GHI789");
+        line[0].transportArrive(bus);
+        bus.addPassenger(new Passenger("named", line[1]));
+
+        int last = line[3].getIndex();
+        line[0].addFlow(last, 4);
+        line[0].addFlow(line[1].getIndex(), 3);
+        line[0].addFlow(line[0].getIndex(), 2);
+        assertEquals(7, line[0].getWaitingFlowCount());
+        assertEquals(2, line[0].getArrivedFlowCount());
+        assertTrue(line[0].getWaitingPassengers().isEmpty());
+
+        //both flows are routed via s1, but only 4 fit beside the passenger
+        line[0].transportDepart(bus, line[1]);
+        assertEquals(5, bus.passengerCount());
+        assertEquals(3, bus.getFlow(line[1].getIndex()));
+        assertEquals(1, bus.getFlow(last));
+        assertEquals(3, line[0].getWaitingFlow(last));
+
+        //at s1, those headed there arrive and the rest wait
+        line[1].transportArrive(bus);
+        assertEquals(0, bus.passengerCount());
+        assertEquals(3, line[1].getArrivedFlowCount());
+        assertEquals(1, line[1].getWaitingFlow(last));
+        assertEquals(1, line[1].getWaitingPassengers().size());
+
+        //a departure the wrong way takes no one
+        line[1].transportDepart(bus, line[0]);
+        assertEquals(0, bus.passengerCount());
+        assertEquals(1, line[1].getWaitingFlowCount());
+    }
+
+    @Test
+    public void countedPassengersDoNotOverflow() throws Exception {
+        Network network = new Network();
+        Stop first = new Stop("first", 0, 0);
+        Stop second = new Stop("second", 1, 0);
+        Stop third = new Stop("third", 2, 0);
+        network.addStop(first);
+        network.addStop(second);
+        network.addStop(third);
+
+        first.addFlow(second.getIndex(), Integer.MAX_VALUE - 1);
+        first.addFlow(third.getIndex(), 1);
+        try {
+            first.addFlow(third.getIndex(), 1);
+            fail("the waiting count overflowed");
+        } catch (ArithmeticException expected) {
+            //nothing was added
+        }
+        assertEquals(Integer.MAX_VALUE, first.getWaitingFlowCount());
+        assertEquals(1, first.getWaitingFlow(third.getIndex()));
+
+        //arrivals are counted as a long, so do not overflow
+        first.addFlow(first.getIndex(), Integer.MAX_VALUE);
+        first.addFlow(first.getIndex(), Integer.MAX_VALUE);
+        assertEquals(2L * Integer.MAX_VALUE, first.getArrivedFlowCount());
+
+        //an arrival which would overflow leaves the stop and vehicle alone
+        Route route = new BusRoute("Line", 4);
+        route.addStop(first);
+        route.addStop(second);
+        route.addStop(third);
+        PublicTransport bus = new Bus(1, 10, route, "JKL012");
+        second.transportArrive(bus);
+        bus.addPassenger(new Passenger("named", first));
+        bus.boardFlow(third.getIndex(), 1);
+        bus.boardFlow(first.getIndex(), 2);
+        try {
+            first.transportArrive(bus);
+            fail("the waiting count overflowed");
+        } catch (ArithmeticException expected) {
+            //nothing was unloaded
+        }
+        assertEquals(3, bus.getFlowCount());
+        assertEquals(1, bus.getPassengers().size());
+        assertFalse(first.isAtStop(bus));
+        assertTrue(first.getWaitingPassengers().isEmpty());
+        assertEquals(2L * Integer.MAX_VALUE, first.getArrivedFlowCount());
+
+        //those who have arrived never wait, so do not count towards it
+        bus.unloadFlows();
+        bus.boardFlow(first.getIndex(), 2);
+        first.transportArrive(bus);
+        assertTrue(first.isAtStop(bus));
+        assertEquals(2L * Integer.MAX_VALUE + 2, first.getArrivedFlowCount());
+        assertEquals(Integer.MAX_VALUE, first.getWaitingFlowCount());
+    }
+}
@@ -0,0 +1,177 @@
+package stops;
+
+import network.Network;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class StopTraversalTest {
+
+    @Test
+    public void cyclesAreVisitedOnce() throws Exception {
+        Network network = new Network();
+        List<Stop> loop = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            loop.add(new Stop("s" + i, i, 0));
+        }
+        network.addStops(loop);
+        for (int i = 0; i < loop.size(); i++) {
+            loop.get(i).addNeighbouringStop(loop.get((i + 1) % loop.size()));
+        }
+        //a self-link and a link back are not followed twice
+        loop.get(2).addNeighbouringStop(loop.get(2));
+        loop.get(3).addNeighbouringStop(loop.get(0));
+
+        List<Stop> visited = traverse(Collections.singletonList(loop.get(0)));
+        assertEquals(loop, visited);
+        assertEquals(reachable(Collections.singletonList(loop.get(3))),
+                traverse(Collections.singletonList(loop.get(3))));
+    }
+
+    @Test
+    public void disconnectedStopsAreNotVisited() throws Exception {
+        Network network = new Network();
+        Stop a = new Stop("a", 0, 0);
+        Stop b = new Stop("b", 1, 0);
+        Stop c = new Stop("c", 2, 0);
+        Stop d = new Stop("d", 3, 0);
+        Stop e = new Stop("e", 4, 0);
+        network.addStops(Arrays.asList(a, b, c, d, e));
+        a.addNeighbouringStop(b);
+        b.addNeighbouringStop(a);
+        //links only run one way
+        c.addNeighbouringStop(d);
+
+        assertEquals(Arrays.asList(a, b),
+                traverse(Collections.singletonList(a)));
+        assertEquals(Collections.singletonList(d),
+                traverse(Collections.singletonList(d)));
+        assertEquals(Arrays.asList(c, d),
+                traverse(Collections.singletonList(c)));
+        assertEquals(Collections.singletonList(e),
+                traverse(Collections.singletonList(e)));
+        //several starts (including repeats and nulls) are each visited once
+        assertEquals(Arrays.asList(e, a, b),
+                traverse(Arrays.asList(e, null, a, e)));
+        assertTrue(traverse(Collections.singletonList(null)).isEmpty());
+    }
+
+    @Test
+    public void equalStopsAreToldApart() throws Exception {
+        //two stops which are equal, one in the network and one outside it
+        Network network = new Network();
+        Stop inside = new Stop("twin", 1, 1);
+        Stop outside = new Stop("twin", 1, 1);
+        Stop other = new Stop("other", 2, 2);
+        network.addStop(inside);
+        network.addStop(other);
+        assertEquals(inside, outside);
+        inside.addNeighbouringStop(outside);
+        outside.addNeighbouringStop(other);
+        other.addNeighbouringStop(inside);
+
+        List<Stop> visited = traverse(Collections.singletonList(inside));
+        assertEquals(3, visited.size());
+        assertSame(inside, visited.get(0));
+        assertSame(outside, visited.get(1));
+        assertSame(other, visited.get(2));
+    }
+
+    @Test
+    public void routingTablesAreFollowedWhenAsked() throws Exception {
+        Network network = new Network();
+        Stop a = new Stop("a", 0, 0);
+        Stop b = new Stop("b", 1, 0);
+        Stop far = new Stop("far", 9, 9);
+        network.addStops(Arrays.asList(a, b));
+        a.addNeighbouringStop(b);
+        //an entry which did not come from a link
+        b.getRoutingTable().addOrUpdateEntry(far, 20, a);
+
+        assertEquals(Arrays.asList(a, b),
+                traverse(Collections.singletonList(a)));
+        List<Stop> visited = new ArrayList<>();
+        StopTraversal.forEachReachable(Collections.singletonList(a), true,
+                visited::add);
+        assertEquals(Arrays.asList(a, b, far), visited);
+    }
+
+    @Test
+    public void randomNetworksMatchASimpleSearch() throws Exception {
+        Random random = new Random(6);
+        for (int round = 0; round < 20; round++) {
+            //stops split between two networks and none, sparsely linked
+            Network first = new Network();
+            Network second = new Network();
+            List<Stop> stops = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                Stop stop = new Stop("s" + i, i, round);
+                if (i % 3 == 0) {
+                    first.addStop(stop);
+                } else if (i % 3 == 1) {
+                    second.addStop(stop);
+                }
+                stops.add(stop);
+            }
+            for (int i = 0; i < 25; i++) {
+                stops.get(random.nextInt(stops.size())).addNeighbouringStop(
+                        stops.get(random.nextInt(stops.size())));
+            }
+            for (int i = 0; i < 5; i++) {
+                List<Stop> starts = Arrays.asList(
+                        stops.get(random.nextInt(stops.size())),
+                        stops.get(random.nextInt(stops.size())));
+                assertEquals(reachable(starts), traverse(starts));
+            }
+        }
+    }
+
+    /*
+     * Returns the stops visited by StopTraversal from the given stops, in the
+     * order they were visited, checking that none was visited twice.
+     */
+    private static List<Stop> traverse(List<Stop> starts) {
+        List<Stop> visited = new ArrayList<>();
+        Set<Stop> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        StopTraversal.forEachReachable(starts, stop -> {
+            assertTrue(seen.add(stop));
+            visited.add(stop);
+        });
+        return visited;
+    }
+
+    /*
+     * Returns the stops reachable from the given stops in breadth-first order,
+     * found with a plain search over getNeighbours().
+     */
+    private static List<Stop> reachable(List<Stop> starts) {
+        List<Stop> found = new ArrayList<>();
+        Set<Stop> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Stop> pending = new ArrayDeque<>();
+        for (Stop start : starts) {
+            if (start != null && seen.add(start)) {
+                pending.add(start);
+            }
+        }
+        while (!pending.isEmpty()) {
+            Stop current = pending.poll();
+            found.add(current);
+            for (Stop next : current.getNeighbours()) {
+                if (seen.add(next)) {
+                    pending.add(next);
+                }
+            }
+        }
+        return found;
+    }
+}
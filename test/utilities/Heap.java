@@ -0,0 +1,50 @@
+package utilities;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the heap (and the direct memory outside of it) used by tests and
+ * benchmarks.
+ */
+public final class Heap {
+
+    // no instances, only static helpers
+    private Heap() {}
+
+    /**
+     * Returns the heap in use once garbage has been collected.
+     *
+     * <p>Garbage collection is asked for a few times, with a short pause after
+     * each, as a single request may not collect everything.
+     *
+     * @return The bytes of heap in use.
+     * @throws InterruptedException If interrupted while pausing.
+     */
+    public static long used() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Returns the memory held by direct byte buffers, outside of the heap.
+     *
+     * <p>Direct buffers are only freed once they have been collected, so call
+     * this after used() to leave out buffers which are no longer reachable.
+     *
+     * @return The bytes of direct memory in use, or 0 if it cannot be told.
+     */
+    public static long direct() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(
+                BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+}
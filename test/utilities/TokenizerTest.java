@@ -0,0 +1,125 @@
+package utilities;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class TokenizerTest {
+
+    //the lines decoders are given, well formed and not
+    private static final String[] LINES = {"", ":", "::", "a", "a:", ":a",
+            "a:b", "a:b:", "a::b", "a:b:c", "a:b:c:", "a:b::", "a::", ":::",
+            "stop:1:2", "stop: 1 :2 ", "stop:1:2:", "stop:1", "stop::2",
+            "a:b:c:d"};
+
+    //Integer.parseInt(string.trim()), or null if it throws
+    private static Integer expected(String string) {
+        try {
+            return Integer.parseInt(string.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    //Tokenizer.parseInt(string), or null if it throws
+    private static Integer actual(String string) {
+        try {
+            return Tokenizer.parseInt(string);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void assertParsedAsJdk(String string) {
+        assertEquals("\"" + string + "\"", expected(string), actual(string));
+    }
+
+    @Test
+    public void signsAreParsedLikeTheJdk() {
+        for (String string : new String[] {"-", "+", "--1", "+-1", "-+1",
+                "- 1", "+0", "-0", "-7", "+7", " -42 ", "1-", "1+"}) {
+            assertParsedAsJdk(string);
+        }
+        assertEquals(-7, Tokenizer.parseInt("-7"));
+        assertEquals(7, Tokenizer.parseInt("+7"));
+    }
+
+    @Test
+    public void longValuesAreParsedLikeTheJdk() {
+        for (String string : new String[] {"999999999", "-999999999",
+                "+999999999", "1000000000", "-1000000000", "2147483647",
+                "-2147483648", "+2147483647", "2147483648", "-2147483649",
+                "9999999999", "000000000012", " 2147483647\t",
+                "12345678901234567890"}) {
+            assertParsedAsJdk(string);
+        }
+        assertEquals(Integer.MAX_VALUE, Tokenizer.parseInt("2147483647"));
+        assertEquals(Integer.MIN_VALUE, Tokenizer.parseInt("-2147483648"));
+        assertEquals(999999999, Tokenizer.parseInt(" 999999999 "));
+    }
+
+    @Test
+    public void malformedNumbersAreRejectedLikeTheJdk() {
+        for (String string : new String[] {"", " ", "\t", "1 2", "1.0",
+                "0x10", "1e3", "a", "12a", "a12", "\u0661\u0662", "1_000"}) {
+            assertParsedAsJdk(string);
+        }
+        try {
+            Tokenizer.parseInt(null);
+            fail();
+        } catch (NullPointerException expected) {
+        }
+    }
+
+    @Test
+    public void emptyPartsAreKept() {
+        assertArrayEquals(new String[] {""}, Tokenizer.split("", ':'));
+        assertArrayEquals(new String[] {"", ""}, Tokenizer.split(":", ':'));
+        assertArrayEquals(new String[] {"a", "", "b", ""},
+                Tokenizer.split("a::b:", ':'));
+        assertArrayEquals(new String[] {"", "a"}, Tokenizer.split(":a", ':'));
+
+        //a trailing delimiter is never exact
+        assertTrue(Tokenizer.isExact(Tokenizer.split("", ':')));
+        assertTrue(Tokenizer.isExact(Tokenizer.split("a::b", ':')));
+        assertFalse(Tokenizer.isExact(Tokenizer.split("a:b:", ':')));
+        assertFalse(Tokenizer.isExact(Tokenizer.split(":", ':')));
+    }
+
+    @Test
+    public void splitAgreesWithStringSplit() {
+        for (char delimiter : new char[] {':', ',', '|'}) {
+            Pattern pattern = Pattern.compile(Pattern.quote(
+                    String.valueOf(delimiter)));
+            for (String line : LINES) {
+                line = line.replace(':', delimiter);
+                String[] jdk = pattern.split(line);
+                String[] parts = Tokenizer.split(line, delimiter);
+                assertEquals(line, jdk.length, Tokenizer.splitLength(parts));
+                if (Tokenizer.isExact(parts)) {
+                    assertArrayEquals(jdk, parts);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void linesAreRejectedAsTheOldDecoderDid() {
+        for (int expectedParts = 1; expectedParts <= 4; expectedParts++) {
+            for (String line : LINES) {
+                //split, then count the delimiters by removing them
+                String[] jdk = line.split(":");
+                int count = line.length() - line.replace(":", "").length();
+                boolean before = count + 1 == jdk.length
+                        && jdk.length == expectedParts;
+
+                String[] parts = Tokenizer.split(line, ':');
+                boolean after = Tokenizer.isExact(parts)
+                        && parts.length == expectedParts;
+                assertEquals(line + " in " + expectedParts, before, after);
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package vehicles;
+
+import exceptions.OverCapacityException;
+import exceptions.TransportFormatException;
+import org.junit.Before;
+import org.junit.Test;
+import passengers.Passenger;
+import routes.BusRoute;
+import routes.FerryRoute;
+import routes.Route;
+import routes.TrainRoute;
+import stops.Stop;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PublicTransportTest {
+
+    private PublicTransport vehicle;
+    private List<Passenger> boarding;
+
+    @Before
+    public void setUp() throws Exception {
+        vehicle = new Bus(1, 4, new BusRoute("Loop", 1), "ABC123");
+        boarding = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            boarding.add(new Passenger("p" + i));
+        }
+    }
+
+    @Test
+    public void boardTakesTheRoomLeft() throws Exception {
+        vehicle.addPassenger(new Passenger("first"));
+        assertEquals(3, vehicle.board(boarding, 10));
+        List<Passenger> onBoard = vehicle.getPassengers();
+        assertEquals(4, onBoard.size());
+        assertSame(boarding.get(0), onBoard.get(1));
+        assertSame(boarding.get(2), onBoard.get(3));
+
+        //a full vehicle takes no one, without throwing
+        assertEquals(0, vehicle.board(boarding, 10));
+        try {
+            vehicle.addPassenger(new Passenger("last"));
+            fail();
+        } catch (OverCapacityException expected) {
+        }
+    }
+
+    @Test
+    public void boardTakesAtMostTheMaximum() {
+        assertEquals(0, vehicle.board(boarding, 0));
+        assertEquals(0, vehicle.board(null, 4));
+
+        //null passengers are skipped
+        List<Passenger> withNulls = Arrays.asList(null, boarding.get(0), null,
+                boarding.get(1), boarding.get(2));
+        assertEquals(2, vehicle.board(withNulls, 2));
+        assertEquals(Arrays.asList(boarding.get(0), boarding.get(1)),
+                vehicle.getPassengers());
+        assertEquals(2, vehicle.board(boarding.subList(3, 6), 5));
+        assertEquals(4, vehicle.passengerCount());
+    }
+
+    @Test
+    public void countedPassengersShareTheCapacity() throws Exception {
+        vehicle.addPassenger(new Passenger("first"));
+        assertEquals(2, vehicle.boardFlow(7, 2));
+        assertEquals(3, vehicle.passengerCount());
+        assertEquals(1, vehicle.getPassengers().size());
+
+        //only the room left is taken, and negative destinations are refused
+        assertEquals(0, vehicle.boardFlow(-1, 5));
+        assertEquals(1, vehicle.boardFlow(3, 5));
+        assertEquals(0, vehicle.board(boarding, 10));
+        assertEquals(2, vehicle.getFlow(7));
+
+        //unloading passengers leaves the counts on board, and vice versa
+        assertEquals(1, vehicle.unload().size());
+        assertEquals(3, vehicle.passengerCount());
+        assertEquals(3, vehicle.unloadFlows().total());
+        assertEquals(0, vehicle.passengerCount());
+        assertEquals(0, vehicle.getFlow(7));
+    }
+
+    @Test
+    public void indexedRoutesDecodeLikeTheList() throws Exception {
+        //two routes share a number, and the first one should always be used
+        Stop stop = new Stop("City", 2, 0);
+        List<Route> routes = new ArrayList<>();
+        routes.add(new BusRoute("first", 1));
+        routes.add(new BusRoute("second", 1));
+        routes.add(new TrainRoute("rail", 2));
+        for (Route route : routes) {
+            route.addStop(stop);
+        }
+        Route empty = new FerryRoute("empty", 3);
+        routes.add(empty);
+        Map<Integer, Route> routesByNumber = new HashMap<>();
+        for (Route route : routes) {
+            routesByNumber.putIfAbsent(route.getRouteNumber(), route);
+        }
+
+        String[] lines = {"bus,1,30,1,ABC", "bus, 1 , 30 , 1 ,ABC",
+                "train,2,60,2,3", "train,2,60,2,x", "train,2,60,2, 3 ",
+                "bus,1,30,2,ABC", "ferry,3,10,3,Cat", "bus,1,30,9,ABC",
+                "tram,1,30,1,ABC", "bus,x,30,1,ABC", "bus,1,30,1",
+                "bus,1,30,1,ABC,", "bus,,30,1,ABC", " bus,1,30,1,ABC",
+                "bus,1,30,1,", "bus,1,30,-1,ABC", "bus,1,30,1,A,B", "",
+                ",,,,"};
+        for (String line : lines) {
+            PublicTransport expected = decodeOrNull(line, routes);
+            PublicTransport actual = null;
+            try {
+                actual = PublicTransport.decode(line, routesByNumber);
+            } catch (TransportFormatException e) {
+                //rejected, as the list version should have been
+            }
+            assertSameVehicle(line, expected, actual);
+
+            //a detached vehicle is only missing from its route, so an empty
+            //route is the one thing it does not reject
+            int onRoute = countTransports(routes);
+            PublicTransport detached = null;
+            try {
+                detached = PublicTransport.decodeDetached(line,
+                        routesByNumber);
+            } catch (TransportFormatException e) {
+                //rejected, as the list version should have been
+            }
+            assertEquals(onRoute, countTransports(routes));
+            if (line.equals("ferry,3,10,3,Cat")) {
+                assertNull(expected);
+                assertSame(empty, detached.getRoute());
+            } else {
+                assertSameVehicle(line, expected, detached);
+            }
+        }
+        assertSame(routes.get(0), decodeOrNull("bus,1,30,1,ABC", routes)
+                .getRoute());
+    }
+
+    @Test(expected = TransportFormatException.class)
+    public void nullIndexIsRejected() throws Exception {
+        PublicTransport.decode("bus,1,30,1,ABC", (Map<Integer, Route>) null);
+    }
+
+    @Test(expected = TransportFormatException.class)
+    public void nullDetachedIndexIsRejected() throws Exception {
+        PublicTransport.decodeDetached("bus,1,30,1,ABC", null);
+    }
+
+    /*
+     * Decodes the given line with the list of routes, or returns null if it
+     * is rejected.
+     */
+    private static PublicTransport decodeOrNull(String line,
+                                                List<Route> routes) {
+        try {
+            return PublicTransport.decode(line, new ArrayList<>(routes));
+        } catch (TransportFormatException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Checks that both vehicles were decoded the same, on the same route, or
+     * that both were rejected.
+     */
+    private static void assertSameVehicle(String line,
+                                          PublicTransport expected,
+                                          PublicTransport actual) {
+        if (expected == null) {
+            assertNull(line, actual);
+            return;
+        }
+        assertNotNull(line, actual);
+        assertEquals(line, expected.encode(), actual.encode());
+        assertSame(line, expected.getRoute(), actual.getRoute());
+    }
+
+    /*
+     * Returns the number of vehicles on all of the given routes.
+     */
+    private static int countTransports(List<Route> routes) {
+        int count = 0;
+        for (Route route : routes) {
+            count += route.getTransports().size();
+        }
+        return count;
+    }
+}